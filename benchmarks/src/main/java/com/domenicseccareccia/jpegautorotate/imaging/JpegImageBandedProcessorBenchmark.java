@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures banded processing of large images, from JPEG image file to a discarded stream. Rotations by
+ * 180 degrees spill the decoded image in rows, rotations by 90 degrees in columns.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class JpegImageBandedProcessorBenchmark {
+
+    @Param({"50", "100"})
+    public int megapixels;
+
+    @Param({"3", "6"})
+    public int orientation;
+
+    @Param({"16777216", "67108864"})
+    public long maxBandBytes;
+
+    private File file;
+    private JpegAutorotateOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("jpeg-autorotate-", ".jpg");
+        Files.write(this.file.toPath(), JpegImageCorpus.createJpeg(this.megapixels, this.orientation));
+        this.options = new JpegAutorotateOptions().setBandedProcessing(true).setMaxBandBytes(this.maxBandBytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    @Benchmark
+    public void process() throws JpegAutorotateException {
+        JpegImageBandedProcessor.process(this.file, NullOutputStream.NULL_OUTPUT_STREAM, this.options);
+    }
+
+}
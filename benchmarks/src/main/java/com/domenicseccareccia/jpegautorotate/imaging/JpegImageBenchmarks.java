@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with allocation and GC profiling enabled.
+ * <p>
+ * Accepts the regular JMH command line options, e.g. {@code -p megapixels=12 -p orientation=6 Reader}.
+ * </p>
+ */
+public final class JpegImageBenchmarks {
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageBenchmarks() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    public static void main(final String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.JpegImageData;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Generates the synthetic JPEG images benchmarks run over.
+ * <p>
+ * Images have a 4:3 aspect ratio, smooth gradients overlaid with noise so they compress like
+ * photographs, an EXIF {@code Orientation} metadata tag and a 160x120 {@code ExifThumbnail}.
+ * Generation is deterministic, so every run measures the same bytes.
+ * </p>
+ */
+public final class JpegImageCorpus {
+
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageCorpus() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Generates a JPEG image file.
+     *
+     * @param megapixels
+     *              Number of pixels of the image, in millions.
+     * @param orientation
+     *              EXIF {@code Orientation} metadata tag value, 1 to 8.
+     * @return A {@code byte[]} containing a JPEG image file.
+     * @throws IOException
+     *              In the event the image is unable to be written.
+     */
+    public static byte[] createJpeg(final int megapixels, final int orientation) throws IOException {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1_000_000d * 4 / 3));
+        int height = width * 3 / 4;
+
+        byte[] image = write(createImage(width, height, megapixels));
+        byte[] thumbnail = write(createImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, megapixels));
+
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream(image.length + thumbnail.length + 1024)) {
+            new ExifRewriter().updateExifMetadataLossless(image, baos, createOutputSet(width, height, orientation, thumbnail));
+
+            return baos.toByteArray();
+        } catch (ImageReadException | ImageWriteException e) {
+            throw new IOException("Unable to write EXIF metadata.", e);
+        }
+    }
+
+    /**
+     * Generates an image as decoded by the JPEG reader.
+     *
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @param seed
+     *              Seed of the noise.
+     * @return A {@code BufferedImage} of type {@code TYPE_3BYTE_BGR}.
+     */
+    public static BufferedImage createImage(final int width, final int height, final long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(seed);
+
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(16);
+
+                data[i++] = (byte) (x * 255 / width + noise);
+                data[i++] = (byte) (y * 255 / height + noise);
+                data[i++] = (byte) ((x + y) * 127 / (width + height) + 64 + noise);
+            }
+        }
+
+        return image;
+    }
+
+    private static byte[] write(final BufferedImage image) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "jpeg", baos);
+
+            return baos.toByteArray();
+        }
+    }
+
+    private static TiffOutputSet createOutputSet(final int width, final int height, final int orientation, final byte[] thumbnail) throws ImageWriteException {
+        TiffOutputSet outputSet = new TiffOutputSet();
+
+        TiffOutputDirectory root = outputSet.getOrCreateRootDirectory();
+        root.add(TiffTagConstants.TIFF_TAG_ORIENTATION, (short) orientation);
+        root.add(TiffTagConstants.TIFF_TAG_IMAGE_WIDTH, width);
+        root.add(TiffTagConstants.TIFF_TAG_IMAGE_LENGTH, height);
+
+        outputSet.getOrCreateExifDirectory();
+
+        TiffOutputDirectory thumbnailDirectory = new TiffOutputDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_DIR_1, ByteOrder.BIG_ENDIAN);
+        thumbnailDirectory.add(TiffTagConstants.TIFF_TAG_ORIENTATION, (short) orientation);
+        thumbnailDirectory.setJpegImageData(new JpegImageData(0, thumbnail.length, thumbnail));
+        outputSet.addDirectory(thumbnailDirectory);
+
+        return outputSet;
+    }
+
+}
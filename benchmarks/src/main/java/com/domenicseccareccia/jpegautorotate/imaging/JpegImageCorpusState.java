@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * A synthetic JPEG image of every benchmarked size and EXIF {@code Orientation}, generated once per trial.
+ */
+@State(Scope.Benchmark)
+public class JpegImageCorpusState {
+
+    @Param({"1", "12", "24", "50", "100"})
+    public int megapixels;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+    public int orientation;
+
+    protected byte[] bytes;
+    protected JpegImageOrientation imageOrientation;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.bytes = JpegImageCorpus.createJpeg(this.megapixels, this.orientation);
+        this.imageOrientation = JpegImageOrientation.fromExifValue(this.orientation);
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting an upright image to the color space of its {@code ICCProfile}.
+ * The orientation does not matter here, so only the size varies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Thread)
+public class JpegImageIccProfileBenchmark {
+
+    @Param({"1", "12", "24", "50", "100"})
+    public int megapixels;
+
+    private ICC_Profile iccProfile;
+    private BufferedImage image;
+
+    @Setup
+    public void setUp() {
+        int width = (int) Math.round(Math.sqrt(this.megapixels * 1_000_000d * 4 / 3));
+
+        this.iccProfile = ICC_Profile.getInstance(ColorSpace.CS_sRGB);
+        this.image = JpegImageCorpus.createImage(width, width * 3 / 4, this.megapixels);
+    }
+
+    @Benchmark
+    public BufferedImage processIccProfile() {
+        return JpegImageProcessor.processIccProfile(this.iccProfile, this.image);
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rotating and re-encoding the {@code ExifThumbnail}. Thumbnails have a fixed size,
+ * so only the orientation varies. Processing replaces the thumbnail, so every invocation
+ * starts from freshly read metadata.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Thread)
+public class JpegImageThumbnailBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+    public int orientation;
+
+    private byte[] bytes;
+    private JpegImageMetadata metadata;
+    private final JpegAutorotateOptions options = new JpegAutorotateOptions();
+
+    @Setup
+    public void setUp() throws Exception {
+        this.bytes = JpegImageCorpus.createJpeg(1, this.orientation);
+    }
+
+    @Setup(Level.Invocation)
+    public void readMetadata() throws JpegAutorotateException {
+        this.metadata = new JpegImageMetadata(this.bytes);
+    }
+
+    @Benchmark
+    public JpegImageMetadata processThumbnail() throws JpegAutorotateException {
+        JpegImageProcessor.processThumbnail(this.metadata, this.options);
+
+        return this.metadata;
+    }
+
+}
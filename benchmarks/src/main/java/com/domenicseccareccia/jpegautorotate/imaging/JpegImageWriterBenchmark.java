@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding the upright image and writing its metadata, with either encoder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Thread)
+public class JpegImageWriterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallelEncoding;
+
+    private JpegImage image;
+    private JpegAutorotateOptions options;
+
+    @Setup
+    public void setUp(final JpegImageCorpusState corpus) throws JpegAutorotateException {
+        this.image = new JpegImage(corpus.bytes, new JpegImageBufferPool(0));
+        this.options = new JpegAutorotateOptions().setParallelEncoding(this.parallelEncoding);
+
+        JpegImageProcessor.processThumbnail(this.image.getMetadata(), this.options);
+        this.image.getMetadata().updateMetadata();
+    }
+
+    @Benchmark
+    public byte[] writeImage() throws JpegAutorotateException {
+        return JpegImageProcessor.writeImage(this.image, null, this.options);
+    }
+
+}
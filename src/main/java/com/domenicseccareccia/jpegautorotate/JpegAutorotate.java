@@ -25,6 +25,7 @@ import com.domenicseccareccia.jpegautorotate.imaging.JpegImageProcessor;
 import com.domenicseccareccia.jpegautorotate.util.ImageUtils;
 
 import java.io.*;
+import java.util.List;
 
 /**
  * Rotates JPEG images based on EXIF Orientation metadata tag.
@@ -100,7 +101,30 @@ public final class JpegAutorotate {
      *              In the event the JPEG file does not exist.
      */
     public static byte[] rotate(final String path) throws JpegAutorotateException, FileNotFoundException {
-        return rotate(new File(path));
+        return rotate(path, new JpegAutorotateOptions());
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag.
+     * <p>
+     * Applies the right {@code Orientation} to the {@code JpegImage} by rotating the pixels,
+     * rotating the {@code ExifThumbnail} (if present), setting {@code Orientation} EXIF tag to 1,
+     * updating {@code EXIF} and {@code XmpXml} metadata values and retaining all other metadata tags.
+     *
+     * @param path
+     *            {@code String} path to a JPEG image file.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              or is unable to be read
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static byte[] rotate(final String path, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
+        return rotate(new File(path), options);
     }
 
     /**
@@ -121,12 +145,138 @@ public final class JpegAutorotate {
      *              In the event the JPEG file does not exist.
      */
     public static byte[] rotate(final File file) throws JpegAutorotateException, FileNotFoundException {
+        return rotate(file, new JpegAutorotateOptions());
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag.
+     * <p>
+     * Applies the right {@code Orientation} to the {@code JpegImage} by rotating the pixels,
+     * rotating the {@code ExifThumbnail} (if present), setting {@code Orientation} EXIF tag to 1,
+     * updating {@code EXIF} and {@code XmpXml} metadata values and retaining all other metadata tags.
+     *
+     * @param file
+     *            {@code File} containing a JPEG image file.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              or is unable to be read
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static byte[] rotate(final File file, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
         if (!file.isFile() && !file.exists()) {
             throw new FileNotFoundException("JPEG file does not exist.");
         }
 
         try (InputStream is = new FileInputStream(file)) {
-            return rotate(is);
+            return rotate(is, options);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read JPEG file.", e);
+        }
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag, writing the result
+     * to an {@code OutputStream}.
+     * <p>
+     * Applies the right {@code Orientation} to the {@code JpegImage} by rotating the pixels,
+     * rotating the {@code ExifThumbnail} (if present), setting {@code Orientation} EXIF tag to 1,
+     * updating {@code EXIF} and {@code XmpXml} metadata values and retaining all other metadata tags.
+     * With {@link JpegAutorotateOptions#setBandedProcessing(boolean)}, the image is processed in bands
+     * of rows, allowing images larger than the available memory to be rotated.
+     *
+     * @param file
+     *            {@code File} containing a JPEG image file.
+     * @param outputStream
+     *            {@code OutputStream} receiving the JPEG image data. It is not closed.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              or is unable to be read or written.
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static void rotate(final File file, final OutputStream outputStream, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
+        if (!file.isFile() && !file.exists()) {
+            throw new FileNotFoundException("JPEG file does not exist.");
+        }
+
+        if (!file.isFile()) {
+            throw new JpegAutorotateException("Unable to read JPEG file.");
+        }
+
+        JpegImageProcessor.process(file, outputStream, options);
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag, and produces resized
+     * renditions of the upright image.
+     * <p>
+     * The image is decoded and rotated once. Renditions are scaled down from the upright image in a
+     * cascade, largest first, each from the previous one, and encoded at their own quality.
+     *
+     * @param file
+     *            {@code File} containing a JPEG image file.
+     * @param renditions
+     *            {@code JpegAutorotateRendition}s to produce, may be empty.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code List} holding the JPEG image data, followed by the JPEG image data
+     *         of each rendition, in order.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              or is unable to be read
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static List<byte[]> rotate(final File file, final List<JpegAutorotateRendition> renditions, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
+        if (!file.isFile() && !file.exists()) {
+            throw new FileNotFoundException("JPEG file does not exist.");
+        }
+
+        try (InputStream is = new FileInputStream(file)) {
+            return rotate(is, renditions, options);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read JPEG file.", e);
+        }
+    }
+
+    /**
+     * Produces a reduced resolution, upright preview of a JPEG image, based on its EXIF {@code Orientation}
+     * metadata tag.
+     * <p>
+     * The image is decoded at 1/2, 1/4 or 1/8 of its resolution, whichever is closest to {@code maxDimension}
+     * without going below it, rotated and scaled down to fit within {@code maxDimension}. The preview is
+     * encoded without metadata.
+     *
+     * @param file
+     *            {@code File} containing a JPEG image file.
+     * @param maxDimension
+     *            Largest width or height of the preview, at least 1.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the JPEG image data of the preview.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              or is unable to be read
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static byte[] rotatePreview(final File file, final int maxDimension, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
+        if (!file.isFile() && !file.exists()) {
+            throw new FileNotFoundException("JPEG file does not exist.");
+        }
+
+        try (InputStream is = new FileInputStream(file)) {
+            return rotatePreview(is, maxDimension, options);
         } catch (IOException e) {
             throw new JpegAutorotateException("Unable to read JPEG file.", e);
         }
@@ -148,13 +298,152 @@ public final class JpegAutorotate {
      *              is unable to be read, or does not exist.
      */
     public static byte[] rotate(final InputStream inputStream) throws JpegAutorotateException {
+        return rotate(inputStream, new JpegAutorotateOptions());
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag.
+     * <p>
+     * Applies the right {@code Orientation} to the {@code JpegImage} by rotating the pixels,
+     * rotating the {@code ExifThumbnail} (if present), setting {@code Orientation} EXIF tag to 1,
+     * updating {@code EXIF} and {@code XmpXml} metadata values and retaining all other metadata tags.
+     *
+     * @param inputStream
+     *              {@code InputStream} containing a JPEG image file.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              is unable to be read, or does not exist.
+     */
+    public static byte[] rotate(final InputStream inputStream, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        byte[] bytes = ImageUtils.toByteArray(inputStream);
+
+        if (!ImageUtils.isJpeg(bytes)) {
+            throw new JpegAutorotateException("InputStream file is not compatible, must be a JPEG image.");
+        }
+
+        return JpegImageProcessor.process(bytes, options);
+    }
+
+    /**
+     * Rotates a JPEG image, based on its EXIF {@code Orientation} metadata tag, and produces resized
+     * renditions of the upright image.
+     * <p>
+     * The image is decoded and rotated once. Renditions are scaled down from the upright image in a
+     * cascade, largest first, each from the previous one, and encoded at their own quality.
+     *
+     * @param inputStream
+     *              {@code InputStream} containing a JPEG image file.
+     * @param renditions
+     *              {@code JpegAutorotateRendition}s to produce, may be empty.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code List} holding the JPEG image data, followed by the JPEG image data
+     *         of each rendition, in order.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              is unable to be read, or does not exist.
+     */
+    public static List<byte[]> rotate(final InputStream inputStream, final List<JpegAutorotateRendition> renditions, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        byte[] bytes = ImageUtils.toByteArray(inputStream);
+
+        if (!ImageUtils.isJpeg(bytes)) {
+            throw new JpegAutorotateException("InputStream file is not compatible, must be a JPEG image.");
+        }
+
+        return JpegImageProcessor.process(bytes, renditions, options);
+    }
+
+    /**
+     * Produces a reduced resolution, upright preview of a JPEG image, based on its EXIF {@code Orientation}
+     * metadata tag.
+     * <p>
+     * The image is decoded at 1/2, 1/4 or 1/8 of its resolution, whichever is closest to {@code maxDimension}
+     * without going below it, rotated and scaled down to fit within {@code maxDimension}. The preview is
+     * encoded without metadata.
+     *
+     * @param inputStream
+     *              {@code InputStream} containing a JPEG image file.
+     * @param maxDimension
+     *              Largest width or height of the preview, at least 1.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the JPEG image data of the preview.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata, is not an acceptable file type,
+     *              is unable to be read, or does not exist.
+     */
+    public static byte[] rotatePreview(final InputStream inputStream, final int maxDimension, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        byte[] bytes = ImageUtils.toByteArray(inputStream);
+
+        if (!ImageUtils.isJpeg(bytes)) {
+            throw new JpegAutorotateException("InputStream file is not compatible, must be a JPEG image.");
+        }
+
+        return JpegImageProcessor.processPreview(bytes, maxDimension, options);
+    }
+
+    /**
+     * Produces an upright preview of a JPEG image from the image embedded in its EXIF metadata, based on
+     * its EXIF {@code Orientation} metadata tag.
+     * <p>
+     * Only the largest embedded JPEG image, usually the {@code ExifThumbnail}, is decoded and rotated; the
+     * main image is never decoded. An embedded image already properly oriented is returned as is.
+     *
+     * @param file
+     *            {@code File} containing a JPEG image file.
+     * @param options
+     *            {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the JPEG image data of the preview.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata or an embedded thumbnail,
+     *              is not an acceptable file type, or is unable to be read
+     * @throws FileNotFoundException
+     *              In the event the JPEG file does not exist.
+     */
+    public static byte[] rotateThumbnail(final File file, final JpegAutorotateOptions options) throws JpegAutorotateException, FileNotFoundException {
+        if (!file.isFile() && !file.exists()) {
+            throw new FileNotFoundException("JPEG file does not exist.");
+        }
+
+        try (InputStream is = new FileInputStream(file)) {
+            return rotateThumbnail(is, options);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read JPEG file.", e);
+        }
+    }
+
+    /**
+     * Produces an upright preview of a JPEG image from the image embedded in its EXIF metadata, based on
+     * its EXIF {@code Orientation} metadata tag.
+     * <p>
+     * Only the largest embedded JPEG image, usually the {@code ExifThumbnail}, is decoded and rotated; the
+     * main image is never decoded. An embedded image already properly oriented is returned as is.
+     *
+     * @param inputStream
+     *              {@code InputStream} containing a JPEG image file.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the JPEG image data of the preview.
+     * @throws JpegAutorotateException
+     *              In the event the JPEG file either does not contain the
+     *              appropriate {@code EXIF} metadata or an embedded thumbnail,
+     *              is not an acceptable file type, is unable to be read, or does not exist.
+     */
+    public static byte[] rotateThumbnail(final InputStream inputStream, final JpegAutorotateOptions options) throws JpegAutorotateException {
         byte[] bytes = ImageUtils.toByteArray(inputStream);
 
         if (!ImageUtils.isJpeg(bytes)) {
             throw new JpegAutorotateException("InputStream file is not compatible, must be a JPEG image.");
         }
 
-        return JpegImageProcessor.process(bytes);
+        return JpegImageProcessor.processEmbeddedPreview(bytes, options);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token abandoning the processing of a JPEG image once cancelled, or once its deadline passes.
+ * <p>
+ * The token is checked between processing stages and periodically while decoding, rotating and
+ * encoding rows. Processing then stops with a {@link JpegAutorotateCancelledException}, and buffers
+ * borrowed for the image are released.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegAutorotateCancellation cancellation = JpegAutorotateCancellation.withTimeout(2, TimeUnit.SECONDS);
+ * JpegAutorotateOptions options = new JpegAutorotateOptions().setCancellation(cancellation);
+ *
+ * byte[] image = JpegAutorotate.rotate(new File("path/to/directory"), options);
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateCancellation {
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without a deadline, only cancelled by {@link #cancel()}.
+     */
+    public JpegAutorotateCancellation() {
+        this(false, 0);
+    }
+
+    private JpegAutorotateCancellation(final boolean hasDeadline, final long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token whose deadline passes {@code timeout} from now.
+     *
+     * @param timeout
+     *              Time allowed for processing, at least 0.
+     * @param unit
+     *              {@code TimeUnit} of {@code timeout}.
+     * @return A new {@code JpegAutorotateCancellation} instance.
+     */
+    public static JpegAutorotateCancellation withTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must be at least 0.");
+        }
+
+        return new JpegAutorotateCancellation(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Cancels processing. Processing in progress stops at its next check.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Determines if processing should stop.
+     *
+     * @return {@code true} If cancelled or the deadline has passed; otherwise false.
+     */
+    public boolean isCancelled() {
+        return this.cancelled || isExpired();
+    }
+
+    /**
+     * Stops processing if cancelled or the deadline has passed.
+     *
+     * @throws JpegAutorotateCancelledException
+     *              In the event processing should stop.
+     */
+    public void throwIfCancelled() throws JpegAutorotateCancelledException {
+        if (this.cancelled) {
+            throw new JpegAutorotateCancelledException("JPEG image processing was cancelled.");
+        }
+
+        if (isExpired()) {
+            throw new JpegAutorotateCancelledException("JPEG image processing exceeded its deadline.");
+        }
+    }
+
+    private boolean isExpired() {
+        return this.hasDeadline && System.nanoTime() - this.deadline >= 0;
+    }
+
+}
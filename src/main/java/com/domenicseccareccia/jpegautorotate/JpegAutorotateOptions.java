@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate;
+
+import com.domenicseccareccia.jpegautorotate.imaging.JpegImageBufferPool;
+
+import javax.imageio.plugins.jpeg.JPEGQTable;
+
+/**
+ * Options controlling how JPEG Autorotate processes an image.
+ * <p>
+ * The defaults reproduce the behaviour of {@link JpegAutorotate#rotate(java.io.InputStream)}.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegAutorotateOptions options = new JpegAutorotateOptions()
+ *         .setParallelEncoding(true)
+ *         .setThreads(4);
+ *
+ * byte[] image = JpegAutorotate.rotate(new File("path/to/directory"), options);
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateOptions {
+
+    private boolean parallelEncoding;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean bandedProcessing;
+    private long maxBandBytes = 64L * 1024 * 1024;
+    private JpegImageBufferPool bufferPool;
+    private JpegAutorotateCancellation cancellation;
+    private boolean concurrentStages;
+    private boolean ycbcrProcessing;
+    private boolean optimizeHuffmanTables;
+    private boolean preserveCompression;
+    private JPEGQTable[] quantizationTables;
+    private int horizontalChromaSubsampling;
+    private int verticalChromaSubsampling;
+
+    public boolean isParallelEncoding() {
+        return this.parallelEncoding;
+    }
+
+    /**
+     * Encodes the rotated image in bands of MCU rows on several threads, joined by
+     * {@code RST} markers into one baseline JPEG. Otherwise, the image is encoded by
+     * {@code ImageIO} on the calling thread.
+     *
+     * @param parallelEncoding
+     *              {@code true} to encode in parallel bands.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setParallelEncoding(final boolean parallelEncoding) {
+        this.parallelEncoding = parallelEncoding;
+        return this;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Sets the number of threads used by parallel stages. Defaults to the number of available processors.
+     *
+     * @param threads
+     *              Number of threads, at least 1.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1.");
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    public boolean isBandedProcessing() {
+        return this.bandedProcessing;
+    }
+
+    /**
+     * Processes the image in bands of rows, when writing to an {@code OutputStream}, so memory use is bounded by
+     * {@link #getMaxBandBytes()} instead of the image size. The image is decoded once, in strips copied upright to
+     * a temporary file as large as the decoded image, which is then read back and encoded a band at a time, trading
+     * disk space for memory whatever the orientation. Bands are always encoded by the band encoder, as if
+     * {@link #setParallelEncoding(boolean)} was set.
+     *
+     * @param bandedProcessing
+     *              {@code true} to process in bands.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setBandedProcessing(final boolean bandedProcessing) {
+        this.bandedProcessing = bandedProcessing;
+        return this;
+    }
+
+    public long getMaxBandBytes() {
+        return this.maxBandBytes;
+    }
+
+    /**
+     * Sets the number of decoded pixel bytes held during banded processing, by a decoded strip and its upright
+     * copy together, then by a band being encoded. Defaults to 64 MiB. A strip holds at least one row and a band
+     * at least one restart interval of rows, regardless of this limit.
+     *
+     * @param maxBandBytes
+     *              Number of bytes, at least 1.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setMaxBandBytes(final long maxBandBytes) {
+        if (maxBandBytes < 1) {
+            throw new IllegalArgumentException("Max band bytes must be at least 1.");
+        }
+
+        this.maxBandBytes = maxBandBytes;
+        return this;
+    }
+
+    public JpegImageBufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Sets the pool pixel buffers are borrowed from while decoding and rotating, and returned to
+     * once the image is encoded. Share one pool across calls to reuse buffers between images of the
+     * same type and dimensions. Defaults to {@code null}, allocating new buffers for every image.
+     *
+     * @param bufferPool
+     *              A {@code JpegImageBufferPool}, or {@code null}.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setBufferPool(final JpegImageBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    public JpegAutorotateCancellation getCancellation() {
+        return this.cancellation;
+    }
+
+    /**
+     * Sets the token abandoning processing once cancelled or once its deadline passes, with a
+     * {@link JpegAutorotateCancelledException}. A token applies to every call sharing these options,
+     * so set a new one for each call given its own deadline. Defaults to {@code null}, never abandoning.
+     *
+     * @param cancellation
+     *              A {@code JpegAutorotateCancellation}, or {@code null}.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setCancellation(final JpegAutorotateCancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    public boolean isConcurrentStages() {
+        return this.concurrentStages;
+    }
+
+    /**
+     * Rotates, converts and encodes the thumbnail and rewrites the metadata on a shared daemon thread, while the
+     * main image is decoded, converted and encoded. The rewritten metadata segments are joined with the encoded
+     * image once both are done, directly after its {@code APP0} segment. Otherwise, every stage runs in turn on
+     * the calling thread. Does not apply to banded processing.
+     *
+     * @param concurrentStages
+     *              {@code true} to process thumbnail and metadata concurrently with the main image.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setConcurrentStages(final boolean concurrentStages) {
+        this.concurrentStages = concurrentStages;
+        return this;
+    }
+
+    public boolean isYCbCrProcessing() {
+        return this.ycbcrProcessing;
+    }
+
+    /**
+     * Keeps the decoded {@code YCbCr} samples of the image while rotating and encoding it, skipping the
+     * conversion to RGB after decoding and back to {@code YCbCr} before encoding. Only applies along with
+     * {@link #setParallelEncoding(boolean)}, to {@code YCbCr} images without an {@code ICCProfile} and
+     * without renditions. Otherwise, the image is processed as RGB.
+     *
+     * @param ycbcrProcessing
+     *              {@code true} to rotate and encode the {@code YCbCr} samples as decoded.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setYCbCrProcessing(final boolean ycbcrProcessing) {
+        this.ycbcrProcessing = ycbcrProcessing;
+        return this;
+    }
+
+    public boolean isOptimizeHuffmanTables() {
+        return this.optimizeHuffmanTables;
+    }
+
+    /**
+     * Codes every encoded image, i.e. the rotated image, its thumbnail, renditions and previews, with Huffman
+     * tables computed from its own symbols instead of the standard ITU T.81 Annex K tables. Output is smaller,
+     * but each image is encoded in two passes. Does not apply to the main image during banded processing,
+     * which is written as it is encoded.
+     *
+     * @param optimizeHuffmanTables
+     *              {@code true} to compute optimal Huffman tables for each image.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setOptimizeHuffmanTables(final boolean optimizeHuffmanTables) {
+        this.optimizeHuffmanTables = optimizeHuffmanTables;
+        return this;
+    }
+
+    public boolean isPreserveCompression() {
+        return this.preserveCompression;
+    }
+
+    /**
+     * Encodes the rotated image with the quantization tables and chroma subsampling of the original image,
+     * read from its {@code DQT} and {@code SOF} segments, with horizontal and vertical sampling factors swapped
+     * for 90 and 270 degree rotations. Output size and quality then stay close to those of the original, instead
+     * of the {@code ImageIO} defaults of a quality of 75 and 4:2:0 subsampling. Tables and subsampling set by
+     * {@link #setQuantizationTables(JPEGQTable...)} and {@link #setChromaSubsampling(int, int)} take precedence.
+     * Does not apply to thumbnails, renditions and previews.
+     *
+     * @param preserveCompression
+     *              {@code true} to encode with the quantization tables and subsampling of the original image.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setPreserveCompression(final boolean preserveCompression) {
+        this.preserveCompression = preserveCompression;
+        return this;
+    }
+
+    public JPEGQTable[] getQuantizationTables() {
+        return this.quantizationTables == null ? null : this.quantizationTables.clone();
+    }
+
+    /**
+     * Sets the quantization tables the rotated image is encoded with: the luminance table first, followed by
+     * the chrominance table, if any, used by every other component. Defaults to {@code null}, using the tables
+     * of the original image with {@link #setPreserveCompression(boolean)}, or the {@code ImageIO} defaults.
+     *
+     * @param quantizationTables
+     *              1 to 4 {@code JPEGQTable}s with values of at most 255, or {@code null}.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setQuantizationTables(final JPEGQTable... quantizationTables) {
+        if (quantizationTables != null) {
+            if (quantizationTables.length < 1 || quantizationTables.length > 4) {
+                throw new IllegalArgumentException("Quantization tables must be 1 to 4 tables.");
+            }
+
+            for (JPEGQTable table : quantizationTables) {
+                for (int value : table.getTable()) {
+                    if (value > 255) {
+                        throw new IllegalArgumentException("Quantization table values must be at most 255.");
+                    }
+                }
+            }
+        }
+
+        this.quantizationTables = quantizationTables == null ? null : quantizationTables.clone();
+        return this;
+    }
+
+    public int getHorizontalChromaSubsampling() {
+        return this.horizontalChromaSubsampling;
+    }
+
+    public int getVerticalChromaSubsampling() {
+        return this.verticalChromaSubsampling;
+    }
+
+    /**
+     * Sets the chroma subsampling of the rotated image, as the number of luminance samples for each
+     * chrominance sample horizontally and vertically, e.g. {@code 1, 1} for 4:4:4, {@code 2, 1} for 4:2:2 and
+     * {@code 2, 2} for 4:2:0. Only applies to color images. Defaults to {@code 0, 0}, using the subsampling of
+     * the original image with {@link #setPreserveCompression(boolean)}, or the {@code ImageIO} default of 4:2:0.
+     *
+     * @param horizontal
+     *              Horizontal subsampling between 1 and 4, or 0 along with {@code vertical} for the default.
+     * @param vertical
+     *              Vertical subsampling between 1 and 4, or 0 along with {@code horizontal} for the default.
+     * @return This {@code JpegAutorotateOptions} instance.
+     */
+    public JpegAutorotateOptions setChromaSubsampling(final int horizontal, final int vertical) {
+        if ((horizontal != 0 || vertical != 0) && (horizontal < 1 || horizontal > 4 || vertical < 1 || vertical > 4 || horizontal * vertical > 8)) {
+            throw new IllegalArgumentException("Chroma subsampling must be between 1 and 4, with at most 8 luminance blocks per chrominance block.");
+        }
+
+        this.horizontalChromaSubsampling = horizontal;
+        this.verticalChromaSubsampling = vertical;
+        return this;
+    }
+
+}
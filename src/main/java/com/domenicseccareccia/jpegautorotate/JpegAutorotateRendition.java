@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate;
+
+/**
+ * A resized variant of a JPEG image, produced alongside the rotated image from the same decoded pixels.
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * List&lt;JpegAutorotateRendition&gt; renditions = Arrays.asList(
+ *         new JpegAutorotateRendition(2048),
+ *         new JpegAutorotateRendition(320).setQuality(0.6f).setKeepMetadata(false));
+ *
+ * List&lt;byte[]&gt; images = JpegAutorotate.rotate(new File("path/to/directory"), renditions, new JpegAutorotateOptions());
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateRendition {
+
+    private int maxDimension;
+    private float quality = 0.75f;
+    private boolean keepMetadata = true;
+
+    /**
+     * @param maxDimension
+     *              Largest width or height of the rendition, at least 1.
+     */
+    public JpegAutorotateRendition(final int maxDimension) {
+        setMaxDimension(maxDimension);
+    }
+
+    public int getMaxDimension() {
+        return this.maxDimension;
+    }
+
+    /**
+     * Sets the largest width or height of the rendition. The upright image is scaled down to fit, keeping
+     * its aspect ratio, and is never scaled up.
+     *
+     * @param maxDimension
+     *              Largest width or height, at least 1.
+     * @return This {@code JpegAutorotateRendition} instance.
+     */
+    public JpegAutorotateRendition setMaxDimension(final int maxDimension) {
+        if (maxDimension < 1) {
+            throw new IllegalArgumentException("Max dimension must be at least 1.");
+        }
+
+        this.maxDimension = maxDimension;
+        return this;
+    }
+
+    public float getQuality() {
+        return this.quality;
+    }
+
+    /**
+     * Sets the JPEG compression quality of the rendition. Defaults to 0.75, the {@code ImageIO} default.
+     *
+     * @param quality
+     *              Quality between 0 and 1.
+     * @return This {@code JpegAutorotateRendition} instance.
+     */
+    public JpegAutorotateRendition setQuality(final float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("Quality must be between 0 and 1.");
+        }
+
+        this.quality = quality;
+        return this;
+    }
+
+    public boolean isKeepMetadata() {
+        return this.keepMetadata;
+    }
+
+    /**
+     * Copies the metadata of the rotated image to the rendition, with the EXIF image width and height set
+     * to the rendition dimensions. Otherwise, the rendition only holds the JFIF and ICC profile segments.
+     * Defaults to {@code true}.
+     *
+     * @param keepMetadata
+     *              {@code true} to copy the metadata.
+     * @return This {@code JpegAutorotateRendition} instance.
+     */
+    public JpegAutorotateRendition setKeepMetadata(final boolean keepMetadata) {
+        this.keepMetadata = keepMetadata;
+        return this;
+    }
+
+}
@@ -0,0 +1,541 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rotates the JPEG image entries of a ZIP or TAR archive read from a stream, writing a new archive to another
+ * stream, without extracting the archive.
+ * <p>
+ * Entries are read and written one at a time, in archive order. JPEG image entries ({@code .jpg}, {@code .jpeg}
+ * or {@code .jpe}) up to a maximum size are read into memory and rotated. Other entries, along with entries
+ * already upright, unable to be rotated or larger than the maximum size, are copied as they are, without being
+ * decoded, so memory use is bounded by the largest image rotated regardless of the archive size.
+ * </p>
+ * <p>
+ * ZIP entries keep their name, compression method, times, comment and extra fields, but the compressed data of
+ * deflated entries is inflated and deflated again, as {@code ZipInputStream} only exposes uncompressed data. The
+ * archive comment is dropped, as it is stored after the entries. TAR archives in ustar, GNU and PAX formats are
+ * copied header block for header block, only the size and checksum of rotated entries being rewritten.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * try (InputStream is = Files.newInputStream(Paths.get("path/to/input.zip"));
+ *      OutputStream os = Files.newOutputStream(Paths.get("path/to/output.zip"))) {
+ *     JpegAutorotateBatchResult result = new JpegAutorotateArchive().processZip(is, os);
+ * }
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateArchive {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private JpegAutorotateOptions options = new JpegAutorotateOptions();
+    private long maxEntryBytes = 256L * 1024 * 1024;
+
+    public JpegAutorotateOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Sets the options every image is rotated with. A cancelled
+     * {@link JpegAutorotateOptions#setCancellation(com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation) cancellation}
+     * stops processing, leaving the output archive incomplete.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateArchive} instance.
+     */
+    public JpegAutorotateArchive setOptions(final JpegAutorotateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null.");
+        }
+
+        this.options = options;
+        return this;
+    }
+
+    public long getMaxEntryBytes() {
+        return this.maxEntryBytes;
+    }
+
+    /**
+     * Sets the size of the largest JPEG image entry rotated. Larger entries are copied as they are, and counted
+     * as failed. Defaults to 256 MiB.
+     *
+     * @param maxEntryBytes
+     *              Number of bytes, between 1 and 2 GiB - 1.
+     * @return This {@code JpegAutorotateArchive} instance.
+     */
+    public JpegAutorotateArchive setMaxEntryBytes(final long maxEntryBytes) {
+        if (maxEntryBytes < 1 || maxEntryBytes >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Max entry bytes must be between 1 and 2 GiB - 1.");
+        }
+
+        this.maxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    /**
+     * Rotates the JPEG image entries of a ZIP archive. Neither stream is closed.
+     *
+     * @param inputStream
+     *              {@code InputStream} of the ZIP archive.
+     * @param outputStream
+     *              {@code OutputStream} the new ZIP archive is written to.
+     * @return A {@code JpegAutorotateBatchResult} counting the outcomes of the JPEG image entries, with other
+     *              entries counted as skipped.
+     * @throws JpegAutorotateException
+     *              In the event the archive is unable to be read or written, or processing is cancelled.
+     */
+    public JpegAutorotateBatchResult processZip(final InputStream inputStream, final OutputStream outputStream) throws JpegAutorotateException {
+        JpegAutorotateBatchResult result = new JpegAutorotateBatchResult();
+        ZipInputStream zis = new ZipInputStream(inputStream);
+        ZipOutputStream zos = new ZipOutputStream(outputStream);
+
+        try {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                // ZipOutputStream writes the ZIP64 and extended timestamp fields of the extra data itself
+                ZipEntry target = new ZipEntry(entry.getName());
+                target.setMethod(entry.getMethod());
+                target.setExtra(entry.getExtra());
+                if (entry.getLastModifiedTime() != null) {
+                    target.setLastModifiedTime(entry.getLastModifiedTime());
+                }
+                if (entry.getLastAccessTime() != null) {
+                    target.setLastAccessTime(entry.getLastAccessTime());
+                }
+                if (entry.getCreationTime() != null) {
+                    target.setCreationTime(entry.getCreationTime());
+                }
+                target.setComment(entry.getComment());
+
+                if (!entry.isDirectory() && JpegBatchFiles.isJpegName(entry.getName())) {
+                    byte[] bytes = read(zis, entry.getSize());
+
+                    if (bytes.length <= this.maxEntryBytes) {
+                        byte[] rotated = rotate(entry.getName(), bytes, result);
+                        putEntry(zos, target, rotated);
+                        zos.write(rotated);
+                        zos.closeEntry();
+                        continue;
+                    }
+
+                    addTooLarge(entry.getName(), result);
+                    putEntry(zos, target, entry);
+                    zos.write(bytes);
+                } else {
+                    if (!entry.isDirectory()) {
+                        result.addSkipped();
+                    }
+                    putEntry(zos, target, entry);
+                }
+
+                IOUtils.copyLarge(zis, zos);
+                zos.closeEntry();
+            }
+
+            zos.finish();
+            zos.flush();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new JpegAutorotateException("Unable to process ZIP archive.", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Rotates the JPEG image entries of a TAR archive. Neither stream is closed.
+     *
+     * @param inputStream
+     *              {@code InputStream} of the uncompressed TAR archive.
+     * @param outputStream
+     *              {@code OutputStream} the new TAR archive is written to.
+     * @return A {@code JpegAutorotateBatchResult} counting the outcomes of the JPEG image entries, with other
+     *              regular file entries counted as skipped.
+     * @throws JpegAutorotateException
+     *              In the event the archive is unable to be read or written, or processing is cancelled.
+     */
+    public JpegAutorotateBatchResult processTar(final InputStream inputStream, final OutputStream outputStream) throws JpegAutorotateException {
+        JpegAutorotateBatchResult result = new JpegAutorotateBatchResult();
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        String extendedSize = null;
+
+        try {
+            while (true) {
+                IOUtils.readFully(inputStream, header);
+
+                // End of archive, followed by padding to the record size
+                if (isZeroBlock(header)) {
+                    outputStream.write(header);
+                    IOUtils.copyLarge(inputStream, outputStream);
+                    break;
+                }
+
+                long checksum = parseTarNumber(header, 148, 8);
+                if (checksum != getTarChecksum(header, false) && checksum != getTarChecksum(header, true)) {
+                    throw new IOException("Invalid TAR header checksum.");
+                }
+
+                byte type = header[156];
+                long size = extendedSize != null && type != 'L' && type != 'K' && type != 'x' ? parseSize(extendedSize) : parseTarNumber(header, 124, 12);
+                String name = longName != null ? longName : getTarName(header);
+
+                switch (type) {
+                    case 'L':
+                        // GNU long name of the next entry
+                        byte[] data = readTarData(inputStream, size);
+                        outputStream.write(header);
+                        writeTarData(outputStream, data);
+                        longName = getString(data, 0, data.length);
+                        continue;
+                    case 'K':
+                        // GNU long link name of the next entry
+                        outputStream.write(header);
+                        copyTarData(inputStream, outputStream, size);
+                        continue;
+                    case 'x':
+                        // PAX extended header of the next entry, with its path and possibly its size, kept as it is
+                        byte[] records = readTarData(inputStream, size);
+                        outputStream.write(header);
+                        writeTarData(outputStream, records);
+                        String path = getPaxRecord(records, "path");
+                        longName = path != null ? path : longName;
+                        extendedSize = getPaxRecord(records, "size");
+                        continue;
+                    default:
+                        break;
+                }
+
+                if ((type == '0' || type == 0 || type == '7') && extendedSize == null && JpegBatchFiles.isJpegName(name) && size <= this.maxEntryBytes) {
+                    byte[] bytes = readTarData(inputStream, size);
+                    byte[] rotated = rotate(name, bytes, result);
+
+                    if (rotated.length != bytes.length) {
+                        setTarSize(header, rotated.length);
+                    }
+                    outputStream.write(header);
+                    writeTarData(outputStream, rotated);
+                } else {
+                    if (type == '0' || type == 0 || type == '7') {
+                        if (JpegBatchFiles.isJpegName(name)) {
+                            addTooLarge(name, result);
+                        } else {
+                            result.addSkipped();
+                        }
+                    }
+
+                    outputStream.write(header);
+                    // GNU sparse entries are followed by extended sparse headers while flagged
+                    for (boolean extended = type == 'S' && header[482] != 0; extended; extended = header[504] != 0) {
+                        IOUtils.readFully(inputStream, header);
+                        outputStream.write(header);
+                    }
+                    copyTarData(inputStream, outputStream, size);
+                }
+
+                longName = null;
+                extendedSize = null;
+            }
+
+            outputStream.flush();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new JpegAutorotateException("Unable to process TAR archive.", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Rotates an image entry, recording its outcome.
+     *
+     * @return The bytes of the rotated entry, or the entry as it is if already upright or unable to be rotated.
+     */
+    private byte[] rotate(final String name, final byte[] bytes, final JpegAutorotateBatchResult result) throws JpegAutorotateException {
+        try {
+            byte[] rotated = JpegAutorotate.rotate(new ByteArrayInputStream(bytes), this.options);
+
+            result.add(toPath(name), Arrays.equals(rotated, bytes) ? JpegAutorotateBatchOutcome.UPRIGHT : JpegAutorotateBatchOutcome.ROTATED, null);
+            return rotated;
+        } catch (JpegAutorotateCancelledException e) {
+            throw e;
+        } catch (JpegAutorotateException e) {
+            result.add(toPath(name), JpegAutorotateBatchOutcome.FAILED, e.getMessage());
+            return bytes;
+        }
+    }
+
+    private void addTooLarge(final String name, final JpegAutorotateBatchResult result) {
+        result.add(toPath(name), JpegAutorotateBatchOutcome.FAILED, "Entry exceeds " + this.maxEntryBytes + " bytes.");
+    }
+
+    private static Path toPath(final String name) {
+        try {
+            return Paths.get(name);
+        } catch (InvalidPathException e) {
+            return Paths.get(name.replaceAll("[^\\w./-]", "_"));
+        }
+    }
+
+    /**
+     * Reads a ZIP entry into memory, up to one byte more than the maximum entry size.
+     */
+    private byte[] read(final InputStream is, final long size) throws IOException {
+        if (size >= 0 && size <= this.maxEntryBytes) {
+            byte[] bytes = new byte[(int) size];
+            IOUtils.readFully(is, bytes);
+            return bytes;
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        IOUtils.copyLarge(is, os, 0, this.maxEntryBytes + 1);
+        return os.toByteArray();
+    }
+
+    /**
+     * Starts writing an entry with the given content, setting the sizes and CRC-32 stored entries require upfront.
+     */
+    private static void putEntry(final ZipOutputStream zos, final ZipEntry target, final byte[] content) throws IOException {
+        if (target.getMethod() == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            target.setSize(content.length);
+            target.setCompressedSize(content.length);
+            target.setCrc(crc.getValue());
+        }
+
+        zos.putNextEntry(target);
+    }
+
+    /**
+     * Starts writing an entry copied from {@code source}, with the sizes and CRC-32 of its local header if stored.
+     */
+    private static void putEntry(final ZipOutputStream zos, final ZipEntry target, final ZipEntry source) throws IOException {
+        if (target.getMethod() == ZipEntry.STORED) {
+            target.setSize(source.getSize());
+            target.setCompressedSize(source.getSize());
+            target.setCrc(source.getCrc());
+        }
+
+        zos.putNextEntry(target);
+    }
+
+    private static boolean isZeroBlock(final byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The name of a TAR entry, joined with its ustar prefix, if any.
+     */
+    private static String getTarName(final byte[] header) {
+        String name = getString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        String prefix = ustar && header[262] == 0 ? getString(header, 345, 155) : "";
+
+        return prefix.isEmpty() ? name : prefix + '/' + name;
+    }
+
+    /**
+     * @return The bytes of a field up to the first {@code NUL}, as UTF-8.
+     */
+    private static String getString(final byte[] bytes, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a numeric TAR header field, in octal or, if its high bit is set, in GNU base-256.
+     */
+    private static long parseTarNumber(final byte[] header, final int offset, final int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = value << 8 | (header[i] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0 || i > offset && header[i - 1] >= '0' && header[i - 1] <= '7') {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid TAR header number.");
+            }
+            value = value << 3 | (b - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * @return The sum of the bytes of a TAR header, its checksum field counted as spaces, as unsigned bytes or as
+     *              signed bytes like some historic implementations.
+     */
+    private static long getTarChecksum(final byte[] header, final boolean signed) {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : signed ? header[i] : header[i] & 0xFF;
+        }
+
+        return sum;
+    }
+
+    private static long parseSize(final String size) throws IOException {
+        try {
+            return Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid PAX size record.", e);
+        }
+    }
+
+    /**
+     * Rewrites the size field and checksum of a TAR header.
+     */
+    private static void setTarSize(final byte[] header, final long size) {
+        writeOctal(header, 124, 12, size);
+        writeOctal(header, 148, 7, getTarChecksum(header, false));
+        header[155] = ' ';
+    }
+
+    /**
+     * Writes a number as zero-padded octal digits followed by a {@code NUL}.
+     */
+    private static void writeOctal(final byte[] header, final int offset, final int length, long value) {
+        header[offset + length - 1] = 0;
+        for (int i = offset + length - 2; i >= offset; i--) {
+            header[i] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    /**
+     * @return The value of a record of PAX extended header data, or {@code null} if absent.
+     */
+    private static String getPaxRecord(final byte[] records, final String key) {
+        String value = null;
+
+        // Each record is "<length> <key>=<value>\n", its length counting every byte of the record
+        for (int offset = 0; offset < records.length; ) {
+            int space = offset;
+            while (space < records.length && records[space] != ' ') {
+                space++;
+            }
+
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, offset, space - offset, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                break;
+            }
+            if (length <= space - offset || offset + length > records.length) {
+                break;
+            }
+
+            String record = new String(records, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith(key + "=")) {
+                value = record.substring(key.length() + 1);
+            }
+            offset += length;
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads the data of a TAR entry along with its padding to the next block.
+     */
+    private static byte[] readTarData(final InputStream is, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("TAR entry is too large.");
+        }
+
+        byte[] data = new byte[(int) size];
+        IOUtils.readFully(is, data);
+        IOUtils.skipFully(is, getTarPadding(size));
+        return data;
+    }
+
+    /**
+     * Writes the data of a TAR entry, padded with zeros to the next block.
+     */
+    private static void writeTarData(final OutputStream os, final byte[] data) throws IOException {
+        os.write(data);
+        os.write(new byte[(int) getTarPadding(data.length)]);
+    }
+
+    /**
+     * Copies the data of a TAR entry along with its padding to the next block.
+     */
+    private static void copyTarData(final InputStream is, final OutputStream os, final long size) throws IOException {
+        long length = size + getTarPadding(size);
+        if (IOUtils.copyLarge(is, os, 0, length) != length) {
+            throw new EOFException("TAR entry data ended early.");
+        }
+    }
+
+    private static long getTarPadding(final long size) {
+        return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+
+}
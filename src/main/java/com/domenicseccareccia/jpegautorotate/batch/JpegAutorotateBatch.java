@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rotates every JPEG image file of a directory tree, skipping files unchanged since a previous run.
+ * <p>
+ * Each processed file is recorded in a manifest with its size, last modified time, content hash and outcome.
+ * A file whose size and last modified time match its entry is skipped without being read. A file whose last
+ * modified time changed but whose content hash still matches is skipped once read. Files that failed are
+ * skipped until they change, unless {@link #setRetryFailed(boolean)} is set. Entries are journaled as soon as
+ * each file is processed, so a run interrupted by a crash or a cancellation resumes where it stopped.
+ * </p>
+ * <p>
+ * Images are rotated in place, each replaced atomically, or written to the same relative path under an
+ * output directory. Files are processed one at a time, in path order, each with the parallelism of its
+ * {@link JpegAutorotateOptions}.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegAutorotateBatchResult result = new JpegAutorotateBatch(Paths.get("path/to/manifest"))
+ *         .setOptions(new JpegAutorotateOptions().setParallelEncoding(true))
+ *         .process(Paths.get("path/to/directory"));
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateBatch {
+
+    private final Path manifest;
+    private JpegAutorotateOptions options = new JpegAutorotateOptions();
+    private Path outputDirectory;
+    private boolean retryFailed;
+
+    /**
+     * @param manifest
+     *              {@code Path} of the manifest file, created by the first run. Use one manifest per directory.
+     */
+    public JpegAutorotateBatch(final Path manifest) {
+        if (manifest == null) {
+            throw new IllegalArgumentException("Manifest must not be null.");
+        }
+
+        this.manifest = manifest;
+    }
+
+    public JpegAutorotateOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Sets the options every image is rotated with. With {@link JpegAutorotateOptions#setBandedProcessing(boolean)},
+     * images are streamed to their destination band by band. A cancelled
+     * {@link JpegAutorotateOptions#setCancellation(com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation) cancellation}
+     * stops the run, which the next run resumes.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateBatch} instance.
+     */
+    public JpegAutorotateBatch setOptions(final JpegAutorotateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null.");
+        }
+
+        this.options = options;
+        return this;
+    }
+
+    public Path getOutputDirectory() {
+        return this.outputDirectory;
+    }
+
+    /**
+     * Writes each image to the same relative path under {@code outputDirectory}, including images already
+     * upright, instead of rotating images in place. Files are skipped only while their output exists.
+     * Defaults to {@code null}, rotating in place.
+     *
+     * @param outputDirectory
+     *              {@code Path} of the output directory, or {@code null}.
+     * @return This {@code JpegAutorotateBatch} instance.
+     */
+    public JpegAutorotateBatch setOutputDirectory(final Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+        return this;
+    }
+
+    public boolean isRetryFailed() {
+        return this.retryFailed;
+    }
+
+    /**
+     * Processes again the files that failed in a previous run, even if unchanged since.
+     *
+     * @param retryFailed
+     *              {@code true} to retry unchanged failed files.
+     * @return This {@code JpegAutorotateBatch} instance.
+     */
+    public JpegAutorotateBatch setRetryFailed(final boolean retryFailed) {
+        this.retryFailed = retryFailed;
+        return this;
+    }
+
+    /**
+     * Rotates every JPEG image file ({@code .jpg}, {@code .jpeg} or {@code .jpe}) of a directory tree, skipping
+     * files unchanged since a previous run. Files unable to be rotated are recorded as failed and do not stop the run.
+     *
+     * @param directory
+     *              {@code Path} of the directory to process.
+     * @return A {@code JpegAutorotateBatchResult} counting the outcomes of this run.
+     * @throws JpegAutorotateException
+     *              In the event the directory or manifest is unable to be read or written, or the run is cancelled.
+     */
+    public JpegAutorotateBatchResult process(final Path directory) throws JpegAutorotateException {
+        if (!Files.isDirectory(directory)) {
+            throw new JpegAutorotateException("Batch directory does not exist.");
+        }
+
+        JpegAutorotateBatchResult result = new JpegAutorotateBatchResult();
+
+        try (JpegBatchManifest batchManifest = new JpegBatchManifest(this.manifest)) {
+            batchManifest.open();
+
+            for (Path file : listFiles(directory, batchManifest::isManifestFile)) {
+                processFile(directory, file, batchManifest, result);
+            }
+
+            batchManifest.commit();
+        }
+
+        return result;
+    }
+
+    /**
+     * Lists the JPEG image files of a directory tree in path order, leaving out temporary files, the output
+     * directory and {@code excluded} files, such as the manifest.
+     */
+    List<Path> listFiles(final Path directory, final Predicate<Path> excluded) throws JpegAutorotateException {
+        Path output = this.outputDirectory == null ? null : this.outputDirectory.toAbsolutePath().normalize();
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> Files.isRegularFile(file) && JpegBatchFiles.isJpegFile(file) && !excluded.test(file))
+                    .filter(file -> output == null || !file.toAbsolutePath().normalize().startsWith(output))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException | RuntimeException e) {
+            throw new JpegAutorotateException("Unable to list batch directory.", e);
+        }
+    }
+
+    /**
+     * Processes a file unless unchanged since its entry, then records its new entry.
+     */
+    void processFile(final Path directory, final Path file, final JpegBatchManifest batchManifest,
+                     final JpegAutorotateBatchResult result) throws JpegAutorotateException {
+        String path = JpegBatchFiles.getRelativePath(directory, file);
+        Path target = this.outputDirectory == null ? file : this.outputDirectory.resolve(path);
+        JpegBatchManifest.Entry entry = batchManifest.get(path);
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            if (entry != null && entry.getSize() == size && isCurrent(entry, target)) {
+                if (entry.getLastModified() == lastModified) {
+                    result.addSkipped();
+                    return;
+                }
+
+                // Touched, but possibly unchanged
+                if (entry.getHash().equals(JpegBatchFiles.hash(file))) {
+                    batchManifest.record(new JpegBatchManifest.Entry(path, size, lastModified, entry.getHash(), entry.getOutcome()));
+                    result.addSkipped();
+                    return;
+                }
+            }
+
+            batchManifest.record(rotate(path, file, target, result));
+        } catch (IOException e) {
+            batchManifest.record(new JpegBatchManifest.Entry(path, -1, -1, "", JpegAutorotateBatchOutcome.FAILED));
+            result.add(file, JpegAutorotateBatchOutcome.FAILED, e.toString());
+        }
+    }
+
+    /**
+     * Determines if the outcome of an entry still holds: the image was not failed, or failures are not retried,
+     * and its output, if any, still exists.
+     */
+    private boolean isCurrent(final JpegBatchManifest.Entry entry, final Path target) {
+        if (entry.getOutcome() == JpegAutorotateBatchOutcome.FAILED) {
+            return !this.retryFailed;
+        }
+
+        return this.outputDirectory == null || Files.isRegularFile(target);
+    }
+
+    /**
+     * Rotates a file to its target, replacing the target atomically.
+     *
+     * @return The {@code Entry} describing the file once processed.
+     */
+    private JpegBatchManifest.Entry rotate(final String path, final Path file, final Path target,
+                                           final JpegAutorotateBatchResult result) throws IOException, JpegAutorotateException {
+        // Banded processing bounds memory use by the band size, so neither the file nor its result are read whole
+        boolean banded = this.options.isBandedProcessing();
+        byte[] bytes = banded ? null : Files.readAllBytes(file);
+        long size = banded ? Files.size(file) : bytes.length;
+        String hash = banded ? JpegBatchFiles.hash(file) : JpegBatchFiles.hash(bytes);
+        Path temporary = JpegBatchFiles.getTemporaryFile(target);
+        byte[] rotated = null;
+        boolean upright;
+
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+
+            if (banded) {
+                try (OutputStream os = Files.newOutputStream(temporary)) {
+                    JpegAutorotate.rotate(file.toFile(), os, this.options);
+                }
+                upright = JpegBatchFiles.isSameContent(temporary, file);
+            } else {
+                try (InputStream is = new ByteArrayInputStream(bytes)) {
+                    rotated = JpegAutorotate.rotate(is, this.options);
+                }
+                upright = Arrays.equals(rotated, bytes);
+            }
+
+            // Images already upright come back as they are, and are only copied to an output directory
+            if (this.outputDirectory != null || !upright) {
+                if (!banded) {
+                    Files.write(temporary, rotated);
+                }
+                JpegBatchFiles.replace(temporary, target);
+            }
+        } catch (JpegAutorotateCancelledException e) {
+            throw e;
+        } catch (JpegAutorotateException e) {
+            result.add(file, JpegAutorotateBatchOutcome.FAILED, e.getMessage());
+            return new JpegBatchManifest.Entry(path, size, Files.getLastModifiedTime(file).toMillis(), hash, JpegAutorotateBatchOutcome.FAILED);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        JpegAutorotateBatchOutcome outcome = upright ? JpegAutorotateBatchOutcome.UPRIGHT : JpegAutorotateBatchOutcome.ROTATED;
+        result.add(file, outcome, null);
+
+        // Rotated in place, the file is recorded as rewritten
+        if (outcome == JpegAutorotateBatchOutcome.ROTATED && this.outputDirectory == null) {
+            return new JpegBatchManifest.Entry(path, Files.size(file), Files.getLastModifiedTime(file).toMillis(),
+                    banded ? JpegBatchFiles.hash(file) : JpegBatchFiles.hash(rotated), outcome);
+        }
+
+        return new JpegBatchManifest.Entry(path, size, Files.getLastModifiedTime(file).toMillis(), hash, outcome);
+    }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+/**
+ * Outcome of processing a JPEG image file in a batch, as recorded in the manifest.
+ */
+public enum JpegAutorotateBatchOutcome {
+
+    /**
+     * The image was rotated and written.
+     */
+    ROTATED,
+
+    /**
+     * The image was already upright, and was left as is.
+     */
+    UPRIGHT,
+
+    /**
+     * The image was unable to be rotated, e.g. it has no EXIF metadata.
+     */
+    FAILED
+
+}
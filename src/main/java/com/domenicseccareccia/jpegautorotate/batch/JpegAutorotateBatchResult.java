@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts of the JPEG image files processed by a run of {@link JpegAutorotateBatch}, {@link JpegAutorotateDistributedBatch}
+ * or {@link JpegAutorotateArchive}, along with the reason each failed file was unable to be rotated.
+ */
+public final class JpegAutorotateBatchResult {
+
+    private int rotated;
+    private int upright;
+    private int skipped;
+    private final Map<Path, String> failures = new LinkedHashMap<>();
+
+    JpegAutorotateBatchResult() {
+    }
+
+    void add(final Path file, final JpegAutorotateBatchOutcome outcome, final String failure) {
+        switch (outcome) {
+            case ROTATED:
+                this.rotated++;
+                break;
+            case UPRIGHT:
+                this.upright++;
+                break;
+            default:
+                this.failures.put(file, failure);
+        }
+    }
+
+    void addSkipped() {
+        this.skipped++;
+    }
+
+    /**
+     * @return Number of files rotated by this run.
+     */
+    public int getRotated() {
+        return this.rotated;
+    }
+
+    /**
+     * @return Number of files found already upright by this run.
+     */
+    public int getUpright() {
+        return this.upright;
+    }
+
+    /**
+     * @return Number of files skipped as unchanged since the run that recorded them in the manifest.
+     */
+    public int getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * @return Number of files this run was unable to rotate.
+     */
+    public int getFailed() {
+        return this.failures.size();
+    }
+
+    /**
+     * @return The message of the exception each file this run was unable to rotate failed with, in processing order.
+     */
+    public Map<Path, String> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+}
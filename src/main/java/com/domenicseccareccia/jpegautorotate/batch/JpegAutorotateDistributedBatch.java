@@ -0,0 +1,412 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotates every JPEG image file of a directory tree with several worker processes, possibly on several hosts,
+ * sharing a work directory on one file system, without a coordinator.
+ * <p>
+ * Files are split into shards by a hash of their relative path. Each worker claims a shard at a time through a
+ * lease file in the work directory, processes its files, records the shard as done, then claims the next.
+ * Leases are renewed while held and expire once their worker stops renewing them, so the shards of a crashed
+ * or stalled worker are claimed again by the others once their lease expires. A worker returns once every
+ * shard is done, having waited for the shards leased by other workers.
+ * </p>
+ * <p>
+ * Each shard is recorded in its own manifest, as by {@link JpegAutorotateBatch}, so files processed before a
+ * worker crashed are skipped by the worker taking over its shard. To process the directory again, e.g. for
+ * a nightly sweep, delete the {@code done} directory of the work directory: files unchanged since are skipped.
+ * Workers must share the same shard count, recorded in the work directory by the first worker, and the clocks
+ * of their hosts must be synchronized to well within the lease duration.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegAutorotateBatchResult result = new JpegAutorotateDistributedBatch(Paths.get("path/to/work"))
+ *         .setLeaseDuration(1, TimeUnit.MINUTES)
+ *         .process(Paths.get("path/to/directory"));
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateDistributedBatch {
+
+    private static final String JOB_FILE = "job.properties";
+    private static final String SHARDS_PROPERTY = "shards";
+    private static final String LEASES_DIRECTORY = "leases";
+    private static final String MANIFESTS_DIRECTORY = "manifests";
+    private static final String DONE_DIRECTORY = "done";
+
+    private final Path workDirectory;
+    private final JpegAutorotateBatch batch;
+    private int shards = 64;
+    private long leaseDuration = TimeUnit.MINUTES.toMillis(5);
+    private String workerId = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * @param workDirectory
+     *              {@code Path} of the work directory shared by every worker. Use one work directory per directory.
+     */
+    public JpegAutorotateDistributedBatch(final Path workDirectory) {
+        if (workDirectory == null) {
+            throw new IllegalArgumentException("Work directory must not be null.");
+        }
+
+        this.workDirectory = workDirectory.toAbsolutePath().normalize();
+        this.batch = new JpegAutorotateBatch(this.workDirectory.resolve(MANIFESTS_DIRECTORY));
+    }
+
+    public JpegAutorotateOptions getOptions() {
+        return this.batch.getOptions();
+    }
+
+    /**
+     * Sets the options every image is rotated with. A cancelled
+     * {@link JpegAutorotateOptions#setCancellation(JpegAutorotateCancellation) cancellation} stops the worker,
+     * leaving its shard to expire and be claimed again.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setOptions(final JpegAutorotateOptions options) {
+        this.batch.setOptions(options);
+        return this;
+    }
+
+    public Path getOutputDirectory() {
+        return this.batch.getOutputDirectory();
+    }
+
+    /**
+     * Writes each image to the same relative path under {@code outputDirectory}, instead of rotating images
+     * in place, as by {@link JpegAutorotateBatch#setOutputDirectory(Path)}.
+     *
+     * @param outputDirectory
+     *              {@code Path} of the output directory, or {@code null}.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setOutputDirectory(final Path outputDirectory) {
+        this.batch.setOutputDirectory(outputDirectory);
+        return this;
+    }
+
+    public boolean isRetryFailed() {
+        return this.batch.isRetryFailed();
+    }
+
+    /**
+     * Processes again the files that failed in a previous run, even if unchanged since.
+     *
+     * @param retryFailed
+     *              {@code true} to retry unchanged failed files.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setRetryFailed(final boolean retryFailed) {
+        this.batch.setRetryFailed(retryFailed);
+        return this;
+    }
+
+    public int getShards() {
+        return this.shards;
+    }
+
+    /**
+     * Sets the number of shards files are split into, when this worker is the first to use the work directory.
+     * Later workers use the shard count recorded by the first. Defaults to 64.
+     *
+     * @param shards
+     *              Number of shards, at least 1.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setShards(final int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shards must be at least 1.");
+        }
+
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * @return Lease duration, in milliseconds.
+     */
+    public long getLeaseDuration() {
+        return this.leaseDuration;
+    }
+
+    /**
+     * Sets how long a shard stays leased to a worker that stopped renewing its lease, before other workers
+     * claim it again. Leases are renewed a few times per duration, so a duration much longer than the time
+     * to rotate one image is not required. Defaults to 5 minutes.
+     *
+     * @param leaseDuration
+     *              Lease duration, at least 1 second.
+     * @param unit
+     *              {@code TimeUnit} of {@code leaseDuration}.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setLeaseDuration(final long leaseDuration, final TimeUnit unit) {
+        if (unit.toMillis(leaseDuration) < 1000) {
+            throw new IllegalArgumentException("Lease duration must be at least 1 second.");
+        }
+
+        this.leaseDuration = unit.toMillis(leaseDuration);
+        return this;
+    }
+
+    public String getWorkerId() {
+        return this.workerId;
+    }
+
+    /**
+     * Sets the identifier this worker records in its leases. Defaults to the process identifier and host name.
+     *
+     * @param workerId
+     *              Identifier of this worker.
+     * @return This {@code JpegAutorotateDistributedBatch} instance.
+     */
+    public JpegAutorotateDistributedBatch setWorkerId(final String workerId) {
+        if (workerId == null || workerId.isEmpty()) {
+            throw new IllegalArgumentException("Worker id must not be empty.");
+        }
+
+        this.workerId = workerId;
+        return this;
+    }
+
+    /**
+     * Rotates the JPEG image files of the shards this worker claims, until every shard of the directory tree
+     * is done. Files unable to be rotated are recorded as failed and do not stop the run.
+     *
+     * @param directory
+     *              {@code Path} of the directory to process.
+     * @return A {@code JpegAutorotateBatchResult} counting the outcomes of the files processed by this worker.
+     * @throws JpegAutorotateException
+     *              In the event the directory or work directory is unable to be read or written, or the run is cancelled.
+     */
+    public JpegAutorotateBatchResult process(final Path directory) throws JpegAutorotateException {
+        if (!Files.isDirectory(directory)) {
+            throw new JpegAutorotateException("Batch directory does not exist.");
+        }
+
+        JpegAutorotateBatchResult result = new JpegAutorotateBatchResult();
+        JpegAutorotateCancellation cancellation = getOptions().getCancellation();
+        ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpeg-autorotate-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            int count = openJob();
+            List<List<Path>> shardFiles = listShards(directory, count);
+            int start = Math.floorMod(this.workerId.hashCode(), count);
+
+            for (boolean pending = true; pending; ) {
+                pending = false;
+
+                // Workers start at different shards, so they rarely contend for the same lease
+                for (int i = 0; i < count; i++) {
+                    int shard = (start + i) % count;
+
+                    if (!processShard(directory, shard, shardFiles.get(shard), renewals, result)) {
+                        pending = true;
+                    }
+                }
+
+                if (pending) {
+                    if (cancellation != null) {
+                        cancellation.throwIfCancelled();
+                    }
+                    Thread.sleep(Math.min(1000, this.leaseDuration / 4));
+                }
+            }
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to process distributed batch.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JpegAutorotateCancelledException("Distributed batch interrupted.");
+        } finally {
+            renewals.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the shard count of the work directory, recording this worker's shard count if it is the first.
+     */
+    private int openJob() throws IOException {
+        Path job = this.workDirectory.resolve(JOB_FILE);
+        Files.createDirectories(this.workDirectory.resolve(LEASES_DIRECTORY));
+        Files.createDirectories(this.workDirectory.resolve(MANIFESTS_DIRECTORY));
+        Files.createDirectories(this.workDirectory.resolve(DONE_DIRECTORY));
+
+        if (!Files.exists(job)) {
+            Properties properties = new Properties();
+            properties.setProperty(SHARDS_PROPERTY, Integer.toString(this.shards));
+
+            Path temporary = JpegBatchFiles.getTemporaryFile(job.resolveSibling(JOB_FILE + "." + this.workerId.hashCode()));
+            try (OutputStream os = Files.newOutputStream(temporary)) {
+                properties.store(os, "jpeg-autorotate distributed batch");
+            }
+
+            try {
+                Files.createLink(job, temporary);
+            } catch (FileAlreadyExistsException e) {
+                // Recorded by another worker first
+            } catch (UnsupportedOperationException | IOException e) {
+                if (!Files.exists(job)) {
+                    JpegBatchFiles.replace(temporary, job);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(job)) {
+            properties.load(is);
+        }
+
+        try {
+            int count = Integer.parseInt(properties.getProperty(SHARDS_PROPERTY, ""));
+            if (count < 1) {
+                throw new IOException("Invalid shard count in " + job + ".");
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid shard count in " + job + ".", e);
+        }
+    }
+
+    /**
+     * Lists the JPEG image files of a directory tree, leaving out the work directory, split into shards by a
+     * hash of their relative path.
+     */
+    private List<List<Path>> listShards(final Path directory, final int count) throws JpegAutorotateException {
+        List<List<Path>> shardFiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shardFiles.add(new ArrayList<>());
+        }
+
+        for (Path file : this.batch.listFiles(directory, file -> file.toAbsolutePath().normalize().startsWith(this.workDirectory))) {
+            shardFiles.get(getShard(JpegBatchFiles.getRelativePath(directory, file), count)).add(file);
+        }
+
+        return shardFiles;
+    }
+
+    /**
+     * @return The shard of a file, stable across workers and runs for a relative path and shard count.
+     */
+    static int getShard(final String path, final int count) {
+        int hash = 0;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = 31 * hash + (b & 0xff);
+        }
+
+        return Math.floorMod(hash, count);
+    }
+
+    /**
+     * Attempts to claim a shard not done yet and process its files.
+     *
+     * @return {@code true} if the shard is done, {@code false} if it is leased by another worker or the lease was lost.
+     */
+    private boolean processShard(final Path directory, final int shard, final List<Path> files, final ScheduledExecutorService renewals,
+                                 final JpegAutorotateBatchResult result) throws IOException, JpegAutorotateException {
+        String name = "shard-" + shard;
+        Path done = this.workDirectory.resolve(DONE_DIRECTORY).resolve(name);
+        if (Files.exists(done)) {
+            return true;
+        }
+
+        JpegBatchLease lease = JpegBatchLease.tryAcquire(this.workDirectory.resolve(LEASES_DIRECTORY).resolve(name + ".lease"), this.workerId, this.leaseDuration);
+        if (lease == null) {
+            return false;
+        }
+
+        long period = Math.max(1, this.leaseDuration / 4);
+        ScheduledFuture<?> renewal = renewals.scheduleAtFixedRate(lease::renew, period, period, TimeUnit.MILLISECONDS);
+
+        try (JpegBatchLease held = lease; JpegBatchManifest batchManifest = new JpegBatchManifest(this.workDirectory.resolve(MANIFESTS_DIRECTORY).resolve(name))) {
+            // Completed by the previous owner, just before its lease expired
+            if (Files.exists(done)) {
+                return true;
+            }
+
+            try {
+                batchManifest.open();
+            } catch (JpegAutorotateException e) {
+                // Still open by a stalled previous owner, which finds its lease lost
+                if (e.getCause() == null) {
+                    return false;
+                }
+                throw e;
+            }
+
+            for (Path file : files) {
+                if (!held.renew()) {
+                    return false;
+                }
+                this.batch.processFile(directory, file, batchManifest, result);
+            }
+
+            if (!held.renew()) {
+                return false;
+            }
+            batchManifest.commit();
+
+            Path temporary = JpegBatchFiles.getTemporaryFile(done);
+            Files.write(temporary, this.workerId.getBytes(StandardCharsets.UTF_8));
+            JpegBatchFiles.replace(temporary, done);
+            return true;
+        } finally {
+            renewal.cancel(false);
+        }
+    }
+
+}
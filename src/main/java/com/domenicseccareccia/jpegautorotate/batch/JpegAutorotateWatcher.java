@@ -0,0 +1,490 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches a spool directory tree and rotates each JPEG image file landing in it into an output directory.
+ * <p>
+ * Files are picked up from {@link WatchService} events as they are created or written, and once started,
+ * from the files already present. As a file may still be written when its first event arrives, it is only
+ * processed once its size and last modified time have not changed for a quiet period. Files are rotated
+ * by a bounded pool of workers, written to a temporary file in the output directory and atomically moved to
+ * the same relative path, then removed from the spool directory. Images already upright are moved as they are.
+ * Files unable to be rotated are moved to the failed directory, if set, or otherwise left in place and ignored
+ * until written again.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * try (JpegAutorotateWatcher watcher = new JpegAutorotateWatcher(Paths.get("path/to/spool"), Paths.get("path/to/output"))
+ *         .setOptions(new JpegAutorotateOptions().setThreads(1))
+ *         .setWorkers(4)) {
+ *     watcher.start();
+ *     ...
+ * }
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateWatcher implements AutoCloseable {
+
+    private final Path directory;
+    private final Path outputDirectory;
+    private Path failedDirectory;
+    private JpegAutorotateOptions options = new JpegAutorotateOptions();
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private long quietPeriodMillis = 250;
+    private BiConsumer<Path, JpegAutorotateBatchOutcome> listener = (file, outcome) -> { };
+
+    private WatchService watchService;
+    private ThreadPoolExecutor executor;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Files waiting for their quiet period to end, only accessed by the watching thread.
+     */
+    private final Map<Path, PendingFile> pending = new HashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Queue<Path> requeued = new ConcurrentLinkedQueue<>();
+    private final Map<Path, Long> failed = new ConcurrentHashMap<>();
+
+    /**
+     * Size and last modified time of a pending file, as last observed.
+     */
+    private static final class PendingFile {
+
+        private long size = -1;
+        private long lastModified = -1;
+        private long changedAt = System.nanoTime();
+
+    }
+
+    /**
+     * @param directory
+     *              {@code Path} of the spool directory to watch.
+     * @param outputDirectory
+     *              {@code Path} of the directory upright images are moved to, on the same file system
+     *              as the temporary files written in it.
+     */
+    public JpegAutorotateWatcher(final Path directory, final Path outputDirectory) {
+        if (directory == null || outputDirectory == null) {
+            throw new IllegalArgumentException("Directories must not be null.");
+        }
+
+        this.directory = directory.toAbsolutePath().normalize();
+        this.outputDirectory = outputDirectory.toAbsolutePath().normalize();
+    }
+
+    public Path getFailedDirectory() {
+        return this.failedDirectory;
+    }
+
+    /**
+     * Moves files unable to be rotated to the same relative path under {@code failedDirectory}. Defaults to
+     * {@code null}, leaving them in the spool directory, ignored until written again.
+     *
+     * @param failedDirectory
+     *              {@code Path} of the failed directory, or {@code null}.
+     * @return This {@code JpegAutorotateWatcher} instance.
+     */
+    public JpegAutorotateWatcher setFailedDirectory(final Path failedDirectory) {
+        this.failedDirectory = failedDirectory == null ? null : failedDirectory.toAbsolutePath().normalize();
+        return this;
+    }
+
+    public JpegAutorotateOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Sets the options every image is rotated with. As several images are rotated at once, parallel stages
+     * within an image are best limited with {@link JpegAutorotateOptions#setThreads(int)}.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateWatcher} instance.
+     */
+    public JpegAutorotateWatcher setOptions(final JpegAutorotateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null.");
+        }
+
+        this.options = options;
+        return this;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Sets the number of images rotated at once. Files ready beyond those queued for the workers wait in the
+     * spool directory. Defaults to the number of available processors.
+     *
+     * @param workers
+     *              Number of worker threads, at least 1.
+     * @return This {@code JpegAutorotateWatcher} instance.
+     */
+    public JpegAutorotateWatcher setWorkers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1.");
+        }
+
+        this.workers = workers;
+        return this;
+    }
+
+    public long getQuietPeriodMillis() {
+        return this.quietPeriodMillis;
+    }
+
+    /**
+     * Sets the time a file must go unchanged before being processed, so files still being written are not
+     * picked up partially. Defaults to 250 milliseconds.
+     *
+     * @param quietPeriod
+     *              Quiet period, at least 1 millisecond.
+     * @param unit
+     *              {@code TimeUnit} of {@code quietPeriod}.
+     * @return This {@code JpegAutorotateWatcher} instance.
+     */
+    public JpegAutorotateWatcher setQuietPeriod(final long quietPeriod, final TimeUnit unit) {
+        if (unit.toMillis(quietPeriod) < 1) {
+            throw new IllegalArgumentException("Quiet period must be at least 1 millisecond.");
+        }
+
+        this.quietPeriodMillis = unit.toMillis(quietPeriod);
+        return this;
+    }
+
+    /**
+     * Sets a listener called by the worker threads with each processed file and its outcome.
+     *
+     * @param listener
+     *              {@code BiConsumer} receiving the spool directory path of each file and its outcome.
+     * @return This {@code JpegAutorotateWatcher} instance.
+     */
+    public JpegAutorotateWatcher setListener(final BiConsumer<Path, JpegAutorotateBatchOutcome> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null.");
+        }
+
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Attempts to start watching the spool directory on a daemon thread, picking up the files already present.
+     *
+     * @throws JpegAutorotateException
+     *              In the event the directories are unable to be watched or created.
+     */
+    public synchronized void start() throws JpegAutorotateException {
+        if (this.running) {
+            throw new IllegalStateException("Watcher is already started.");
+        }
+
+        try {
+            Files.createDirectories(this.outputDirectory);
+            if (this.failedDirectory != null) {
+                Files.createDirectories(this.failedDirectory);
+            }
+
+            this.watchService = FileSystems.getDefault().newWatchService();
+            register(this.directory);
+        } catch (IOException e) {
+            close();
+            throw new JpegAutorotateException("Unable to watch spool directory.", e);
+        }
+
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(this.workers),
+                runnable -> {
+                    Thread worker = new Thread(runnable, "jpeg-autorotate-worker");
+                    worker.setDaemon(true);
+                    return worker;
+                });
+        this.running = true;
+        this.thread = new Thread(this::watch, "jpeg-autorotate-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops watching, then waits for the files being rotated to be done.
+     */
+    @Override
+    public synchronized void close() {
+        this.running = false;
+
+        try {
+            if (this.watchService != null) {
+                this.watchService.close();
+            }
+            if (this.thread != null) {
+                this.thread.join();
+            }
+            if (this.executor != null) {
+                this.executor.shutdown();
+                this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (IOException e) {
+            // Closing the watch service only releases its resources.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registers a directory and its subdirectories, other than the output and failed directories, adding the
+     * JPEG image files found to the pending files.
+     */
+    private void register(final Path start) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (isExcluded(path)) {
+                    continue;
+                }
+
+                if (Files.isDirectory(path)) {
+                    path.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } else if (JpegBatchFiles.isJpegFile(path)) {
+                    this.pending.putIfAbsent(path, new PendingFile());
+                }
+            }
+        }
+    }
+
+    private boolean isExcluded(final Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+
+        return normalized.startsWith(this.outputDirectory) || (this.failedDirectory != null && normalized.startsWith(this.failedDirectory));
+    }
+
+    /**
+     * Collects watch events and dispatches the files whose quiet period ended, until closed.
+     */
+    private void watch() {
+        long tick = Math.max(1, Math.min(this.quietPeriodMillis / 4, 50));
+
+        try {
+            while (this.running) {
+                WatchKey key = this.watchService.poll(tick, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = this.watchService.poll();
+                }
+
+                for (Path file = this.requeued.poll(); file != null; file = this.requeued.poll()) {
+                    this.pending.putIfAbsent(file, new PendingFile());
+                }
+
+                dispatch();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void handleEvents(final WatchKey key) {
+        Path parent = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so pick up every file again
+                rescan(this.directory);
+                continue;
+            }
+
+            Path path = parent.resolve((Path) event.context());
+            if (isExcluded(path)) {
+                continue;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                rescan(path);
+            } else if (JpegBatchFiles.isJpegFile(path)) {
+                this.pending.putIfAbsent(path, new PendingFile());
+            }
+        }
+
+        key.reset();
+    }
+
+    private void rescan(final Path start) {
+        try {
+            register(start);
+        } catch (IOException e) {
+            // Directories removed while scanning are no longer watched
+        }
+    }
+
+    /**
+     * Submits the pending files unchanged for the quiet period, as long as workers have room for them.
+     */
+    private void dispatch() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = this.pending.entrySet().iterator();
+
+        while (iterator.hasNext() && this.executor.getQueue().remainingCapacity() > 0) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            Path file = entry.getKey();
+            PendingFile pendingFile = entry.getValue();
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                iterator.remove();
+                continue;
+            }
+
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (size != pendingFile.size || lastModified != pendingFile.lastModified) {
+                pendingFile.size = size;
+                pendingFile.lastModified = lastModified;
+                pendingFile.changedAt = now;
+                continue;
+            }
+
+            if (TimeUnit.NANOSECONDS.toMillis(now - pendingFile.changedAt) < this.quietPeriodMillis || this.inFlight.contains(file)) {
+                continue;
+            }
+
+            iterator.remove();
+            Long failedAt = this.failed.remove(file);
+            if (failedAt != null && failedAt == lastModified) {
+                this.failed.put(file, failedAt);
+                continue;
+            }
+
+            this.inFlight.add(file);
+            this.executor.execute(() -> process(file, size, lastModified));
+        }
+    }
+
+    /**
+     * Rotates a file to the output directory, then removes it from the spool directory unless written again since.
+     */
+    private void process(final Path file, final long size, final long lastModified) {
+        String path = JpegBatchFiles.getRelativePath(this.directory, file);
+        Path target = this.outputDirectory.resolve(path);
+        Path temporary = JpegBatchFiles.getTemporaryFile(target);
+        JpegAutorotateBatchOutcome outcome = JpegAutorotateBatchOutcome.FAILED;
+
+        try {
+            Files.createDirectories(target.getParent());
+
+            try {
+                if (this.options.isBandedProcessing()) {
+                    // Streamed, so memory use stays bounded by the band size
+                    try (OutputStream os = Files.newOutputStream(temporary)) {
+                        JpegAutorotate.rotate(file.toFile(), os, this.options);
+                    }
+                    outcome = JpegBatchFiles.isSameContent(temporary, file) ? JpegAutorotateBatchOutcome.UPRIGHT : JpegAutorotateBatchOutcome.ROTATED;
+                } else {
+                    byte[] bytes = Files.readAllBytes(file);
+                    byte[] rotated;
+                    try (InputStream is = new ByteArrayInputStream(bytes)) {
+                        rotated = JpegAutorotate.rotate(is, this.options);
+                    }
+                    Files.write(temporary, rotated);
+                    outcome = Arrays.equals(rotated, bytes) ? JpegAutorotateBatchOutcome.UPRIGHT : JpegAutorotateBatchOutcome.ROTATED;
+                }
+            } catch (JpegAutorotateException e) {
+                outcome = JpegAutorotateBatchOutcome.FAILED;
+            }
+
+            if (isUnchanged(file, size, lastModified)) {
+                if (outcome != JpegAutorotateBatchOutcome.FAILED) {
+                    JpegBatchFiles.replace(temporary, target);
+                    Files.delete(file);
+                } else if (this.failedDirectory != null) {
+                    Path failedTarget = this.failedDirectory.resolve(path);
+                    Files.createDirectories(failedTarget.getParent());
+                    JpegBatchFiles.replace(file, failedTarget);
+                } else {
+                    this.failed.put(file, lastModified);
+                }
+            } else {
+                // Written again while rotated, so processed again once quiet
+                this.requeued.add(file);
+                return;
+            }
+        } catch (IOException e) {
+            outcome = JpegAutorotateBatchOutcome.FAILED;
+            this.failed.put(file, lastModified);
+        } finally {
+            this.inFlight.remove(file);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // Left for the next rotation of the same file to replace
+            }
+        }
+
+        this.listener.accept(file, outcome);
+    }
+
+    private static boolean isUnchanged(final Path file, final long size, final long lastModified) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+    }
+
+}
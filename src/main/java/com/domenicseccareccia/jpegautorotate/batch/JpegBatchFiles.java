@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * File handling shared by batch and watched directory processing.
+ */
+final class JpegBatchFiles {
+
+    /**
+     * Suffix of the files results are written to before being moved in place.
+     */
+    protected static final String TEMPORARY_SUFFIX = ".jpeg-autorotate.tmp";
+
+    private static final List<String> EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".jpe");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegBatchFiles() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Determines if a file is a JPEG image file by its extension, {@code .jpg}, {@code .jpeg} or {@code .jpe},
+     * and is not a temporary file.
+     *
+     * @param file
+     *              {@code Path} of the file.
+     * @return {@code true} if the file is to be processed.
+     */
+    protected static boolean isJpegFile(final Path file) {
+        return isJpegName(file.getFileName().toString());
+    }
+
+    /**
+     * Determines if a file or archive entry name has a JPEG image extension and is not a temporary file.
+     *
+     * @param name
+     *              Name of the file or archive entry.
+     * @return {@code true} if the file or entry is to be processed.
+     */
+    protected static boolean isJpegName(final String name) {
+        String lowerCase = name.toLowerCase(Locale.ROOT);
+
+        return !lowerCase.endsWith(TEMPORARY_SUFFIX) && EXTENSIONS.stream().anyMatch(lowerCase::endsWith);
+    }
+
+    /**
+     * @return The temporary file written before being moved to {@code target}.
+     */
+    protected static Path getTemporaryFile(final Path target) {
+        return target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * Attempts to move {@code source} to {@code target} atomically, replacing {@code target}, or with a
+     * plain move if the file system does not support atomic moves.
+     *
+     * @param source
+     *              {@code Path} of the file to move.
+     * @param target
+     *              {@code Path} of the destination, on the same file system.
+     * @throws IOException
+     *              In the event the file is unable to be moved.
+     */
+    protected static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return The path of {@code file} relative to {@code directory}, with {@code /} separators.
+     */
+    protected static String getRelativePath(final Path directory, final Path file) {
+        return directory.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return The hexadecimal SHA-256 hash of {@code bytes}.
+     */
+    protected static String hash(final byte[] bytes) {
+        return toHex(getDigest().digest(bytes));
+    }
+
+    /**
+     * @return The hexadecimal SHA-256 hash of the content of {@code file}, read a buffer at a time.
+     */
+    protected static String hash(final Path file) throws IOException {
+        MessageDigest digest = getDigest();
+
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (is.read(buffer) >= 0) {
+                // Digested as read
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Determines if two files have the same content, comparing their sizes first, then their content a buffer at a time.
+     *
+     * @return {@code true} if the files have the same content.
+     */
+    protected static boolean isSameContent(final Path file, final Path other) throws IOException {
+        if (Files.size(file) != Files.size(other)) {
+            return false;
+        }
+
+        try (InputStream is = Files.newInputStream(file);
+             InputStream otherIs = Files.newInputStream(other)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] otherBuffer = new byte[BUFFER_SIZE];
+
+            for (int read; (read = readFully(is, buffer)) > 0; ) {
+                if (readFully(otherIs, otherBuffer) != read || !Arrays.equals(buffer, otherBuffer)) {
+                    return false;
+                }
+            }
+            return otherIs.read() < 0;
+        }
+    }
+
+    /**
+     * Reads until {@code buffer} is full or the stream ends, zeroing what is left of it.
+     *
+     * @return Number of bytes read.
+     */
+    private static int readFully(final InputStream is, final byte[] buffer) throws IOException {
+        int offset = 0;
+        for (int read; offset < buffer.length && (read = is.read(buffer, offset, buffer.length - offset)) >= 0; ) {
+            offset += read;
+        }
+
+        Arrays.fill(buffer, offset, buffer.length, (byte) 0);
+        return offset;
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    private static String toHex(final byte[] digest) {
+        StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+/**
+ * An expiring claim on a shard of a distributed batch, held by one worker at a time.
+ * <p>
+ * A lease is a file holding its owner and a nonce, created only if absent, so of several workers claiming
+ * a shard at once exactly one succeeds. Its last modified time is its heartbeat: the owner renews it while
+ * processing, and a lease not renewed for its duration is expired. An expired lease is broken by atomically
+ * moving it aside, which only one of several breakers achieves, and claimed anew. A lease renewed while being
+ * broken is restored. An owner finding its lease replaced or gone has lost it, and stops processing its shard.
+ * </p>
+ * <p>
+ * Expiry compares the clock of the worker with last modified times set by the file system, so clocks of
+ * workers sharing a network file system must be synchronized to well within the lease duration.
+ * </p>
+ */
+final class JpegBatchLease implements AutoCloseable {
+
+    private static final String STALE_SUFFIX = ".stale";
+
+    private final Path file;
+    private final String token;
+    private volatile boolean lost;
+
+    private JpegBatchLease(final Path file, final String token) {
+        this.file = file;
+        this.token = token;
+    }
+
+    /**
+     * Attempts to claim a lease, breaking it first if expired.
+     *
+     * @param file
+     *              {@code Path} of the lease file.
+     * @param owner
+     *              Identifier of the claiming worker.
+     * @param duration
+     *              Milliseconds a lease is held for without being renewed.
+     * @return The {@code JpegBatchLease}, or {@code null} if held by another worker.
+     * @throws IOException
+     *              In the event the lease file is unable to be read or written.
+     */
+    protected static JpegBatchLease tryAcquire(final Path file, final String owner, final long duration) throws IOException {
+        String token = owner + ' ' + UUID.randomUUID();
+
+        if (create(file, token)) {
+            return new JpegBatchLease(file, token);
+        }
+
+        String held = read(file);
+        FileTime heartbeat = getLastModifiedTime(file);
+        if (held == null || heartbeat == null || System.currentTimeMillis() - heartbeat.toMillis() <= duration) {
+            return null;
+        }
+
+        // Move the expired lease aside, so that of several workers breaking it only one claims it
+        Path stale = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + STALE_SUFFIX);
+        try {
+            Files.move(file, stale, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            // Renewed or claimed anew since it was read, the moved lease is still held
+            if (!held.equals(read(stale)) || !heartbeat.equals(getLastModifiedTime(stale))) {
+                restore(stale, file);
+                return null;
+            }
+        } finally {
+            Files.deleteIfExists(stale);
+        }
+
+        return create(file, token) ? new JpegBatchLease(file, token) : null;
+    }
+
+    /**
+     * Renews the lease, unless lost.
+     *
+     * @return {@code true} if the lease is still held.
+     */
+    protected boolean renew() {
+        if (!this.lost) {
+            try {
+                if (this.token.equals(read(this.file))) {
+                    Files.setLastModifiedTime(this.file, FileTime.fromMillis(System.currentTimeMillis()));
+                } else {
+                    this.lost = true;
+                }
+            } catch (IOException e) {
+                // Retried by the next renewal, long before the lease expires
+            }
+        }
+
+        return !this.lost;
+    }
+
+    /**
+     * @return {@code true} if the lease was found replaced or gone when last renewed.
+     */
+    protected boolean isLost() {
+        return this.lost;
+    }
+
+    /**
+     * Releases the lease, unless lost.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.lost && this.token.equals(read(this.file))) {
+            Files.deleteIfExists(this.file);
+        }
+        this.lost = true;
+    }
+
+    /**
+     * Creates a lease file holding {@code token} if absent, with its full content visible at once.
+     *
+     * @return {@code true} if created.
+     */
+    private static boolean create(final Path file, final String token) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + JpegBatchFiles.TEMPORARY_SUFFIX);
+        Files.write(temporary, token.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.createLink(file, temporary);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            // Without hard links, create the file empty, then write it, read as held but not yet owned meanwhile
+            return createFile(file, token);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static boolean createFile(final Path file, final String token) throws IOException {
+        try {
+            Files.createFile(file);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    /**
+     * Moves a lease back in place, unless claimed anew meanwhile.
+     */
+    private static void restore(final Path stale, final Path file) throws IOException {
+        try {
+            Files.createLink(file, stale);
+        } catch (FileAlreadyExistsException e) {
+            // Claimed anew, so its previous owner finds its lease lost
+        } catch (UnsupportedOperationException | IOException e) {
+            if (!Files.exists(file)) {
+                try {
+                    Files.move(stale, file, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException ignored) {
+                    // Left to expire
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The content of a lease file, or {@code null} if gone.
+     */
+    private static String read(final Path file) throws IOException {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static FileTime getLastModifiedTime(final Path file) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Records the JPEG image files processed by batch runs, so unchanged files are skipped by the next run.
+ * <p>
+ * The manifest is a text file of one entry per line: the file path, relative to the processed directory,
+ * its size, last modified time, SHA-256 content hash and outcome, followed by a CRC-32 of the line. While
+ * a run is in progress, each entry is appended to a journal next to the manifest and forced to disk as soon
+ * as its file is processed. A run interrupted by a crash leaves its journal behind, and the next run replays
+ * it over the manifest, resuming where the interrupted run stopped. Lines torn by a crash fail their CRC-32
+ * and are ignored. Once a run completes, the entries of the files it visited are written to a new manifest,
+ * which atomically replaces the previous one, and the journal is deleted.
+ * </p>
+ */
+final class JpegBatchManifest implements AutoCloseable {
+
+    private static final String HEADER = "# jpeg-autorotate manifest 1";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path manifest;
+    private final Path journal;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> visited = new HashSet<>();
+    private FileChannel journalChannel;
+    private FileLock lock;
+
+    /**
+     * An entry of the manifest, describing a file as it was when processed.
+     */
+    protected static final class Entry {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final JpegAutorotateBatchOutcome outcome;
+
+        protected Entry(final String path, final long size, final long lastModified, final String hash, final JpegAutorotateBatchOutcome outcome) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.outcome = outcome;
+        }
+
+        protected String getPath() {
+            return this.path;
+        }
+
+        protected long getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return Last modified time of the file, in milliseconds since the epoch.
+         */
+        protected long getLastModified() {
+            return this.lastModified;
+        }
+
+        /**
+         * @return Hexadecimal SHA-256 hash of the file content.
+         */
+        protected String getHash() {
+            return this.hash;
+        }
+
+        protected JpegAutorotateBatchOutcome getOutcome() {
+            return this.outcome;
+        }
+
+        private String toLine() {
+            String line = escape(this.path) + '\t' + this.size + '\t' + this.lastModified + '\t' + this.hash + '\t' + this.outcome.name();
+
+            return line + '\t' + Long.toHexString(checksum(line));
+        }
+
+        /**
+         * Parses a line of the manifest or journal.
+         *
+         * @return The {@code Entry}, or {@code null} if the line is malformed or fails its CRC-32.
+         */
+        private static Entry fromLine(final String line) {
+            int checksumStart = line.lastIndexOf('\t');
+            String[] fields = line.split("\t", -1);
+            if (checksumStart < 0 || fields.length != 6) {
+                return null;
+            }
+
+            try {
+                if (Long.parseLong(fields[5], 16) != checksum(line.substring(0, checksumStart))) {
+                    return null;
+                }
+
+                return new Entry(unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3],
+                        JpegAutorotateBatchOutcome.valueOf(fields[4]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+    }
+
+    /**
+     * @param manifest
+     *              {@code Path} of the manifest file. The journal is kept next to it.
+     */
+    protected JpegBatchManifest(final Path manifest) {
+        this.manifest = manifest.toAbsolutePath();
+        this.journal = this.manifest.resolveSibling(this.manifest.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Attempts to lock the manifest for a run, then reads it and replays the journal left by an interrupted run.
+     *
+     * @throws JpegAutorotateException
+     *              In the event the manifest is in use by another run, or is unable to be read.
+     */
+    protected void open() throws JpegAutorotateException {
+        try {
+            if (this.manifest.getParent() != null) {
+                Files.createDirectories(this.manifest.getParent());
+            }
+
+            this.journalChannel = FileChannel.open(this.journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                this.lock = this.journalChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                this.lock = null;
+            }
+            if (this.lock == null) {
+                this.journalChannel.close();
+                throw new JpegAutorotateException("Manifest is in use by another batch run.");
+            }
+
+            read(this.manifest);
+            read(this.journal);
+
+            // Terminate a line torn by a crash, so it does not run into the next entry
+            long size = this.journalChannel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            this.journalChannel.position(size);
+            if (size > 0 && this.journalChannel.read(last, size - 1) == 1 && last.get(0) != '\n') {
+                this.journalChannel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+            }
+        } catch (IOException e) {
+            close();
+            throw new JpegAutorotateException("Unable to read batch manifest.", e);
+        }
+    }
+
+    private void read(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = line.startsWith("#") ? null : Entry.fromLine(line);
+                if (entry != null) {
+                    this.entries.put(entry.getPath(), entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the last recorded entry of a file, and marks it visited by the current run.
+     *
+     * @param path
+     *              Path of the file, relative to the processed directory.
+     * @return The {@code Entry}, or {@code null} if the file was never recorded.
+     */
+    protected Entry get(final String path) {
+        this.visited.add(path);
+
+        return this.entries.get(path);
+    }
+
+    /**
+     * Attempts to record an entry, appending it to the journal and forcing the journal to disk.
+     *
+     * @param entry
+     *              {@code Entry} of a processed file.
+     * @throws JpegAutorotateException
+     *              In the event the journal is unable to be written.
+     */
+    protected void record(final Entry entry) throws JpegAutorotateException {
+        this.visited.add(entry.getPath());
+        this.entries.put(entry.getPath(), entry);
+
+        ByteBuffer buffer = ByteBuffer.wrap((entry.toLine() + '\n').getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                this.journalChannel.write(buffer);
+            }
+            this.journalChannel.force(false);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to write batch manifest journal.", e);
+        }
+    }
+
+    /**
+     * Attempts to replace the manifest with the entries of the files visited by the current run, then deletes
+     * the journal. Entries of files no longer found are dropped.
+     *
+     * @throws JpegAutorotateException
+     *              In the event the manifest is unable to be written.
+     */
+    protected void commit() throws JpegAutorotateException {
+        Path temporary = this.manifest.resolveSibling(this.manifest.getFileName() + TEMPORARY_SUFFIX);
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Entry entry : this.entries.values()) {
+                    if (this.visited.contains(entry.getPath())) {
+                        writer.write(entry.toLine());
+                        writer.newLine();
+                    }
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temporary, this.manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, this.manifest, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            this.journalChannel.truncate(0);
+            this.journalChannel.force(true);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to write batch manifest.", e);
+        }
+    }
+
+    /**
+     * Releases the manifest, deleting the journal if empty, i.e. once committed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (this.journalChannel != null && this.journalChannel.isOpen()) {
+                boolean committed = this.lock != null && this.journalChannel.size() == 0;
+
+                if (this.lock != null) {
+                    this.lock.release();
+                }
+                this.journalChannel.close();
+
+                if (committed) {
+                    Files.deleteIfExists(this.journal);
+                }
+            }
+        } catch (IOException e) {
+            // The journal is replayed by the next run, so is safe to leave behind.
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code file} is the manifest or one of its working files.
+     */
+    protected boolean isManifestFile(final Path file) {
+        Path absolute = file.toAbsolutePath();
+
+        return absolute.equals(this.manifest) || absolute.equals(this.journal)
+                || absolute.equals(this.manifest.resolveSibling(this.manifest.getFileName() + TEMPORARY_SUFFIX));
+    }
+
+    private static long checksum(final String line) {
+        CRC32 crc = new CRC32();
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+
+        return crc.getValue();
+    }
+
+    private static String escape(final String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+
+        for (char c : path.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String unescape(final String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '\\' || i + 1 == path.length()) {
+                sb.append(c);
+                continue;
+            }
+
+            char escaped = path.charAt(++i);
+            sb.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains classes which rotate directories and archives of JPEG images in batches.
+ */
+package com.domenicseccareccia.jpegautorotate.batch;
@@ -21,6 +21,7 @@
 
 package com.domenicseccareccia.jpegautorotate.imaging;
 
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
 import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
 
 import java.awt.image.BufferedImage;
@@ -30,9 +31,68 @@ class JpegImage {
     private BufferedImage image;
     private JpegImageMetadata metadata;
 
-    protected JpegImage(final byte[] bytes) throws JpegAutorotateException {
-        this.image = JpegImageReader.readImage(bytes);
-        this.metadata = new JpegImageMetadata(bytes);
+    protected JpegImage(final byte[] bytes, final JpegImageBufferPool pool) throws JpegAutorotateException {
+        this(bytes, pool, new JpegAutorotateCancellation());
+    }
+
+    protected JpegImage(final byte[] bytes, final JpegImageBufferPool pool, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        this(bytes, readMetadata(bytes), pool, cancellation);
+    }
+
+    /**
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param metadata
+     *              {@code JpegImageMetadata} previously read from {@code bytes}.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked while decoding.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is unable to be read, or the read is cancelled.
+     */
+    protected JpegImage(final byte[] bytes, final JpegImageMetadata metadata, final JpegImageBufferPool pool,
+                        final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        this(bytes, metadata, false, pool, cancellation);
+    }
+
+    /**
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param metadata
+     *              {@code JpegImageMetadata} previously read from {@code bytes}.
+     * @param ycbcr
+     *              {@code true} to keep the decoded {@code YCbCr} samples, without converting them to RGB.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked while decoding.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is unable to be read, or the read is cancelled.
+     */
+    protected JpegImage(final byte[] bytes, final JpegImageMetadata metadata, final boolean ycbcr, final JpegImageBufferPool pool,
+                        final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        this.metadata = metadata;
+        JpegImageOrientation orientation = JpegImageOrientation.fromExifValue(this.metadata.getOrientation());
+
+        cancellation.throwIfCancelled();
+        this.image = ycbcr ? JpegImageReader.readYCbCr(bytes, orientation, pool, cancellation) : JpegImageReader.readImage(bytes, orientation, pool, cancellation);
+    }
+
+    /**
+     * Attempts to read the metadata of a JPEG image file.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @return If successful, a {@code JpegImageMetadata} instance.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} does not have necessary metadata.
+     */
+    protected static JpegImageMetadata readMetadata(final byte[] bytes) throws JpegAutorotateException {
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.METADATA_READ)) {
+            timer.setInputBytes(bytes.length);
+            return new JpegImageMetadata(bytes);
+        }
     }
 
     protected void setImage(BufferedImage image) {
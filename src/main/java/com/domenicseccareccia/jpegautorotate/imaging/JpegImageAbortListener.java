@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+
+/**
+ * Aborts an {@code ImageReader} or {@code ImageWriter} once a {@code JpegAutorotateCancellation} is cancelled.
+ * <p>
+ * The JPEG reader and writer report progress for every scanline, so the cancellation is checked
+ * as often. An aborted read or write returns early, leaving the image incomplete.
+ * </p>
+ */
+class JpegImageAbortListener implements IIOReadProgressListener, IIOWriteProgressListener {
+
+    private final JpegAutorotateCancellation cancellation;
+
+    /**
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked on each progress report.
+     */
+    protected JpegImageAbortListener(final JpegAutorotateCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public void imageProgress(ImageReader source, float percentageDone) {
+        if (this.cancellation.isCancelled()) {
+            source.abort();
+        }
+    }
+
+    @Override
+    public void imageProgress(ImageWriter source, float percentageDone) {
+        if (this.cancellation.isCancelled()) {
+            source.abort();
+        }
+    }
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {
+    }
+
+    @Override
+    public void sequenceComplete(ImageReader source) {
+    }
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {
+    }
+
+    @Override
+    public void imageComplete(ImageReader source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {
+    }
+
+    @Override
+    public void readAborted(ImageReader source) {
+    }
+
+    @Override
+    public void imageStarted(ImageWriter source, int imageIndex) {
+    }
+
+    @Override
+    public void imageComplete(ImageWriter source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageWriter source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageWriter source) {
+    }
+
+    @Override
+    public void writeAborted(ImageWriter source) {
+    }
+
+}
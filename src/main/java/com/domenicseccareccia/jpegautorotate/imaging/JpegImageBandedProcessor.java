@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import com.domenicseccareccia.jpegautorotate.util.ImageUtils;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Processes JPEG images in bands of rows, keeping memory use proportional to the band size.
+ * <p>
+ * The stored image is decoded in a single pass, its rows gathered in strips that are copied
+ * upright to a temporary spill file as large as the decoded image. Each band of the upright
+ * image is then read back, color converted and encoded before the next band is read. Encoded
+ * bands are streamed straight to the output.
+ * </p>
+ */
+final class JpegImageBandedProcessor {
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageBandedProcessor() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Processes {@code JpegImage} rotation and metadata modification band by band, writing
+     * the result to {@code os}. Processing depends on presence of EXIF {@code Orientation} metadata tag.
+     *
+     * @param file
+     *              {@code File} containing a JPEG image file.
+     * @param os
+     *              {@code OutputStream} receiving the processed image, or the original image file
+     *              if already properly oriented.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata and/or has unprocessable information.
+     */
+    protected static void process(final File file, final OutputStream os, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegImageStatistics statistics = JpegImageStatistics.getInstance();
+        CountingOutputStream cos = new CountingOutputStream(os);
+
+        statistics.imageStarted();
+
+        try {
+            if (processBands(file, cos, options)) {
+                statistics.imageRotated(file.length(), cos.getByteCount());
+            } else {
+                statistics.imageSkipped(file.length());
+            }
+        } catch (JpegAutorotateException | RuntimeException e) {
+            statistics.imageFailed(e);
+            throw e;
+        } finally {
+            statistics.imageFinished(0);
+        }
+    }
+
+    /**
+     * Processes the image band by band.
+     *
+     * @return {@code true} if the image was rotated; {@code false} if copied as is.
+     */
+    private static boolean processBands(final File file, final OutputStream os, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegAutorotateCancellation cancellation = JpegImageProcessor.getCancellation(options);
+        byte[] header;
+
+        cancellation.throwIfCancelled();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            header = JpegImageSegments.readHeader(is);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read JPEG file.", e);
+        }
+
+        if (!ImageUtils.isJpeg(header)) {
+            throw new JpegAutorotateException("InputStream file is not compatible, must be a JPEG image.");
+        }
+
+        JpegImageMetadata metadata;
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.METADATA_READ)) {
+            timer.setInputBytes(header.length);
+            metadata = new JpegImageMetadata(header);
+        }
+
+        try {
+            // Determine if JPEG image is already properly oriented.
+            if (metadata.getOrientation() == TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL) {
+                Files.copy(file.toPath(), os);
+                return false;
+            }
+
+            JpegImageOrientation orientation = JpegImageOrientation.fromExifValue(metadata.getOrientation());
+
+            cancellation.throwIfCancelled();
+            JpegImageProcessor.processThumbnail(metadata, options);
+            metadata.updateMetadata();
+
+            try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+                ImageReader reader = JpegImageReader.getImageReader(iis);
+
+                try {
+                    reader.setInput(iis, true, true);
+                    reader.addIIOReadProgressListener(new JpegImageAbortListener(cancellation));
+                    writeBands(reader, orientation, header, metadata, os, options, cancellation);
+                } finally {
+                    reader.dispose();
+                }
+            }
+
+            return true;
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read/write rotated JPEG image.", e);
+        }
+    }
+
+    /**
+     * Decodes the image once to a spill file holding its upright pixels, then reads back, color converts and encodes
+     * the upright image band by band, until {@code cancellation} is cancelled. The image is encoded with the tables
+     * and sampling factors of {@code header} if {@code options} preserve them.
+     */
+    private static void writeBands(final ImageReader reader, final JpegImageOrientation orientation, final byte[] header, final JpegImageMetadata metadata,
+                                   final OutputStream os, final JpegAutorotateOptions options, final JpegAutorotateCancellation cancellation) throws IOException, JpegAutorotateException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int targetWidth = orientation.getTargetWidth(width, height);
+        int targetHeight = orientation.getTargetHeight(width, height);
+
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        if (type.getSampleModel().getTransferType() != DataBuffer.TYPE_BYTE) {
+            throw new JpegAutorotateException("Unable to process JPEG image in bands, its pixels are not stored as bytes.");
+        }
+
+        ICC_Profile iccProfile = metadata.getIccProfile();
+        ColorConvertOp colorConvertOp = iccProfile == null ? null : new ColorConvertOp(new ICC_ColorSpace(iccProfile), null);
+
+        ColorModel colorModel = type.getColorModel();
+        if (colorConvertOp != null) {
+            colorModel = colorConvertOp.createCompatibleDestImage(type.createBufferedImage(1, 1), null).getColorModel();
+        }
+
+        JpegImageFrame frame = JpegImageFrame.create(header, orientation, colorModel.getNumColorComponents(), options);
+        JpegImageEncoder encoder = new JpegImageEncoder(targetWidth, targetHeight, colorModel, frame, options.getThreads(), cancellation);
+        int bandRows = getBandRows(targetWidth, targetHeight, type.getSampleModel().getNumDataElements(), encoder.getIntervalRows(), options.getMaxBandBytes());
+        JpegImageBufferPool pool = JpegImageProcessor.getBufferPool(options);
+        Path spill = Files.createTempFile("jpeg-autorotate-", ".band");
+
+        try (FileChannel channel = FileChannel.open(spill, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            spill(reader, type, orientation, channel, options.getMaxBandBytes(), pool, cancellation);
+
+            BufferedImage band = pool.borrow(type, targetWidth, bandRows);
+            long pixels = (long) targetWidth * bandRows;
+
+            JpegImageStatistics.getInstance().addInFlightPixels(pixels);
+
+            try {
+                BufferedImage convertedBand = colorConvertOp == null ? null : colorConvertOp.createCompatibleDestImage(band, null);
+                byte[] row = new byte[targetWidth * type.getSampleModel().getNumDataElements()];
+
+                encoder.writeHeaders(os, JpegImageProcessor.writeMetadataSegments(metadata));
+
+                for (int y = 0; y < targetHeight; y += bandRows) {
+                    cancellation.throwIfCancelled();
+
+                    int rows = Math.min(bandRows, targetHeight - y);
+                    BufferedImage current = rows == bandRows ? band : band.getSubimage(0, 0, targetWidth, rows);
+
+                    for (int i = 0; i < rows; i++) {
+                        read(channel, ByteBuffer.wrap(row), (long) (y + i) * row.length);
+                        current.getRaster().setDataElements(0, i, targetWidth, 1, row);
+                    }
+
+                    if (colorConvertOp != null) {
+                        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ICC_CONVERSION)) {
+                            timer.setDimensions(targetWidth, rows);
+                            current = colorConvertOp.filter(current, rows == bandRows ? convertedBand : convertedBand.getSubimage(0, 0, targetWidth, rows));
+                        }
+                    }
+
+                    try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ENCODE)) {
+                        timer.setDimensions(targetWidth, rows).setPath("banded");
+                        encoder.writeRows(os, current.getRaster(), y);
+                    }
+                }
+
+                encoder.writeEnd(os);
+                os.flush();
+            } finally {
+                encoder.close();
+                JpegImageStatistics.getInstance().addInFlightPixels(-pixels);
+                pool.release(band);
+            }
+        } finally {
+            Files.deleteIfExists(spill);
+        }
+    }
+
+    /**
+     * Decodes the stored image in a single pass, writing its pixels to their upright position in {@code channel},
+     * as data elements in row major order. Decoded rows are gathered in strips of the stored image, which are copied
+     * upright before being written, the strip and its copy together holding at most {@code maxBandBytes}.
+     */
+    private static void spill(final ImageReader reader, final ImageTypeSpecifier type, final JpegImageOrientation orientation, final FileChannel channel,
+                              final long maxBandBytes, final JpegImageBufferPool pool, final JpegAutorotateCancellation cancellation) throws IOException, JpegAutorotateException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int stripRows = (int) Math.max(1, Math.min(maxBandBytes / 2 / ((long) width * type.getSampleModel().getNumDataElements()), height));
+        BufferedImage strip = pool.borrow(type, width, stripRows);
+        BufferedImage uprightStrip = null;
+        long pixels = 2L * width * stripRows;
+
+        JpegImageStatistics.getInstance().addInFlightPixels(pixels);
+
+        try {
+            uprightStrip = pool.borrow(type, orientation.getTargetWidth(width, stripRows), orientation.getTargetHeight(width, stripRows));
+
+            SpillRaster raster = new SpillRaster(type.getSampleModel(width, height), strip.getRaster(), uprightStrip.getRaster(), orientation, channel, cancellation);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(new BufferedImage(type.getColorModel(), raster, type.getColorModel().isAlphaPremultiplied(), null));
+
+            try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.DECODE)) {
+                timer.setDimensions(orientation.getTargetWidth(width, height), orientation.getTargetHeight(width, height))
+                        .setOrientation(orientation.getExifValue())
+                        .setPath("banded");
+
+                reader.read(0, param);
+                raster.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            cancellation.throwIfCancelled();
+        } finally {
+            JpegImageStatistics.getInstance().addInFlightPixels(-pixels);
+            pool.release(strip);
+            pool.release(uprightStrip);
+        }
+    }
+
+    private static void read(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Spill file ended before the image.");
+            }
+            position += read;
+        }
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Determines the number of rows in a band, a multiple of the encoder restart interval
+     * fitting within {@code maxBandBytes} where possible.
+     */
+    private static int getBandRows(final int width, final int height, final int bands, final int intervalRows, final long maxBandBytes) {
+        long rowBytes = (long) width * bands;
+        long intervals = Math.max(1, maxBandBytes / (rowBytes * intervalRows));
+
+        return (int) Math.min(intervals * intervalRows, height);
+    }
+
+    /**
+     * Destination of the decoding pass, sized as the stored image but holding none of it: the {@code ImageIO} JPEG
+     * reader sets its rows one at a time, which are gathered in a strip and spilled upright once the strip is full.
+     * Progressive images may set every row once per pass, later passes overwriting the spilled rows.
+     */
+    private static final class SpillRaster extends WritableRaster {
+
+        private final WritableRaster strip;
+        private final WritableRaster uprightStrip;
+        private final JpegImageOrientation orientation;
+        private final FileChannel channel;
+        private final JpegAutorotateCancellation cancellation;
+        private final int elements;
+        private final byte[] row;
+        private int stripY;
+        private int stripFilled;
+
+        private SpillRaster(final SampleModel sampleModel, final WritableRaster strip, final WritableRaster uprightStrip, final JpegImageOrientation orientation,
+                            final FileChannel channel, final JpegAutorotateCancellation cancellation) {
+            super(sampleModel, new DataBufferByte(1), new Point(0, 0));
+            this.strip = strip;
+            this.uprightStrip = uprightStrip;
+            this.orientation = orientation;
+            this.channel = channel;
+            this.cancellation = cancellation;
+            this.elements = sampleModel.getNumDataElements();
+            this.row = new byte[Math.max(uprightStrip.getWidth(), 1) * this.elements];
+        }
+
+        @Override
+        public void setRect(final int dx, final int dy, final Raster srcRaster) {
+            int y = dy + srcRaster.getMinY();
+
+            if (y < this.stripY || y >= this.stripY + this.strip.getHeight()) {
+                flush();
+                this.stripY = y - y % this.strip.getHeight();
+            }
+
+            this.strip.setRect(dx, dy - this.stripY, srcRaster);
+            this.stripFilled = Math.max(this.stripFilled, y - this.stripY + 1);
+        }
+
+        /**
+         * Copies the rows gathered in the strip upright and writes them to their position in the spill file.
+         */
+        private void flush() {
+            if (this.stripFilled == 0) {
+                return;
+            }
+
+            int targetWidth = this.orientation.getTargetWidth(this.width, this.height);
+            Rectangle region = this.orientation.getTargetRegion(this.stripY, this.stripFilled, this.width, this.height);
+            Raster source = this.strip.createChild(0, 0, this.width, this.stripFilled, 0, 0, null);
+            WritableRaster upright = this.uprightStrip.createWritableChild(0, 0, region.width, region.height, 0, 0, null);
+
+            JpegImageTransform.transformRaster(source, upright, this.orientation, this.cancellation);
+
+            try {
+                for (int i = 0; i < region.height && !this.cancellation.isCancelled(); i++) {
+                    upright.getDataElements(0, i, region.width, 1, this.row);
+                    write(this.channel, ByteBuffer.wrap(this.row, 0, region.width * this.elements),
+                            ((long) (region.y + i) * targetWidth + region.x) * this.elements);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.stripFilled = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of pixel buffers reused across rotations, keyed by image type and dimensions.
+ * <p>
+ * Decoded and rotated images are borrowed from the pool and returned once encoded, so that
+ * batches of same sized images do not allocate a new multi-megabyte buffer per image.
+ * Buffers are retained up to {@code maxRetainedBytes}; beyond that the least recently
+ * returned buffers are dropped. The pool is safe for use by several threads.
+ * </p>
+ * <p>
+ * An off-heap pool backs byte images with direct memory instead of heap arrays, keeping the
+ * heap small while processing huge images. Off-heap buffers are released as soon as they are
+ * returned and not retained, i.e. when the processing of an image completes, when evicted or
+ * when the pool is cleared.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegImageBufferPool pool = new JpegImageBufferPool(256L * 1024 * 1024);
+ * JpegAutorotateOptions options = new JpegAutorotateOptions().setBufferPool(pool);
+ *
+ * for (File file : files) {
+ *     byte[] image = JpegAutorotate.rotate(file, options);
+ * }
+ *
+ * double reuseRate = pool.getReuseRate();
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegImageBufferPool {
+
+    private final long maxRetainedBytes;
+    private final boolean offHeap;
+    private final Map<Key, Deque<BufferedImage>> buffers = new HashMap<>();
+    private final Deque<BufferedImage> released = new ArrayDeque<>();
+
+    private long retainedBytes;
+    private long borrowCount;
+    private long reuseCount;
+    private long evictionCount;
+
+    /**
+     * @param maxRetainedBytes
+     *              Number of bytes of idle buffers retained by the pool, at least 0.
+     *              A pool retaining 0 bytes always allocates new buffers.
+     */
+    public JpegImageBufferPool(final long maxRetainedBytes) {
+        this(maxRetainedBytes, false);
+    }
+
+    /**
+     * @param maxRetainedBytes
+     *              Number of bytes of idle buffers retained by the pool, at least 0.
+     *              A pool retaining 0 bytes always allocates new buffers.
+     * @param offHeap
+     *              {@code true} to back byte images with off-heap memory, released deterministically.
+     */
+    public JpegImageBufferPool(final long maxRetainedBytes, final boolean offHeap) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("Max retained bytes must be at least 0.");
+        }
+
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.offHeap = offHeap;
+    }
+
+    public long getMaxRetainedBytes() {
+        return this.maxRetainedBytes;
+    }
+
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return this.retainedBytes;
+    }
+
+    public synchronized long getBorrowCount() {
+        return this.borrowCount;
+    }
+
+    public synchronized long getReuseCount() {
+        return this.reuseCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Determines the fraction of borrowed buffers served from the pool instead of being allocated.
+     *
+     * @return A value between 0 and 1; 0 if nothing was borrowed yet.
+     */
+    public synchronized double getReuseRate() {
+        return this.borrowCount == 0 ? 0 : (double) this.reuseCount / this.borrowCount;
+    }
+
+    /**
+     * Drops every idle buffer retained by the pool.
+     */
+    public synchronized void clear() {
+        for (BufferedImage image : this.released) {
+            free(image);
+        }
+
+        this.buffers.clear();
+        this.released.clear();
+        this.retainedBytes = 0;
+    }
+
+    /**
+     * Borrows a {@code BufferedImage} of the given type and dimensions, reusing an idle buffer if available.
+     * The content of a reused buffer is undefined and must be overwritten by the caller.
+     *
+     * @param type
+     *              {@code ImageTypeSpecifier} of the image.
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @return A {@code BufferedImage}, to be returned with {@link #release(BufferedImage)} once no longer used.
+     */
+    protected BufferedImage borrow(final ImageTypeSpecifier type, final int width, final int height) {
+        synchronized (this) {
+            this.borrowCount++;
+
+            Deque<BufferedImage> idle = this.buffers.get(new Key(type, width, height));
+            BufferedImage image = idle == null ? null : idle.pollLast();
+
+            if (image != null) {
+                this.released.removeLastOccurrence(image);
+                this.retainedBytes -= getSize(image);
+                this.reuseCount++;
+                return image;
+            }
+        }
+
+        return this.offHeap ? createOffHeap(type, width, height) : type.createBufferedImage(width, height);
+    }
+
+    /**
+     * Returns a {@code BufferedImage} to the pool. The caller must no longer use it afterwards.
+     *
+     * @param image
+     *              A {@code BufferedImage} obtained by {@link #borrow(ImageTypeSpecifier, int, int)}, or {@code null}.
+     */
+    protected synchronized void release(final BufferedImage image) {
+        long size = image == null ? 0 : getSize(image);
+        if (image == null || size > this.maxRetainedBytes) {
+            free(image);
+            return;
+        }
+
+        this.buffers.computeIfAbsent(Key.of(image), k -> new ArrayDeque<>()).addLast(image);
+        this.released.addLast(image);
+        this.retainedBytes += size;
+
+        while (this.retainedBytes > this.maxRetainedBytes) {
+            BufferedImage eldest = this.released.pollFirst();
+            this.buffers.get(Key.of(eldest)).removeFirstOccurrence(eldest);
+            this.retainedBytes -= getSize(eldest);
+            this.evictionCount++;
+            free(eldest);
+        }
+    }
+
+    /**
+     * Creates an image backed by off-heap memory, if its layout allows; otherwise a regular image.
+     */
+    private static BufferedImage createOffHeap(final ImageTypeSpecifier type, final int width, final int height) {
+        SampleModel sampleModel = type.getSampleModel(width, height);
+
+        if (!(sampleModel instanceof PixelInterleavedSampleModel) || sampleModel.getDataType() != DataBuffer.TYPE_BYTE) {
+            return type.createBufferedImage(width, height);
+        }
+
+        long size = (long) ((PixelInterleavedSampleModel) sampleModel).getScanlineStride() * height;
+        if (size > Integer.MAX_VALUE) {
+            return type.createBufferedImage(width, height);
+        }
+
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, new JpegImageDirectDataBuffer((int) size), null);
+
+        return new BufferedImage(type.getColorModel(), raster, type.getColorModel().isAlphaPremultiplied(), null);
+    }
+
+    private static void free(final BufferedImage image) {
+        if (image != null && image.getRaster().getDataBuffer() instanceof JpegImageDirectDataBuffer) {
+            ((JpegImageDirectDataBuffer) image.getRaster().getDataBuffer()).free();
+        }
+    }
+
+    private static long getSize(final BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    /**
+     * Identifies interchangeable buffers: same color model, sample layout and dimensions.
+     */
+    private static final class Key {
+
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+        private final int width;
+        private final int height;
+
+        private Key(final ImageTypeSpecifier type, final int width, final int height) {
+            // Sample models are compared at a fixed size, since their dimensions are part of their equality
+            this.colorModel = type.getColorModel();
+            this.sampleModel = type.getSampleModel(1, 1);
+            this.width = width;
+            this.height = height;
+        }
+
+        private static Key of(final BufferedImage image) {
+            return new Key(new ImageTypeSpecifier(image), image.getWidth(), image.getHeight());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key) o;
+
+            return this.width == that.width && this.height == that.height
+                    && this.colorModel.equals(that.colorModel) && this.sampleModel.equals(that.sampleModel);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * this.colorModel.hashCode() + this.sampleModel.hashCode()) + this.width) + this.height;
+        }
+
+    }
+
+}
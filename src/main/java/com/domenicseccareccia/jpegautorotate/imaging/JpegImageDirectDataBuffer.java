@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.awt.image.DataBuffer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * A byte {@code DataBuffer} backed by off-heap memory.
+ * <p>
+ * Pixel data lives in a direct {@code ByteBuffer}, outside the Java heap, and is released as soon as
+ * {@link #free()} is called rather than when the buffer is garbage collected. Where the JVM offers no
+ * way to release direct memory explicitly, it is left to the garbage collector.
+ * </p>
+ */
+class JpegImageDirectDataBuffer extends DataBuffer {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+
+            try {
+                // Java 8
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private ByteBuffer buffer;
+
+    /**
+     * @param size
+     *              Number of bytes to allocate.
+     */
+    protected JpegImageDirectDataBuffer(final int size) {
+        super(DataBuffer.TYPE_BYTE, size);
+        this.buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        return this.buffer.get(i + this.offsets[bank]) & 0xff;
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        this.buffer.put(i + this.offsets[bank], (byte) val);
+    }
+
+    /**
+     * Releases the off-heap memory. The buffer must no longer be accessed afterwards.
+     */
+    protected synchronized void free() {
+        ByteBuffer released = this.buffer;
+        if (released == null) {
+            return;
+        }
+
+        // Later access fails with a NullPointerException instead of reading released memory
+        this.buffer = null;
+
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, released);
+            } else if (CLEANER != null) {
+                Object cleaner = CLEANER.invoke(released);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Left to the garbage collector
+        }
+    }
+
+}
@@ -0,0 +1,1145 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline JPEG encoder splitting an image into bands of MCU rows.
+ * <p>
+ * Each band is color converted, transformed, quantized and Huffman coded independently,
+ * allowing bands to be encoded on several threads. Bands are joined by {@code RST} markers,
+ * with the restart interval set to the number of MCUs in a band, into one baseline JPEG.
+ * Rows may be supplied all at once or a few bands at a time, so an image never has to be
+ * held in memory as a whole.
+ * </p>
+ * <p>
+ * Quantization and Huffman tables are the ones used by {@code ImageIO} by default:
+ * the ITU T.81 Annex K tables, with quantization tables scaled to a quality of 75, and 4:2:0 subsampling.
+ * Quantization tables and sampling factors may instead be given by a {@code JpegImageFrame}, e.g. those
+ * of the original image. Huffman tables may instead be computed from the symbols of the image, in a first
+ * pass over its rows.
+ * </p>
+ * <p>
+ * Bands are encoded on a thread pool created on the first pass and kept until {@link #writeEnd(OutputStream)}
+ * or {@link #close()}, so an image written a few bands at a time does not start new threads for each of them.
+ * </p>
+ */
+class JpegImageEncoder implements AutoCloseable {
+
+    /**
+     * Natural (row major) index of each coefficient in zig-zag order.
+     */
+    protected static final int[] ZIGZAG = {
+             0,  1,  8, 16,  9,  2,  3, 10,
+            17, 24, 32, 25, 18, 11,  4,  5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13,  6,  7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * Scale factors of the AA&amp;N forward DCT, folded into the quantization divisors.
+     */
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602,
+            1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private static final int MARKER_SOI = 0xFFD8;
+    private static final int MARKER_EOI = 0xFFD9;
+    private static final int MARKER_APP0 = 0xFFE0;
+    private static final int MARKER_APP2 = 0xFFE2;
+    private static final int MARKER_DQT = 0xFFDB;
+    private static final int MARKER_SOF0 = 0xFFC0;
+    private static final int MARKER_DHT = 0xFFC4;
+    private static final int MARKER_DRI = 0xFFDD;
+    private static final int MARKER_SOS = 0xFFDA;
+    private static final int MARKER_RST0 = 0xFFD0;
+
+    private static final int MAX_ICC_CHUNK = 65519;
+    private static final int MIN_INTERVALS_PER_THREAD = 4;
+    private static final int MAX_INTERVAL_MCU_ROWS = 16;
+
+    private final int width;
+    private final int height;
+    private final int components;
+    private final boolean convertToYCbCr;
+    private final ICC_Profile iccProfile;
+    private final int[] horizontalSampling;
+    private final int[] verticalSampling;
+    private final int maxHorizontalSampling;
+    private final int maxVerticalSampling;
+    private final int[][] quantizationTables;
+    private final int[] tableSelectors;
+    private final float[][] divisors;
+    private HuffmanTable[] dcTables;
+    private HuffmanTable[] acTables;
+    private final int mcusPerRow;
+    private final int mcuRows;
+    private final int intervalMcuRows;
+    private final int threads;
+    private final JpegAutorotateCancellation cancellation;
+    private ExecutorService executor;
+    private int intervalsWritten;
+
+    /**
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @param colorModel
+     *              {@code ColorModel} of the image, with 1 (gray) or 3 (RGB or YCbCr) color components.
+     * @param threads
+     *              Number of threads used to encode restart intervals.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every MCU row.
+     * @throws JpegAutorotateException
+     *              In the event the {@code colorModel} is not supported.
+     */
+    protected JpegImageEncoder(final int width, final int height, final ColorModel colorModel, final int threads,
+                               final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        this(width, height, colorModel, null, threads, cancellation);
+    }
+
+    /**
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @param colorModel
+     *              {@code ColorModel} of the image, with 1 (gray) or 3 (RGB or YCbCr) color components.
+     * @param frame
+     *              {@code JpegImageFrame} with the quantization tables and sampling factors of each component,
+     *              or {@code null} for the defaults.
+     * @param threads
+     *              Number of threads used to encode restart intervals.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every MCU row.
+     * @throws JpegAutorotateException
+     *              In the event the {@code colorModel} or {@code frame} is not supported.
+     */
+    protected JpegImageEncoder(final int width, final int height, final ColorModel colorModel, JpegImageFrame frame, final int threads,
+                               final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        if (colorModel instanceof IndexColorModel) {
+            throw new JpegAutorotateException("JPEG image with an indexed color model is unable to be encoded.");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.components = colorModel.getNumColorComponents();
+        this.threads = threads;
+        this.cancellation = cancellation;
+
+        if (this.components != 1 && this.components != 3) {
+            throw new JpegAutorotateException("JPEG image with " + this.components + " color components is unable to be encoded.");
+        }
+
+        this.convertToYCbCr = this.components == 3 && colorModel.getColorSpace().getType() != ColorSpace.TYPE_YCbCr;
+        this.iccProfile = getEmbeddableProfile(colorModel.getColorSpace());
+
+        if (frame == null) {
+            frame = JpegImageFrame.getDefault(this.components);
+        } else if (frame.getComponents() != this.components) {
+            throw new JpegAutorotateException("JPEG image frame with " + frame.getComponents() + " components is unable to be encoded.");
+        }
+
+        this.quantizationTables = frame.getQuantizationTables();
+        this.tableSelectors = new int[this.components];
+        this.horizontalSampling = new int[this.components];
+        this.verticalSampling = new int[this.components];
+        for (int c = 0; c < this.components; c++) {
+            this.tableSelectors[c] = frame.getTableSelector(c);
+            this.horizontalSampling[c] = frame.getHorizontalSampling(c);
+            this.verticalSampling[c] = frame.getVerticalSampling(c);
+        }
+
+        if (this.components == 1) {
+            this.dcTables = new HuffmanTable[] {new HuffmanTable(JPEGHuffmanTable.StdDCLuminance)};
+            this.acTables = new HuffmanTable[] {new HuffmanTable(JPEGHuffmanTable.StdACLuminance)};
+        } else {
+            this.dcTables = new HuffmanTable[] {new HuffmanTable(JPEGHuffmanTable.StdDCLuminance), new HuffmanTable(JPEGHuffmanTable.StdDCChrominance)};
+            this.acTables = new HuffmanTable[] {new HuffmanTable(JPEGHuffmanTable.StdACLuminance), new HuffmanTable(JPEGHuffmanTable.StdACChrominance)};
+        }
+
+        this.maxHorizontalSampling = max(this.horizontalSampling);
+        this.maxVerticalSampling = max(this.verticalSampling);
+        this.mcusPerRow = (this.width + 8 * this.maxHorizontalSampling - 1) / (8 * this.maxHorizontalSampling);
+        this.mcuRows = (this.height + 8 * this.maxVerticalSampling - 1) / (8 * this.maxVerticalSampling);
+        this.intervalMcuRows = getIntervalMcuRows();
+
+        this.divisors = new float[this.quantizationTables.length][];
+        for (int i = 0; i < this.quantizationTables.length; i++) {
+            this.divisors[i] = createDivisors(this.quantizationTables[i]);
+        }
+    }
+
+    /**
+     * Determines if images of a {@code ColorModel} can be encoded, i.e. have 1 (gray) or 3 (RGB or YCbCr)
+     * color components and are not indexed.
+     *
+     * @param colorModel
+     *              {@code ColorModel} of the image.
+     * @return {@code true} if the image can be encoded.
+     */
+    protected static boolean isSupported(final ColorModel colorModel) {
+        int components = colorModel.getNumColorComponents();
+
+        return !(colorModel instanceof IndexColorModel) && (components == 1 || components == 3);
+    }
+
+    /**
+     * Attempts to encode a {@code BufferedImage} to a {@code byte[]}.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data, with 1 (gray) or 3 (RGB) color components.
+     * @param threads
+     *              Number of threads used to encode restart intervals.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the image is unable to be encoded.
+     */
+    protected static byte[] encode(final BufferedImage image, final int threads) throws JpegAutorotateException {
+        return encode(image, threads, new JpegAutorotateCancellation());
+    }
+
+    /**
+     * Attempts to encode a {@code BufferedImage} to a {@code byte[]}, abandoning the encoding once
+     * {@code cancellation} is cancelled.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data, with 1 (gray) or 3 (RGB) color components.
+     * @param threads
+     *              Number of threads used to encode restart intervals.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every MCU row.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the image is unable to be encoded, or the encoding is cancelled.
+     */
+    protected static byte[] encode(final BufferedImage image, final int threads, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        return encode(image, null, threads, false, cancellation);
+    }
+
+    /**
+     * Attempts to encode a {@code BufferedImage} to a {@code byte[]}, abandoning the encoding once
+     * {@code cancellation} is cancelled.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data, with 1 (gray) or 3 (RGB) color components.
+     * @param frame
+     *              {@code JpegImageFrame} with the quantization tables and sampling factors of each component,
+     *              or {@code null} for the defaults.
+     * @param threads
+     *              Number of threads used to encode restart intervals.
+     * @param optimizeHuffmanTables
+     *              {@code true} to code the image with Huffman tables computed from its symbols, see
+     *              {@link #optimizeHuffmanTables(Raster)}.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every MCU row.
+     * @return If successful, a {@code byte[]} containing JPEG image data.
+     * @throws JpegAutorotateException
+     *              In the event the image is unable to be encoded, or the encoding is cancelled.
+     */
+    protected static byte[] encode(final BufferedImage image, final JpegImageFrame frame, final int threads, final boolean optimizeHuffmanTables,
+                                   final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        try (JpegImageEncoder encoder = new JpegImageEncoder(image.getWidth(), image.getHeight(), image.getColorModel(), frame, threads, cancellation);
+             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            if (optimizeHuffmanTables) {
+                encoder.optimizeHuffmanTables(image.getRaster());
+            }
+
+            encoder.writeHeaders(baos, null);
+            encoder.writeRows(baos, image.getRaster(), 0);
+            encoder.writeEnd(baos);
+
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to encode JPEG image.", e);
+        }
+    }
+
+    /**
+     * Number of image rows in a restart interval. Rows passed to
+     * {@link #writeRows(OutputStream, Raster, int)} must start on a multiple of it.
+     *
+     * @return Number of image rows in a restart interval.
+     */
+    protected int getIntervalRows() {
+        return this.intervalMcuRows * 8 * this.maxVerticalSampling;
+    }
+
+    /**
+     * Replaces the Huffman tables with optimal tables for the image, built from the frequency of each symbol
+     * as described in ITU T.81 Annex K.2. Every restart interval is transformed and quantized to count its
+     * symbols, on as many threads as {@link #writeRows(OutputStream, Raster, int)} uses, so the image is
+     * transformed twice. Must be called before {@link #writeHeaders(OutputStream, byte[])}.
+     *
+     * @param raster
+     *              {@code Raster} containing every row of the image.
+     * @throws JpegAutorotateException
+     *              In the event the rows are unable to be transformed, or the encoding is cancelled.
+     */
+    protected void optimizeHuffmanTables(final Raster raster) throws JpegAutorotateException {
+        int intervals = (this.mcuRows + this.intervalMcuRows - 1) / this.intervalMcuRows;
+        long[][] frequencies = new long[2 * this.dcTables.length][257];
+        ExecutorService executor = getExecutor();
+        boolean counted = false;
+
+        try {
+            List<Future<long[][]>> futures = new ArrayList<>(intervals);
+            for (int interval = 0; interval < intervals; interval++) {
+                int first = interval * this.intervalMcuRows;
+                int last = Math.min(first + this.intervalMcuRows, this.mcuRows);
+                futures.add(executor.submit(() -> {
+                    SymbolCounter counter = new SymbolCounter(this.dcTables.length);
+                    encodeBand(raster, 0, first, last, counter);
+                    return counter.frequencies;
+                }));
+            }
+
+            for (Future<long[][]> future : futures) {
+                long[][] interval = getResult(future);
+                for (int i = 0; i < frequencies.length; i++) {
+                    for (int symbol = 0; symbol < 256; symbol++) {
+                        frequencies[i][symbol] += interval[i][symbol];
+                    }
+                }
+            }
+
+            counted = true;
+        } finally {
+            if (!counted) {
+                close();
+            }
+        }
+
+        for (int i = 0; i < this.dcTables.length; i++) {
+            this.dcTables[i] = new HuffmanTable(createOptimalTable(frequencies[2 * i]));
+            this.acTables[i] = new HuffmanTable(createOptimalTable(frequencies[2 * i + 1]));
+        }
+    }
+
+    /**
+     * Attempts to write the markers preceding the entropy coded data: {@code SOI}, {@code APP0} (JFIF),
+     * {@code APP2} (ICC profile, if any), additional application segments, {@code DQT}, {@code SOF0},
+     * {@code DHT}, {@code DRI} (if restarts are used) and {@code SOS}.
+     *
+     * @param os
+     *              {@code OutputStream} receiving the JPEG image data.
+     * @param applicationSegments
+     *              Complete application segments to write after {@code APP0}, may be null.
+     * @throws IOException
+     *              In the event the {@code os} is unable to be written.
+     */
+    protected void writeHeaders(final OutputStream os, final byte[] applicationSegments) throws IOException {
+        writeMarker(os, MARKER_SOI);
+
+        writeMarker(os, MARKER_APP0);
+        writeShort(os, 16);
+        os.write("JFIF\0".getBytes(StandardCharsets.US_ASCII));
+        os.write(new byte[] {1, 2, 0, 0, 1, 0, 1, 0, 0});
+
+        if (applicationSegments != null) {
+            os.write(applicationSegments);
+        }
+
+        if (this.iccProfile != null) {
+            writeIccProfile(os, this.iccProfile.getData());
+        }
+
+        writeMarker(os, MARKER_DQT);
+        writeShort(os, 2 + 65 * this.quantizationTables.length);
+        for (int i = 0; i < this.quantizationTables.length; i++) {
+            os.write(i);
+            for (int k = 0; k < 64; k++) {
+                os.write(this.quantizationTables[i][ZIGZAG[k]]);
+            }
+        }
+
+        writeMarker(os, MARKER_SOF0);
+        writeShort(os, 8 + 3 * this.components);
+        os.write(8);
+        writeShort(os, this.height);
+        writeShort(os, this.width);
+        os.write(this.components);
+        for (int c = 0; c < this.components; c++) {
+            os.write(c + 1);
+            os.write((this.horizontalSampling[c] << 4) | this.verticalSampling[c]);
+            os.write(this.tableSelectors[c]);
+        }
+
+        int length = 2;
+        for (int i = 0; i < this.dcTables.length; i++) {
+            length += 2 * 17 + this.dcTables[i].values.length + this.acTables[i].values.length;
+        }
+        writeMarker(os, MARKER_DHT);
+        writeShort(os, length);
+        for (int i = 0; i < this.dcTables.length; i++) {
+            this.dcTables[i].writeDefinition(os, i);
+            this.acTables[i].writeDefinition(os, 0x10 | i);
+        }
+
+        if (this.intervalMcuRows < this.mcuRows) {
+            writeMarker(os, MARKER_DRI);
+            writeShort(os, 4);
+            writeShort(os, this.intervalMcuRows * this.mcusPerRow);
+        }
+
+        writeMarker(os, MARKER_SOS);
+        writeShort(os, 6 + 2 * this.components);
+        os.write(this.components);
+        for (int c = 0; c < this.components; c++) {
+            int table = Math.min(c, this.dcTables.length - 1);
+            os.write(c + 1);
+            os.write((table << 4) | table);
+        }
+        os.write(0);
+        os.write(63);
+        os.write(0);
+    }
+
+    /**
+     * Attempts to encode and write rows of the image, each restart interval on its own thread.
+     *
+     * @param os
+     *              {@code OutputStream} receiving the JPEG image data.
+     * @param raster
+     *              {@code Raster} containing the rows, in image row order.
+     * @param firstRow
+     *              Image row of the first {@code raster} row, a multiple of {@link #getIntervalRows()}.
+     * @throws JpegAutorotateException
+     *              In the event the rows are unable to be encoded or written, or the encoding is cancelled.
+     */
+    protected void writeRows(final OutputStream os, final Raster raster, final int firstRow) throws JpegAutorotateException {
+        int mcuHeight = 8 * this.maxVerticalSampling;
+        int firstMcuRow = firstRow / mcuHeight;
+        int lastMcuRow = Math.min((firstRow + raster.getHeight() + mcuHeight - 1) / mcuHeight, this.mcuRows);
+        int intervals = (lastMcuRow - firstMcuRow + this.intervalMcuRows - 1) / this.intervalMcuRows;
+
+        if (firstRow % getIntervalRows() != 0) {
+            throw new IllegalArgumentException("Rows must start on a restart interval.");
+        }
+
+        ExecutorService executor = getExecutor();
+        boolean written = false;
+
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>(intervals);
+            for (int interval = 0; interval < intervals; interval++) {
+                int first = firstMcuRow + interval * this.intervalMcuRows;
+                int last = Math.min(first + this.intervalMcuRows, lastMcuRow);
+                futures.add(executor.submit(() -> {
+                    HuffmanWriter writer = new HuffmanWriter(this.dcTables, this.acTables);
+                    encodeBand(raster, firstRow, first, last, writer);
+                    return writer.toByteArray();
+                }));
+            }
+
+            for (Future<byte[]> future : futures) {
+                byte[] band = getResult(future);
+                if (this.intervalsWritten > 0) {
+                    writeMarker(os, MARKER_RST0 + ((this.intervalsWritten - 1) & 7));
+                }
+                os.write(band);
+                this.intervalsWritten++;
+            }
+
+            written = true;
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to encode JPEG image.", e);
+        } finally {
+            if (!written) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Creates the thread pool on the first pass, with no more threads than the image has restart intervals.
+     */
+    private ExecutorService getExecutor() {
+        if (this.executor == null) {
+            int intervals = (this.mcuRows + this.intervalMcuRows - 1) / this.intervalMcuRows;
+
+            this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, intervals)), runnable -> {
+                Thread thread = new Thread(runnable, "jpeg-autorotate-encoder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return this.executor;
+    }
+
+    /**
+     * Shuts the thread pool down, discarding the intervals not started yet and waiting for those being encoded,
+     * so that no task reads the raster once the caller returns, and its buffer may be released to the pool or freed.
+     * Called when a pass fails or is cancelled, by {@link #writeEnd(OutputStream)}, and by the owner of an encoder
+     * that is abandoned before its end is written.
+     */
+    @Override
+    public void close() {
+        if (this.executor == null) {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        this.executor.shutdownNow();
+        while (true) {
+            try {
+                if (this.executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        this.executor = null;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a restart interval encoded on another thread.
+     */
+    private static <T> T getResult(final Future<T> future) throws JpegAutorotateException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JpegAutorotateException) {
+                throw (JpegAutorotateException) e.getCause();
+            }
+
+            throw new JpegAutorotateException("Unable to encode JPEG image.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JpegAutorotateException("Interrupted while encoding JPEG image.", e);
+        }
+    }
+
+    /**
+     * Attempts to write the {@code EOI} marker, and shuts the thread pool down.
+     *
+     * @param os
+     *              {@code OutputStream} receiving the JPEG image data.
+     * @throws IOException
+     *              In the event the {@code os} is unable to be written.
+     */
+    protected void writeEnd(final OutputStream os) throws IOException {
+        close();
+        writeMarker(os, MARKER_EOI);
+    }
+
+    /**
+     * Determines the number of MCU rows per restart interval, enough for each thread to take
+     * several intervals while keeping the restart interval within 16 bits.
+     */
+    private int getIntervalMcuRows() {
+        int rows = (this.mcuRows + this.threads * MIN_INTERVALS_PER_THREAD - 1) / (this.threads * MIN_INTERVALS_PER_THREAD);
+
+        return Math.max(1, Math.min(Math.min(rows, MAX_INTERVAL_MCU_ROWS), 0xFFFF / this.mcusPerRow));
+    }
+
+    /**
+     * Encodes a band of MCU rows, passing the symbols of every block to {@code coder}.
+     *
+     * @param raster
+     *              {@code Raster} containing the rows of the band.
+     * @param firstRow
+     *              Image row of the first {@code raster} row.
+     * @param firstMcuRow
+     *              First MCU row of the band.
+     * @param lastMcuRow
+     *              MCU row following the band.
+     * @param coder
+     *              {@code EntropyCoder} receiving the symbols of the band.
+     * @throws JpegAutorotateException
+     *              In the event the encoding is cancelled.
+     */
+    private void encodeBand(final Raster raster, final int firstRow, final int firstMcuRow, final int lastMcuRow, final EntropyCoder coder) throws JpegAutorotateException {
+        int mcuWidth = 8 * this.maxHorizontalSampling;
+        int mcuHeight = 8 * this.maxVerticalSampling;
+        int paddedWidth = this.mcusPerRow * mcuWidth;
+
+        int[] pixels = new int[this.width * raster.getNumBands()];
+        float[][] samples = new float[this.components][paddedWidth * mcuHeight];
+        float[][] planes = new float[this.components][];
+        for (int c = 0; c < this.components; c++) {
+            planes[c] = isSubsampled(c) ? new float[this.mcusPerRow * 8 * this.horizontalSampling[c] * 8 * this.verticalSampling[c]] : samples[c];
+        }
+
+        float[] block = new float[64];
+        int[] lastDc = new int[this.components];
+
+        for (int mcuRow = firstMcuRow; mcuRow < lastMcuRow; mcuRow++) {
+            this.cancellation.throwIfCancelled();
+            if (Thread.currentThread().isInterrupted()) {
+                // Another interval failed; stop promptly so the raster can be released.
+                throw new JpegAutorotateCancelledException("JPEG image encoding was abandoned.");
+            }
+
+            readSamples(raster, mcuRow * mcuHeight - firstRow, mcuHeight, paddedWidth, pixels, samples);
+            for (int c = 0; c < this.components; c++) {
+                if (isSubsampled(c)) {
+                    downsample(samples[c], paddedWidth, mcuHeight, planes[c], this.maxHorizontalSampling / this.horizontalSampling[c], this.maxVerticalSampling / this.verticalSampling[c]);
+                }
+            }
+
+            for (int mcu = 0; mcu < this.mcusPerRow; mcu++) {
+                for (int c = 0; c < this.components; c++) {
+                    int planeWidth = this.mcusPerRow * 8 * this.horizontalSampling[c];
+                    int quantizationTable = this.tableSelectors[c];
+                    int table = Math.min(c, this.dcTables.length - 1);
+
+                    for (int v = 0; v < this.verticalSampling[c]; v++) {
+                        for (int h = 0; h < this.horizontalSampling[c]; h++) {
+                            int x = (mcu * this.horizontalSampling[c] + h) * 8;
+                            for (int i = 0; i < 8; i++) {
+                                System.arraycopy(planes[c], (v * 8 + i) * planeWidth + x, block, i * 8, 8);
+                            }
+                            lastDc[c] = encodeBlock(block, quantizationTable, table, lastDc[c], coder);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isSubsampled(final int component) {
+        return this.horizontalSampling[component] != this.maxHorizontalSampling || this.verticalSampling[component] != this.maxVerticalSampling;
+    }
+
+    /**
+     * Reads and color converts rows of the image, replicating the last column and row into the MCU padding.
+     */
+    private void readSamples(final Raster raster, final int firstRow, final int rows, final int paddedWidth, final int[] pixels, final float[][] samples) {
+        int bands = raster.getNumBands();
+
+        for (int r = 0; r < rows; r++) {
+            int y = Math.min(firstRow + r, raster.getHeight() - 1);
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, this.width, 1, pixels);
+
+            int offset = r * paddedWidth;
+            for (int x = 0; x < paddedWidth; x++) {
+                int index = Math.min(x, this.width - 1) * bands;
+
+                if (this.convertToYCbCr) {
+                    float red = pixels[index];
+                    float green = pixels[index + 1];
+                    float blue = pixels[index + 2];
+
+                    samples[0][offset + x] = 0.299f * red + 0.587f * green + 0.114f * blue;
+                    samples[1][offset + x] = -0.168736f * red - 0.331264f * green + 0.5f * blue + 128f;
+                    samples[2][offset + x] = 0.5f * red - 0.418688f * green - 0.081312f * blue + 128f;
+                } else {
+                    for (int c = 0; c < this.components; c++) {
+                        samples[c][offset + x] = pixels[index + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Averages blocks of {@code factorX} by {@code factorY} samples.
+     */
+    private static void downsample(final float[] source, final int sourceWidth, final int sourceHeight, final float[] target, final int factorX, final int factorY) {
+        int targetWidth = sourceWidth / factorX;
+        int targetHeight = sourceHeight / factorY;
+        float scale = 1f / (factorX * factorY);
+
+        for (int y = 0; y < targetHeight; y++) {
+            for (int x = 0; x < targetWidth; x++) {
+                float sum = 0;
+                for (int j = 0; j < factorY; j++) {
+                    int offset = (y * factorY + j) * sourceWidth + x * factorX;
+                    for (int i = 0; i < factorX; i++) {
+                        sum += source[offset + i];
+                    }
+                }
+                target[y * targetWidth + x] = sum * scale;
+            }
+        }
+    }
+
+    /**
+     * Transforms, quantizes and entropy codes an 8x8 block of samples.
+     *
+     * @return The quantized DC coefficient of the block.
+     */
+    private int encodeBlock(final float[] block, final int quantizationTable, final int table, final int lastDc, final EntropyCoder coder) {
+        for (int i = 0; i < 64; i++) {
+            block[i] -= 128f;
+        }
+        forwardDct(block);
+
+        float[] divisor = this.divisors[quantizationTable];
+        int dc = Math.round(block[0] * divisor[0]);
+        int diff = dc - lastDc;
+        int size = bitLength(diff);
+        coder.writeDc(table, size, diff < 0 ? diff - 1 : diff);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int natural = ZIGZAG[k];
+            int coefficient = Math.round(block[natural] * divisor[natural]);
+
+            if (coefficient == 0) {
+                run++;
+                continue;
+            }
+
+            while (run > 15) {
+                coder.writeAc(table, 0xF0, 0, 0);
+                run -= 16;
+            }
+
+            size = bitLength(coefficient);
+            coder.writeAc(table, (run << 4) | size, size, coefficient < 0 ? coefficient - 1 : coefficient);
+            run = 0;
+        }
+
+        if (run > 0) {
+            coder.writeAc(table, 0x00, 0, 0);
+        }
+
+        return dc;
+    }
+
+    /**
+     * Number of bits needed to represent the magnitude of {@code value}.
+     */
+    private static int bitLength(final int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Builds the reciprocal divisors for a quantization table, including the AA&amp;N output scaling.
+     */
+    private static float[] createDivisors(final int[] table) {
+        float[] divisors = new float[64];
+
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                divisors[row * 8 + col] = (float) (1.0 / (table[row * 8 + col] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0));
+            }
+        }
+
+        return divisors;
+    }
+
+    /**
+     * Builds the Huffman table with the shortest code for symbol frequencies, with code lengths limited to
+     * 16 bits and no code of all one bits, following the procedure of ITU T.81 Annex K.2.
+     *
+     * @param frequencies
+     *              Number of occurrences of each of the 256 symbols, with room for a 257th reserved symbol.
+     * @return A {@code JPEGHuffmanTable} coding every symbol that occurs.
+     */
+    private static JPEGHuffmanTable createOptimalTable(final long[] frequencies) {
+        long[] freq = frequencies.clone();
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        Arrays.fill(others, -1);
+
+        // The reserved symbol guarantees no real symbol is given a code of all one bits.
+        freq[256] = 1;
+
+        while (true) {
+            int c1 = -1;
+            int c2 = -1;
+            long v1 = Long.MAX_VALUE;
+            long v2 = Long.MAX_VALUE;
+
+            // Find the two least frequent symbols, preferring the larger symbol on ties.
+            for (int i = 0; i <= 256; i++) {
+                if (freq[i] != 0 && freq[i] <= v1) {
+                    v2 = v1;
+                    c2 = c1;
+                    v1 = freq[i];
+                    c1 = i;
+                } else if (freq[i] != 0 && freq[i] <= v2) {
+                    v2 = freq[i];
+                    c2 = i;
+                }
+            }
+
+            if (c2 < 0) {
+                break;
+            }
+
+            freq[c1] += freq[c2];
+            freq[c2] = 0;
+
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+
+        int[] bits = new int[33];
+        for (int i = 0; i <= 256; i++) {
+            bits[codeSize[i]]++;
+        }
+        bits[0] = 0;
+
+        // Shorten codes longer than 16 bits, moving pairs of them up the tree.
+        for (int i = 32; i > 16; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0) {
+                    j--;
+                }
+
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+
+        // Remove the reserved symbol, which has the longest code.
+        int longest = 16;
+        while (bits[longest] == 0) {
+            longest--;
+        }
+        bits[longest]--;
+
+        short[] lengths = new short[16];
+        int count = 0;
+        for (int i = 1; i <= 16; i++) {
+            lengths[i - 1] = (short) bits[i];
+            count += bits[i];
+        }
+
+        short[] values = new short[count];
+        int k = 0;
+        for (int size = 1; size <= 32 && k < count; size++) {
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (codeSize[symbol] == size) {
+                    values[k++] = (short) symbol;
+                }
+            }
+        }
+
+        return new JPEGHuffmanTable(lengths, values);
+    }
+
+    /**
+     * In-place AA&amp;N floating point forward DCT of an 8x8 block, as in the IJG {@code jfdctflt.c}.
+     * Output is scaled by the AA&amp;N factors, which {@link #createDivisors(int[])} compensates.
+     */
+    private static void forwardDct(final float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+
+            for (int line = 0; line < 8; line++) {
+                int o = line * next;
+
+                float tmp0 = data[o] + data[o + 7 * step];
+                float tmp7 = data[o] - data[o + 7 * step];
+                float tmp1 = data[o + step] + data[o + 6 * step];
+                float tmp6 = data[o + step] - data[o + 6 * step];
+                float tmp2 = data[o + 2 * step] + data[o + 5 * step];
+                float tmp5 = data[o + 2 * step] - data[o + 5 * step];
+                float tmp3 = data[o + 3 * step] + data[o + 4 * step];
+                float tmp4 = data[o + 3 * step] - data[o + 4 * step];
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                data[o] = tmp10 + tmp11;
+                data[o + 4 * step] = tmp10 - tmp11;
+
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[o + 2 * step] = tmp13 + z1;
+                data[o + 6 * step] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                data[o + 5 * step] = z13 + z2;
+                data[o + 3 * step] = z13 - z2;
+                data[o + step] = z11 + z4;
+                data[o + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    /**
+     * Writes an {@code ICC_PROFILE} in as many {@code APP2} segments as needed.
+     */
+    private static void writeIccProfile(final OutputStream os, final byte[] profile) throws IOException {
+        int chunks = (profile.length + MAX_ICC_CHUNK - 1) / MAX_ICC_CHUNK;
+
+        for (int i = 0; i < chunks; i++) {
+            int offset = i * MAX_ICC_CHUNK;
+            int length = Math.min(MAX_ICC_CHUNK, profile.length - offset);
+
+            writeMarker(os, MARKER_APP2);
+            writeShort(os, 2 + 12 + 2 + length);
+            os.write("ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII));
+            os.write(i + 1);
+            os.write(chunks);
+            os.write(profile, offset, length);
+        }
+    }
+
+    /**
+     * Determines if the color space profile has to be embedded, which is the case
+     * for any ICC profile other than the JFIF default color spaces.
+     */
+    private static ICC_Profile getEmbeddableProfile(final ColorSpace colorSpace) {
+        if (!(colorSpace instanceof ICC_ColorSpace) || colorSpace.isCS_sRGB() || colorSpace == ColorSpace.getInstance(ColorSpace.CS_GRAY)) {
+            return null;
+        }
+
+        return ((ICC_ColorSpace) colorSpace).getProfile();
+    }
+
+    private static void writeMarker(final OutputStream os, final int marker) throws IOException {
+        writeShort(os, marker);
+    }
+
+    private static void writeShort(final OutputStream os, final int value) throws IOException {
+        os.write((value >> 8) & 0xFF);
+        os.write(value & 0xFF);
+    }
+
+    private static int max(final int[] values) {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+
+        return max;
+    }
+
+    /**
+     * Huffman code lookup for encoding, built as described in ITU T.81 Annex C.
+     */
+    private static final class HuffmanTable {
+
+        private final short[] lengths;
+        private final short[] values;
+        private final int[] codes = new int[256];
+        private final int[] sizes = new int[256];
+
+        private HuffmanTable(final JPEGHuffmanTable table) {
+            this.lengths = table.getLengths();
+            this.values = table.getValues();
+
+            int code = 0;
+            int k = 0;
+            for (int size = 1; size <= 16; size++) {
+                for (int i = 0; i < this.lengths[size - 1]; i++) {
+                    int value = this.values[k++] & 0xFF;
+                    this.codes[value] = code++;
+                    this.sizes[value] = size;
+                }
+                code <<= 1;
+            }
+        }
+
+        private void write(final BitWriter writer, final int symbol) {
+            writer.write(this.codes[symbol], this.sizes[symbol]);
+        }
+
+        private void writeDefinition(final OutputStream os, final int classAndId) throws IOException {
+            os.write(classAndId);
+            for (short length : this.lengths) {
+                os.write(length);
+            }
+            for (short value : this.values) {
+                os.write(value);
+            }
+        }
+
+    }
+
+    /**
+     * Receives the symbols of quantized blocks, with the additional bits following each symbol.
+     */
+    private interface EntropyCoder {
+
+        void writeDc(int table, int size, int bits);
+
+        void writeAc(int table, int symbol, int size, int bits);
+
+    }
+
+    /**
+     * Huffman codes the symbols of a restart interval, padded to a byte boundary once complete.
+     */
+    private static final class HuffmanWriter implements EntropyCoder {
+
+        private final HuffmanTable[] dcTables;
+        private final HuffmanTable[] acTables;
+        private final BitWriter writer = new BitWriter(new ByteArrayOutputStream());
+
+        private HuffmanWriter(final HuffmanTable[] dcTables, final HuffmanTable[] acTables) {
+            this.dcTables = dcTables;
+            this.acTables = acTables;
+        }
+
+        @Override
+        public void writeDc(final int table, final int size, final int bits) {
+            this.dcTables[table].write(this.writer, size);
+            this.writer.write(bits, size);
+        }
+
+        @Override
+        public void writeAc(final int table, final int symbol, final int size, final int bits) {
+            this.acTables[table].write(this.writer, symbol);
+            this.writer.write(bits, size);
+        }
+
+        private byte[] toByteArray() {
+            this.writer.flush();
+            return this.writer.toByteArray();
+        }
+
+    }
+
+    /**
+     * Counts the symbols of a restart interval, for each DC table followed by its AC table.
+     */
+    private static final class SymbolCounter implements EntropyCoder {
+
+        private final long[][] frequencies;
+
+        private SymbolCounter(final int tables) {
+            this.frequencies = new long[2 * tables][257];
+        }
+
+        @Override
+        public void writeDc(final int table, final int size, final int bits) {
+            this.frequencies[2 * table][size]++;
+        }
+
+        @Override
+        public void writeAc(final int table, final int symbol, final int size, final int bits) {
+            this.frequencies[2 * table + 1][symbol]++;
+        }
+
+    }
+
+    /**
+     * Writes entropy coded bits, stuffing a zero byte after every {@code 0xFF}.
+     */
+    private static final class BitWriter {
+
+        private final ByteArrayOutputStream baos;
+        private int buffer;
+        private int count;
+
+        private BitWriter(final ByteArrayOutputStream baos) {
+            this.baos = baos;
+        }
+
+        private void write(final int bits, final int size) {
+            if (size == 0) {
+                return;
+            }
+
+            this.buffer = (this.buffer << size) | (bits & ((1 << size) - 1));
+            this.count += size;
+
+            while (this.count >= 8) {
+                int b = (this.buffer >> (this.count - 8)) & 0xFF;
+                this.baos.write(b);
+                if (b == 0xFF) {
+                    this.baos.write(0);
+                }
+                this.count -= 8;
+            }
+
+            this.buffer &= (1 << this.count) - 1;
+        }
+
+        /**
+         * Pads the last byte with one bits.
+         */
+        private void flush() {
+            if (this.count > 0) {
+                write((1 << (8 - this.count)) - 1, 8 - this.count);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return this.baos.toByteArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+
+import java.util.Arrays;
+
+/**
+ * Patches the EXIF {@code APP1} segment of a JPEG image file in place.
+ * <p>
+ * Only fixed size values change once an image is upright: {@code Orientation}, {@code ExifImageWidth/Height},
+ * {@code RelatedImageWidth/Height} and the {@code ExifThumbnail}. Overwriting them in the original TIFF structure
+ * keeps every other entry, maker notes and offsets intact, and avoids serializing and re-parsing the whole
+ * EXIF block. Segments which cannot be patched, e.g. a tag of unexpected type or a grown thumbnail in the
+ * middle of the segment, are left to the {@code TiffOutputSet} based rewrite.
+ * </p>
+ */
+final class JpegImageExifPatcher {
+
+    private static final int TIFF_OFFSET = 10;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF + 2;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final int TAG_EXIF_OFFSET = ExifTagConstants.EXIF_TAG_EXIF_OFFSET.tag;
+    private static final int TAG_INTEROP_OFFSET = ExifTagConstants.EXIF_TAG_INTEROP_OFFSET.tag;
+    private static final int TAG_ORIENTATION = TiffTagConstants.TIFF_TAG_ORIENTATION.tag;
+    private static final int TAG_EXIF_IMAGE_WIDTH = ExifTagConstants.EXIF_TAG_EXIF_IMAGE_WIDTH.tag;
+    private static final int TAG_EXIF_IMAGE_LENGTH = ExifTagConstants.EXIF_TAG_EXIF_IMAGE_LENGTH.tag;
+    private static final int TAG_RELATED_IMAGE_WIDTH = 0x1001;
+    private static final int TAG_RELATED_IMAGE_LENGTH = 0x1002;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = TiffTagConstants.TIFF_TAG_JPEG_INTERCHANGE_FORMAT.tag;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = TiffTagConstants.TIFF_TAG_JPEG_INTERCHANGE_FORMAT_LENGTH.tag;
+
+    private final byte[] segment;
+    private final boolean bigEndian;
+
+    private JpegImageExifPatcher(final byte[] segment) {
+        this.segment = segment;
+        this.bigEndian = segment[TIFF_OFFSET] == 'M';
+    }
+
+    /**
+     * Attempts to patch an EXIF {@code APP1} segment for the upright image.
+     *
+     * @param segment
+     *              {@code byte[]} containing the complete EXIF {@code APP1} segment, marker and length included.
+     * @param width
+     *              Upright {@code ExifImageWidth}, or a negative value to leave dimensions unchanged.
+     * @param height
+     *              Upright {@code ExifImageHeight}, or a negative value to leave dimensions unchanged.
+     * @param thumbnail
+     *              {@code byte[]} containing the upright {@code ExifThumbnail}, or {@code null} to leave it unchanged.
+     * @return If successful, a {@code byte[]} containing the patched segment; otherwise {@code null}.
+     */
+    protected static byte[] patch(final byte[] segment, final int width, final int height, final byte[] thumbnail) {
+        if (segment.length < TIFF_OFFSET + 8 || (segment[TIFF_OFFSET] != 'M' && segment[TIFF_OFFSET] != 'I')) {
+            return null;
+        }
+
+        try {
+            return new JpegImageExifPatcher(segment.clone()).patch(width, height, thumbnail);
+        } catch (IndexOutOfBoundsException e) {
+            // Offsets pointing outside of the segment
+            return null;
+        }
+    }
+
+    private byte[] patch(final int width, final int height, final byte[] thumbnail) {
+        int ifd0 = readLong(TIFF_OFFSET + 4);
+
+        if (!setValue(ifd0, TAG_ORIENTATION, TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL)) {
+            return null;
+        }
+
+        if (width >= 0 && height >= 0) {
+            int exif = getValue(ifd0, TAG_EXIF_OFFSET);
+            if (exif < 0 || !setValue(exif, TAG_EXIF_IMAGE_WIDTH, width) || !setValue(exif, TAG_EXIF_IMAGE_LENGTH, height)) {
+                return null;
+            }
+
+            int interop = getValue(exif, TAG_INTEROP_OFFSET);
+            if (interop >= 0) {
+                if (findEntry(interop, TAG_RELATED_IMAGE_WIDTH) >= 0 && !setValue(interop, TAG_RELATED_IMAGE_WIDTH, width)) {
+                    return null;
+                }
+                if (findEntry(interop, TAG_RELATED_IMAGE_LENGTH) >= 0 && !setValue(interop, TAG_RELATED_IMAGE_LENGTH, height)) {
+                    return null;
+                }
+            }
+        }
+
+        int ifd1 = readLong(TIFF_OFFSET + ifd0 + 2 + readShort(TIFF_OFFSET + ifd0) * 12);
+        if (ifd1 != 0 && findEntry(ifd1, TAG_ORIENTATION) >= 0 && !setValue(ifd1, TAG_ORIENTATION, TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL)) {
+            return null;
+        }
+
+        if (thumbnail == null) {
+            return this.segment;
+        }
+
+        return ifd1 == 0 ? null : replaceThumbnail(ifd1, thumbnail);
+    }
+
+    /**
+     * Replaces the {@code ExifThumbnail} data. A thumbnail no larger than the original overwrites it in place;
+     * a larger one is only accepted if the original ends the segment, but for a byte of word alignment padding,
+     * so no other offset moves.
+     */
+    private byte[] replaceThumbnail(final int ifd1, final byte[] thumbnail) {
+        int offset = getValue(ifd1, TAG_JPEG_INTERCHANGE_FORMAT);
+        int length = getValue(ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+
+        if (offset < 0 || length < 0 || TIFF_OFFSET + offset + length > this.segment.length) {
+            return null;
+        }
+
+        int start = TIFF_OFFSET + offset;
+        byte[] patched = this.segment;
+
+        if (thumbnail.length > length) {
+            if (this.segment.length - (start + length) > 1 || start + thumbnail.length > MAX_SEGMENT_LENGTH) {
+                return null;
+            }
+
+            patched = Arrays.copyOf(this.segment, start + thumbnail.length);
+            patched[2] = (byte) ((patched.length - 2) >> 8);
+            patched[3] = (byte) (patched.length - 2);
+        }
+
+        System.arraycopy(thumbnail, 0, patched, start, thumbnail.length);
+
+        return new JpegImageExifPatcher(patched).setValue(ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, thumbnail.length) ? patched : null;
+    }
+
+    /**
+     * Finds the entry of a tag within an IFD.
+     *
+     * @return Offset of the entry within the segment; otherwise -1.
+     */
+    private int findEntry(final int ifd, final int tag) {
+        int count = readShort(TIFF_OFFSET + ifd);
+
+        for (int i = 0; i < count; i++) {
+            int entry = TIFF_OFFSET + ifd + 2 + i * 12;
+            if (readShort(entry) == tag) {
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the single {@code SHORT} or {@code LONG} value of a tag.
+     *
+     * @return The value; otherwise -1 if the tag is missing or has another type or count.
+     */
+    private int getValue(final int ifd, final int tag) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0 || readLong(entry + 4) != 1) {
+            return -1;
+        }
+
+        switch (readShort(entry + 2)) {
+            case TYPE_SHORT:
+                return readShort(entry + 8);
+            case TYPE_LONG:
+                return readLong(entry + 8);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Overwrites the single {@code SHORT} or {@code LONG} value of a tag.
+     *
+     * @return {@code true} if the value was written; {@code false} if the tag is missing, has another
+     *         type or count, or the value does not fit.
+     */
+    private boolean setValue(final int ifd, final int tag, final int value) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0 || readLong(entry + 4) != 1) {
+            return false;
+        }
+
+        switch (readShort(entry + 2)) {
+            case TYPE_SHORT:
+                if (value > 0xFFFF) {
+                    return false;
+                }
+                writeShort(entry + 8, value);
+                return true;
+            case TYPE_LONG:
+                writeLong(entry + 8, value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int readShort(final int offset) {
+        int b0 = this.segment[offset] & 0xFF;
+        int b1 = this.segment[offset + 1] & 0xFF;
+
+        return this.bigEndian ? b0 << 8 | b1 : b1 << 8 | b0;
+    }
+
+    private int readLong(final int offset) {
+        int s0 = readShort(offset);
+        int s1 = readShort(offset + 2);
+
+        return this.bigEndian ? s0 << 16 | s1 : s1 << 16 | s0;
+    }
+
+    private void writeShort(final int offset, final int value) {
+        this.segment[offset + (this.bigEndian ? 0 : 1)] = (byte) (value >> 8);
+        this.segment[offset + (this.bigEndian ? 1 : 0)] = (byte) value;
+    }
+
+    private void writeLong(final int offset, final int value) {
+        writeShort(offset + (this.bigEndian ? 0 : 2), value >>> 16);
+        writeShort(offset + (this.bigEndian ? 2 : 0), value & 0xFFFF);
+    }
+
+}
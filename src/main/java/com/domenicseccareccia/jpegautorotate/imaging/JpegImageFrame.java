@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGQTable;
+import java.util.Arrays;
+
+/**
+ * Quantization tables and sampling factors of the components of a JPEG image, as written in its
+ * {@code DQT} and {@code SOF} segments.
+ * <p>
+ * Tables are held in natural (row major) order, limited to the 8 bit values of baseline JPEG.
+ * Each component selects one of the tables, and has horizontal and vertical sampling factors
+ * relative to the other components.
+ * </p>
+ */
+final class JpegImageFrame {
+
+    private static final String NATIVE_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final int[][] quantizationTables;
+    private final int[] tableSelectors;
+    private final int[] horizontalSampling;
+    private final int[] verticalSampling;
+
+    private JpegImageFrame(final int[][] quantizationTables, final int[] tableSelectors, final int[] horizontalSampling, final int[] verticalSampling) {
+        this.quantizationTables = quantizationTables;
+        this.tableSelectors = tableSelectors;
+        this.horizontalSampling = horizontalSampling;
+        this.verticalSampling = verticalSampling;
+    }
+
+    /**
+     * Creates the frame used by {@code ImageIO} by default: the ITU T.81 Annex K tables scaled to a quality
+     * of 75, with the luminance table for the first component and the chrominance table for the others,
+     * and 4:2:0 subsampling for 3 components.
+     *
+     * @param components
+     *              Number of color components.
+     * @return The default {@code JpegImageFrame}.
+     */
+    protected static JpegImageFrame getDefault(final int components) {
+        int[][] tables = components == 1
+                ? new int[][] {JPEGQTable.K1Div2Luminance.getTable()}
+                : new int[][] {JPEGQTable.K1Div2Luminance.getTable(), JPEGQTable.K2Div2Chrominance.getTable()};
+
+        return new JpegImageFrame(tables, getDefaultSelectors(components, tables.length), getDefaultSampling(components), getDefaultSampling(components));
+    }
+
+    /**
+     * Determines the frame to encode the upright image with, according to {@code options}.
+     * <p>
+     * With {@link JpegAutorotateOptions#isPreserveCompression()}, tables and sampling factors are those of the
+     * original image, with horizontal and vertical factors swapped and tables transposed if {@code orientation}
+     * is transposed, so each frequency keeps the step it was quantized with. Tables
+     * and subsampling set in {@code options} replace them. Sampling factors of the original image are dropped
+     * if it has another number of components, or factors that are not multiples of each other.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing the JPEG image file, at least up to its {@code SOS} segment.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param components
+     *              Number of color components of the encoded image.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the encoding.
+     * @return The {@code JpegImageFrame}, or {@code null} if {@code options} keep the encoder defaults.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static JpegImageFrame create(final byte[] bytes, final JpegImageOrientation orientation, final int components,
+                                           final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JPEGQTable[] tables = options.getQuantizationTables();
+        boolean subsampling = options.getHorizontalChromaSubsampling() > 0 && components == 3;
+
+        if (!options.isPreserveCompression() && tables == null && !subsampling) {
+            return null;
+        }
+
+        JpegImageFrame frame = getDefault(components);
+
+        if (options.isPreserveCompression()) {
+            JpegImageFrame original = read(bytes);
+
+            if (original != null && orientation.isTransposed()) {
+                // Horizontal frequencies of the original become vertical ones of the upright image
+                original = new JpegImageFrame(transpose(original.quantizationTables), original.tableSelectors, original.verticalSampling,
+                        original.horizontalSampling);
+            }
+
+            if (original != null && original.getComponents() == components && original.hasIntegralSampling()) {
+                frame = original;
+            } else if (original != null) {
+                frame = new JpegImageFrame(original.quantizationTables, getDefaultSelectors(components, original.quantizationTables.length),
+                        frame.horizontalSampling, frame.verticalSampling);
+            }
+        }
+
+        if (tables != null) {
+            int[][] values = new int[tables.length][];
+            for (int i = 0; i < tables.length; i++) {
+                values[i] = tables[i].getTable();
+            }
+            frame = new JpegImageFrame(values, getDefaultSelectors(components, values.length), frame.horizontalSampling, frame.verticalSampling);
+        }
+
+        if (subsampling) {
+            frame = new JpegImageFrame(frame.quantizationTables, frame.tableSelectors,
+                    new int[] {options.getHorizontalChromaSubsampling(), 1, 1}, new int[] {options.getVerticalChromaSubsampling(), 1, 1});
+        }
+
+        return frame;
+    }
+
+    /**
+     * Attempts to read the frame of a JPEG image file from its {@code DQT} and {@code SOF} segments.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file, at least up to its {@code SOS} segment.
+     * @return The {@code JpegImageFrame}, or {@code null} if the image has no 8 bit frame with every table defined.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static JpegImageFrame read(final byte[] bytes) throws JpegAutorotateException {
+        int[][] definedTables = new int[4][];
+
+        for (JpegImageSegments.Segment segment : JpegImageSegments.readSegments(bytes)) {
+            int marker = segment.getMarker();
+            int offset = segment.getDataOffset();
+            int end = segment.getOffset() + segment.getLength();
+
+            if (marker == JpegImageSegments.MARKER_DQT) {
+                while (offset < end) {
+                    int precision = (bytes[offset] & 0xFF) >> 4;
+                    int id = bytes[offset] & 0x0F;
+                    int size = precision == 0 ? 1 : 2;
+                    if (id > 3 || offset + 1 + 64 * size > end) {
+                        return null;
+                    }
+
+                    int[] table = new int[64];
+                    for (int k = 0; k < 64; k++) {
+                        int index = offset + 1 + k * size;
+                        int value = size == 1 ? bytes[index] & 0xFF : JpegImageSegments.readMarker(bytes, index);
+                        if (value == 0) {
+                            return null;
+                        }
+                        table[JpegImageEncoder.ZIGZAG[k]] = Math.min(value, 255);
+                    }
+
+                    definedTables[id] = table;
+                    offset += 1 + 64 * size;
+                }
+            } else if (isStartOfFrame(marker)) {
+                return readFrame(bytes, offset, end, definedTables);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the components of a {@code SOF} segment, renumbering the tables they select from 0.
+     */
+    private static JpegImageFrame readFrame(final byte[] bytes, final int offset, final int end, final int[][] definedTables) {
+        int components = offset + 6 <= end ? bytes[offset + 5] & 0xFF : 0;
+        if (components == 0 || (bytes[offset] & 0xFF) != 8 || offset + 6 + 3 * components > end) {
+            return null;
+        }
+
+        int[] horizontalSampling = new int[components];
+        int[] verticalSampling = new int[components];
+        int[] tableSelectors = new int[components];
+        int[] tableIds = new int[4];
+        int tables = 0;
+
+        Arrays.fill(tableIds, -1);
+        for (int c = 0; c < components; c++) {
+            int index = offset + 6 + 3 * c;
+            int id = bytes[index + 2] & 0xFF;
+
+            horizontalSampling[c] = (bytes[index + 1] & 0xFF) >> 4;
+            verticalSampling[c] = bytes[index + 1] & 0x0F;
+            if (id > 3 || definedTables[id] == null || horizontalSampling[c] < 1 || horizontalSampling[c] > 4
+                    || verticalSampling[c] < 1 || verticalSampling[c] > 4) {
+                return null;
+            }
+
+            if (tableIds[id] < 0) {
+                tableIds[id] = tables++;
+            }
+            tableSelectors[c] = tableIds[id];
+        }
+
+        int[][] quantizationTables = new int[tables][];
+        for (int id = 0; id < 4; id++) {
+            if (tableIds[id] >= 0) {
+                quantizationTables[tableIds[id]] = definedTables[id];
+            }
+        }
+
+        // A single component is not interleaved, its sampling factors have no effect
+        if (components == 1) {
+            horizontalSampling[0] = 1;
+            verticalSampling[0] = 1;
+        }
+
+        return new JpegImageFrame(quantizationTables, tableSelectors, horizontalSampling, verticalSampling);
+    }
+
+    private static boolean isStartOfFrame(final int marker) {
+        return marker >= JpegImageSegments.MARKER_SOF0 && marker <= JpegImageSegments.MARKER_SOF15
+                && marker != JpegImageSegments.MARKER_DHT && marker != JpegImageSegments.MARKER_JPG && marker != JpegImageSegments.MARKER_DAC;
+    }
+
+    /**
+     * Transposes tables in natural order, so the step of horizontal frequency {@code u} and vertical frequency
+     * {@code v} becomes the step of horizontal frequency {@code v} and vertical frequency {@code u}.
+     */
+    private static int[][] transpose(final int[][] tables) {
+        int[][] transposed = new int[tables.length][64];
+        for (int i = 0; i < tables.length; i++) {
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    transposed[i][v * 8 + u] = tables[i][u * 8 + v];
+                }
+            }
+        }
+        return transposed;
+    }
+
+    private static int[] getDefaultSelectors(final int components, final int tables) {
+        int[] selectors = new int[components];
+        for (int c = 0; c < components; c++) {
+            selectors[c] = Math.min(c, tables - 1);
+        }
+        return selectors;
+    }
+
+    private static int[] getDefaultSampling(final int components) {
+        int[] sampling = new int[components];
+        Arrays.fill(sampling, 1);
+        if (components == 3) {
+            sampling[0] = 2;
+        }
+        return sampling;
+    }
+
+    /**
+     * Determines if each sampling factor divides the largest one, as required to downsample by whole samples.
+     */
+    private boolean hasIntegralSampling() {
+        int maxHorizontal = Arrays.stream(this.horizontalSampling).max().orElse(1);
+        int maxVertical = Arrays.stream(this.verticalSampling).max().orElse(1);
+
+        for (int c = 0; c < getComponents(); c++) {
+            if (maxHorizontal % this.horizontalSampling[c] != 0 || maxVertical % this.verticalSampling[c] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the {@code DQT} tables and the sampling factors and table selectors of the {@code SOF} components in
+     * {@code ImageIO} JPEG image metadata. Sampling factors are only replaced if the metadata has as many components.
+     *
+     * @param metadata
+     *              {@code IIOMetadata} of the {@code ImageIO} JPEG writer.
+     * @throws IIOInvalidTreeException
+     *              In the event the metadata is unable to be updated.
+     */
+    protected void applyTo(final IIOMetadata metadata) throws IIOInvalidTreeException {
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(NATIVE_FORMAT);
+        IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+        IIOMetadataNode sof = (IIOMetadataNode) markerSequence.getElementsByTagName("sof").item(0);
+        if (sof == null) {
+            return;
+        }
+
+        while (markerSequence.getElementsByTagName("dqt").getLength() > 0) {
+            markerSequence.removeChild(markerSequence.getElementsByTagName("dqt").item(0));
+        }
+
+        IIOMetadataNode dqt = new IIOMetadataNode("dqt");
+        for (int i = 0; i < this.quantizationTables.length; i++) {
+            IIOMetadataNode dqtable = new IIOMetadataNode("dqtable");
+            dqtable.setAttribute("elementPrecision", "0");
+            dqtable.setAttribute("qtableId", Integer.toString(i));
+            dqtable.setUserObject(new JPEGQTable(this.quantizationTables[i]));
+            dqt.appendChild(dqtable);
+        }
+        markerSequence.insertBefore(dqt, sof);
+
+        int components = sof.getElementsByTagName("componentSpec").getLength();
+        int[] selectors = components == getComponents() ? this.tableSelectors : getDefaultSelectors(components, this.quantizationTables.length);
+        for (int c = 0; c < components; c++) {
+            IIOMetadataNode componentSpec = (IIOMetadataNode) sof.getElementsByTagName("componentSpec").item(c);
+
+            componentSpec.setAttribute("QtableSelector", Integer.toString(selectors[c]));
+            if (components == getComponents()) {
+                componentSpec.setAttribute("HsamplingFactor", Integer.toString(this.horizontalSampling[c]));
+                componentSpec.setAttribute("VsamplingFactor", Integer.toString(this.verticalSampling[c]));
+            }
+        }
+
+        metadata.setFromTree(NATIVE_FORMAT, root);
+    }
+
+    protected int getComponents() {
+        return this.tableSelectors.length;
+    }
+
+    /**
+     * @return Quantization tables in natural order, indexed by the table selectors of the components.
+     */
+    protected int[][] getQuantizationTables() {
+        return this.quantizationTables;
+    }
+
+    protected int getTableSelector(final int component) {
+        return this.tableSelectors[component];
+    }
+
+    protected int getHorizontalSampling(final int component) {
+        return this.horizontalSampling[component];
+    }
+
+    protected int getVerticalSampling(final int component) {
+        return this.verticalSampling[component];
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+/**
+ * Kernels moving interleaved byte pixels to their mirrored or transposed position.
+ * <p>
+ * Pixels of 3 and 4 bytes are moved by {@link JpegImageVectorKernels} where the Vector API is available,
+ * and by scalar loops otherwise, as well as for the pixels left over at the edges of an image.
+ * </p>
+ */
+final class JpegImageKernels {
+
+    /**
+     * Width and height, in pixels, of the blocks an image is transposed in.
+     */
+    protected static final int BLOCK = 8;
+
+    private static final boolean VECTORIZED = JpegImageVectorKernels.isAvailable();
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageKernels() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Determines if the kernels use the Vector API.
+     *
+     * @return {@code true} if 3 and 4 byte pixels are moved by {@code JpegImageVectorKernels}.
+     */
+    protected static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Copies a row of pixels in reverse order, so the last pixel of the source row is the first of the target row.
+     *
+     * @param source
+     *              Array holding the source row.
+     * @param sourceOffset
+     *              Index of the first byte of the source row.
+     * @param target
+     *              Array receiving the reversed row, distinct from {@code source}.
+     * @param targetOffset
+     *              Index of the first byte of the target row.
+     * @param width
+     *              Number of pixels in the row.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     */
+    protected static void reverse(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset, final int width,
+                                  final int pixelStride) {
+        int x = VECTORIZED ? JpegImageVectorKernels.reverse(source, sourceOffset, target, targetOffset, width, pixelStride) : 0;
+        int s = sourceOffset + x * pixelStride;
+        int t = targetOffset + (width - 1 - x) * pixelStride;
+
+        if (pixelStride == 3) {
+            for (; x < width; x++, s += 3, t -= 3) {
+                target[t] = source[s];
+                target[t + 1] = source[s + 1];
+                target[t + 2] = source[s + 2];
+            }
+        } else if (pixelStride == 4) {
+            for (; x < width; x++, s += 4, t -= 4) {
+                target[t] = source[s];
+                target[t + 1] = source[s + 1];
+                target[t + 2] = source[s + 2];
+                target[t + 3] = source[s + 3];
+            }
+        } else {
+            for (; x < width; x++, s += pixelStride, t -= pixelStride) {
+                System.arraycopy(source, s, target, t, pixelStride);
+            }
+        }
+    }
+
+    /**
+     * Copies rows of pixels to columns of the target, in blocks of {@link #BLOCK} pixels square so both arrays
+     * are walked through a few cache lines at a time. The pixel at {@code (x, y)} of the source lands at
+     * {@code targetOffset + x * targetXStep + y * targetYStep} in the target.
+     *
+     * @param source
+     *              Array holding the source rows.
+     * @param sourceOffset
+     *              Index of the first byte of the first source row.
+     * @param sourceStride
+     *              Number of bytes between the start of two source rows.
+     * @param target
+     *              Array receiving the pixels, distinct from {@code source}.
+     * @param targetOffset
+     *              Index of the first byte of the target pixel of the first source pixel.
+     * @param targetXStep
+     *              Number of bytes between the target pixels of two adjacent source pixels of a row.
+     * @param targetYStep
+     *              Number of bytes between the target pixels of two adjacent source pixels of a column,
+     *              either {@code pixelStride} or {@code -pixelStride}.
+     * @param width
+     *              Number of pixels in a source row.
+     * @param height
+     *              Number of source rows.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     */
+    protected static void transpose(final byte[] source, int sourceOffset, int sourceStride, final byte[] target, int targetOffset,
+                                    final int targetXStep, int targetYStep, final int width, final int height, final int pixelStride) {
+        if (targetYStep < 0) {
+            // Walk the source rows bottom up, so the pixels of a source column land in ascending target order.
+            sourceOffset += (height - 1) * sourceStride;
+            sourceStride = -sourceStride;
+            targetOffset += (height - 1) * targetYStep;
+            targetYStep = -targetYStep;
+        }
+
+        // Vector kernels move 3 byte pixels 16 bytes at a time, reading and writing up to 2 pixels past a block,
+        // which the next block of the same source columns overwrites. Blocks ending closer to an edge are scalar.
+        int margin = pixelStride == 3 ? BLOCK + 2 : BLOCK;
+        boolean vectorized = VECTORIZED && (pixelStride == 3 || pixelStride == 4);
+
+        for (int bx = 0; bx < width; bx += BLOCK) {
+            int bw = Math.min(BLOCK, width - bx);
+
+            for (int by = 0; by < height; by += BLOCK) {
+                int bh = Math.min(BLOCK, height - by);
+                int s = sourceOffset + by * sourceStride + bx * pixelStride;
+                int t = targetOffset + bx * targetXStep + by * targetYStep;
+
+                if (vectorized && bx + margin <= width && by + margin <= height
+                        && JpegImageVectorKernels.transpose(source, s, sourceStride, target, t, targetXStep, pixelStride)) {
+                    continue;
+                }
+
+                transposeBlock(source, s, sourceStride, target, t, targetXStep, targetYStep, bw, bh, pixelStride);
+            }
+        }
+    }
+
+    private static void transposeBlock(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                       final int targetOffset, final int targetXStep, final int targetYStep, final int width,
+                                       final int height, final int pixelStride) {
+        for (int y = 0; y < height; y++) {
+            int s = sourceOffset + y * sourceStride;
+            int t = targetOffset + y * targetYStep;
+
+            if (pixelStride == 3) {
+                for (int x = 0; x < width; x++, s += 3, t += targetXStep) {
+                    target[t] = source[s];
+                    target[t + 1] = source[s + 1];
+                    target[t + 2] = source[s + 2];
+                }
+            } else if (pixelStride == 4) {
+                for (int x = 0; x < width; x++, s += 4, t += targetXStep) {
+                    target[t] = source[s];
+                    target[t + 1] = source[s + 1];
+                    target[t + 2] = source[s + 2];
+                    target[t + 3] = source[s + 3];
+                }
+            } else {
+                for (int x = 0; x < width; x++, s += pixelStride, t += targetXStep) {
+                    System.arraycopy(source, s, target, t, pixelStride);
+                }
+            }
+        }
+    }
+
+}
@@ -46,6 +46,10 @@ class JpegImageMetadata {
     private String xmpXml;
     private BufferedImage thumbnail;
     private int originalOrientation;
+    private byte[] exifSegment;
+    private byte[] thumbnailBytes;
+    private int exifWidth = -1;
+    private int exifHeight = -1;
 
     protected JpegImageMetadata(final byte[] bytes) throws JpegAutorotateException {
         this.rawMetadata = JpegImageMetadataReader.readRawMetadata(bytes);
@@ -56,6 +60,7 @@ class JpegImageMetadata {
         this.xmpXml = JpegImageMetadataReader.readXmpXml(bytes);
         this.thumbnail = JpegImageMetadataReader.readThumbnail(this.rawMetadata);
         this.originalOrientation = getOrientation();
+        this.exifSegment = JpegImageSegments.getExifSegment(bytes);
     }
 
     protected TiffOutputSet getOutputSet() {
@@ -82,6 +87,10 @@ class JpegImageMetadata {
         return thumbnail;
     }
 
+    protected byte[] getEmbeddedImage() {
+        return JpegImageMetadataReader.readEmbeddedImage(this.rawMetadata);
+    }
+
     /**
      * Updates the thumbnail image.
      *
@@ -93,6 +102,22 @@ class JpegImageMetadata {
         JpegImageData jpg = new JpegImageData(thumbnailDirectory.getRawJpegImageData().offset, bytes.length, bytes);
 
         thumbnailDirectory.setJpegImageData(jpg);
+        this.thumbnailBytes = bytes;
+    }
+
+    /**
+     * Attempts to patch the original EXIF {@code APP1} segment in place with the updated
+     * {@code Orientation}, dimensions and thumbnail, keeping every other entry intact.
+     *
+     * @return If successful, a {@code byte[]} containing the patched segment; otherwise {@code null},
+     *         in which case the EXIF metadata must be written from {@link #getOutputSet()}.
+     */
+    protected byte[] getPatchedExifSegment() {
+        if (this.exifSegment == null) {
+            return null;
+        }
+
+        return JpegImageExifPatcher.patch(this.exifSegment, this.exifWidth, this.exifHeight, this.thumbnailBytes);
     }
 
     /**
@@ -179,6 +204,9 @@ class JpegImageMetadata {
                 updateExifHeight(height);
                 updateExifWidth(width);
                 updateXmpXml(height, width);
+
+                this.exifWidth = width;
+                this.exifHeight = height;
             } catch (Exception e) {
                 throw new JpegAutorotateException("Unable to read JPEG image EXIF Image Width and/or Image Height metadata tags.", e);
             }
@@ -26,6 +26,8 @@ import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
 import org.apache.commons.imaging.Imaging;
 
+import org.apache.commons.imaging.common.ImageMetadata;
+import org.apache.commons.imaging.formats.tiff.JpegImageData;
 import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
 
@@ -156,4 +158,30 @@ final class JpegImageMetadataReader {
         }
     }
 
+    /**
+     * Attempts to read the largest JPEG image embedded in the EXIF metadata of {@code JpegImageMetadata},
+     * usually the {@code ExifThumbnail}. Embedded images are compared by their compressed size, without decoding them.
+     *
+     * @param metadata
+     *              An instance of {@code JpegImageMetadata}.
+     * @return If successful, a {@code byte[]} containing the embedded JPEG image file.
+     *         Otherwise, returns null.
+     */
+    protected static byte[] readEmbeddedImage(final org.apache.commons.imaging.formats.jpeg.JpegImageMetadata metadata) {
+        if (metadata.getExif() == null) {
+            return null;
+        }
+
+        byte[] largest = null;
+        for (ImageMetadata.ImageMetadataItem item : metadata.getExif().getDirectories()) {
+            JpegImageData data = ((TiffImageMetadata.Directory) item).getJpegImageData();
+
+            if (data != null && (largest == null || data.getDataLength() > largest.length)) {
+                largest = data.getData();
+            }
+        }
+
+        return largest;
+    }
+
 }
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+
+import java.awt.Rectangle;
+
+/**
+ * Enumeration of EXIF {@code Orientation} metadata tag values.
+ * <p>
+ * Each value knows where a pixel stored at {@code (x, y)} ends up once the
+ * image is rotated and flipped back to {@code Horizontal (normal)}.
+ * </p>
+ */
+enum JpegImageOrientation {
+    HORIZONTAL_NORMAL(TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL),
+    MIRROR_HORIZONTAL(TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL),
+    ROTATE_180(TiffTagConstants.ORIENTATION_VALUE_ROTATE_180),
+    MIRROR_VERTICAL(TiffTagConstants.ORIENTATION_VALUE_MIRROR_VERTICAL),
+    MIRROR_HORIZONTAL_AND_ROTATE_270_CW(TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL_AND_ROTATE_270_CW),
+    ROTATE_90_CW(TiffTagConstants.ORIENTATION_VALUE_ROTATE_90_CW),
+    MIRROR_HORIZONTAL_AND_ROTATE_90_CW(TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL_AND_ROTATE_90_CW),
+    ROTATE_270_CW(TiffTagConstants.ORIENTATION_VALUE_ROTATE_270_CW);
+
+    private final int value;
+
+    JpegImageOrientation(final int value) {
+        this.value = value;
+    }
+
+    /**
+     * Attempts to find the {@code JpegImageOrientation} for an EXIF {@code Orientation} metadata tag value.
+     *
+     * @param value
+     *              A EXIF {@code Orientation} metadata tag value.
+     * @return If successful, the matching {@code JpegImageOrientation}.
+     * @throws JpegAutorotateException
+     *              In the event the {@code Orientation} value is unknown.
+     */
+    protected static JpegImageOrientation fromExifValue(final int value) throws JpegAutorotateException {
+        for (JpegImageOrientation orientation : values()) {
+            if (orientation.value == value) {
+                return orientation;
+            }
+        }
+
+        throw new JpegAutorotateException("JPEG image has an unknown EXIF Orientation metadata tag value: " + value);
+    }
+
+    protected int getExifValue() {
+        return this.value;
+    }
+
+    /**
+     * Determines if width and height are swapped once the image is upright.
+     *
+     * @return {@code true} If the orientation involves a 90 or 270 degree rotation; otherwise false.
+     */
+    protected boolean isTransposed() {
+        switch (this) {
+            case MIRROR_HORIZONTAL_AND_ROTATE_270_CW:
+            case ROTATE_90_CW:
+            case MIRROR_HORIZONTAL_AND_ROTATE_90_CW:
+            case ROTATE_270_CW:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    protected int getTargetWidth(final int width, final int height) {
+        return isTransposed() ? height : width;
+    }
+
+    protected int getTargetHeight(final int width, final int height) {
+        return isTransposed() ? width : height;
+    }
+
+    /**
+     * Determines the column a stored pixel moves to once the image is upright.
+     *
+     * @param x
+     *              Column of the pixel in the stored image.
+     * @param y
+     *              Row of the pixel in the stored image.
+     * @param width
+     *              Width of the stored image.
+     * @param height
+     *              Height of the stored image.
+     * @return Column of the pixel in the upright image.
+     */
+    protected int getTargetX(final int x, final int y, final int width, final int height) {
+        switch (this) {
+            case MIRROR_HORIZONTAL:
+            case ROTATE_180:
+                return width - 1 - x;
+            case MIRROR_HORIZONTAL_AND_ROTATE_270_CW:
+            case ROTATE_270_CW:
+                return y;
+            case ROTATE_90_CW:
+            case MIRROR_HORIZONTAL_AND_ROTATE_90_CW:
+                return height - 1 - y;
+            default:
+                return x;
+        }
+    }
+
+    /**
+     * Determines the row a stored pixel moves to once the image is upright.
+     *
+     * @param x
+     *              Column of the pixel in the stored image.
+     * @param y
+     *              Row of the pixel in the stored image.
+     * @param width
+     *              Width of the stored image.
+     * @param height
+     *              Height of the stored image.
+     * @return Row of the pixel in the upright image.
+     */
+    protected int getTargetY(final int x, final int y, final int width, final int height) {
+        switch (this) {
+            case ROTATE_180:
+            case MIRROR_VERTICAL:
+                return height - 1 - y;
+            case MIRROR_HORIZONTAL_AND_ROTATE_270_CW:
+            case ROTATE_90_CW:
+                return x;
+            case MIRROR_HORIZONTAL_AND_ROTATE_90_CW:
+            case ROTATE_270_CW:
+                return width - 1 - x;
+            default:
+                return y;
+        }
+    }
+
+    /**
+     * Determines the region of the upright image holding a strip of rows of the stored image.
+     *
+     * @param sourceY
+     *              First row of the strip in the stored image.
+     * @param rows
+     *              Number of rows in the strip.
+     * @param width
+     *              Width of the stored image.
+     * @param height
+     *              Height of the stored image.
+     * @return A {@code Rectangle} of the upright image, spanning its full width or height.
+     */
+    protected Rectangle getTargetRegion(final int sourceY, final int rows, final int width, final int height) {
+        int x0 = getTargetX(0, sourceY, width, height);
+        int y0 = getTargetY(0, sourceY, width, height);
+        int x1 = getTargetX(width - 1, sourceY + rows - 1, width, height);
+        int y1 = getTargetY(width - 1, sourceY + rows - 1, width, height);
+
+        return new Rectangle(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + 1, Math.abs(y1 - y0) + 1);
+    }
+
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.awt.Point;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * A {@code SampleModel} presenting an upright, pixel interleaved buffer as if it were still
+ * stored in its original EXIF {@code Orientation}.
+ * <p>
+ * Pixels written at {@code (x, y)} through this model land directly at their rotated and
+ * flipped position in the upright buffer, which lets a decoder fill the final image without
+ * an intermediate copy.
+ * </p>
+ */
+class JpegImageOrientedSampleModel extends ComponentSampleModel {
+
+    private final ComponentSampleModel target;
+    private final JpegImageOrientation orientation;
+    private final int origin;
+    private final int xStep;
+    private final int yStep;
+
+    /**
+     * @param target
+     *              {@code ComponentSampleModel} of the upright buffer.
+     * @param orientation
+     *              Orientation the pixels are written in.
+     * @param width
+     *              Width of the image as stored.
+     * @param height
+     *              Height of the image as stored.
+     */
+    protected JpegImageOrientedSampleModel(final ComponentSampleModel target, final JpegImageOrientation orientation, final int width, final int height) {
+        super(target.getDataType(), width, height, target.getPixelStride(), target.getPixelStride() * width, target.getBandOffsets());
+
+        for (int bank : target.getBankIndices()) {
+            if (bank != 0) {
+                throw new IllegalArgumentException("Only single bank sample models can be oriented.");
+            }
+        }
+
+        this.target = target;
+        this.orientation = orientation;
+
+        int x0 = orientation.getTargetX(0, 0, width, height);
+        int y0 = orientation.getTargetY(0, 0, width, height);
+        int x1 = orientation.getTargetX(1, 0, width, height);
+        int y1 = orientation.getTargetY(1, 0, width, height);
+        int x2 = orientation.getTargetX(0, 1, width, height);
+        int y2 = orientation.getTargetY(0, 1, width, height);
+
+        this.origin = y0 * target.getScanlineStride() + x0 * target.getPixelStride();
+        this.xStep = (y1 - y0) * target.getScanlineStride() + (x1 - x0) * target.getPixelStride();
+        this.yStep = (y2 - y0) * target.getScanlineStride() + (x2 - x0) * target.getPixelStride();
+    }
+
+    /**
+     * Determines if pixels of a {@code SampleModel} can be oriented, which is the case for
+     * single bank {@code ComponentSampleModel}s, i.e. interleaved pixels of any band count and data type.
+     *
+     * @param sampleModel
+     *              {@code SampleModel} of the upright buffer.
+     * @return {@code true} if a {@code JpegImageOrientedSampleModel} can be created for it.
+     */
+    protected static boolean canOrient(final SampleModel sampleModel) {
+        if (!(sampleModel instanceof ComponentSampleModel)) {
+            return false;
+        }
+
+        for (int bank : ((ComponentSampleModel) sampleModel).getBankIndices()) {
+            if (bank != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a {@code WritableRaster} of the stored dimensions sharing the pixel data of an upright raster.
+     * Pixels written to it at their stored position land at their upright position in {@code target}.
+     *
+     * @param target
+     *              Upright {@code WritableRaster} receiving the pixels, with a {@code SampleModel} that {@link #canOrient(SampleModel)}.
+     * @param orientation
+     *              Orientation the pixels are written in.
+     * @param width
+     *              Width of the image as stored.
+     * @param height
+     *              Height of the image as stored.
+     * @return A {@code WritableRaster} to write the stored pixels to.
+     */
+    protected static WritableRaster createRaster(final WritableRaster target, final JpegImageOrientation orientation, final int width, final int height) {
+        SampleModel sampleModel = new JpegImageOrientedSampleModel((ComponentSampleModel) target.getSampleModel(), orientation, width, height);
+
+        return new OrientedRaster(sampleModel, target.getDataBuffer());
+    }
+
+    /**
+     * Determines if the pixels of a {@code Raster} can be copied as stored bytes by {@link #copyRows(Raster, int, int, DataBuffer)},
+     * which is the case for byte rasters laid out as this model's target.
+     *
+     * @param source
+     *              {@code Raster} of the stored image.
+     * @param data
+     *              {@code DataBuffer} of the upright image.
+     * @return {@code true} if the rows of {@code source} can be copied.
+     */
+    protected boolean canCopyRows(final Raster source, final DataBuffer data) {
+        if (getTransferType() != DataBuffer.TYPE_BYTE || !(data instanceof DataBufferByte) || data.getNumBanks() != 1
+                || !(source.getDataBuffer() instanceof DataBufferByte) || source.getDataBuffer().getNumBanks() != 1
+                || !canOrient(source.getSampleModel()) || source.getWidth() != this.width || source.getHeight() != this.height) {
+            return false;
+        }
+
+        ComponentSampleModel sampleModel = (ComponentSampleModel) source.getSampleModel();
+        if (sampleModel.getPixelStride() != this.pixelStride || !Arrays.equals(sampleModel.getBandOffsets(), this.bandOffsets)) {
+            return false;
+        }
+
+        for (int offset : this.bandOffsets) {
+            if (offset >= this.pixelStride) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies rows of a {@code Raster} to their rotated and flipped position, whole pixels at a time, through
+     * {@link JpegImageKernels}. Rows are copied or reversed as they are, and transposed in blocks.
+     *
+     * @param source
+     *              {@code Raster} of the stored image, which {@link #canCopyRows(Raster, DataBuffer)}.
+     * @param y
+     *              First row to copy.
+     * @param h
+     *              Number of rows to copy.
+     * @param data
+     *              {@code DataBuffer} of the upright image.
+     */
+    protected void copyRows(final Raster source, final int y, final int h, final DataBuffer data) {
+        checkBounds(0, y, this.width, h);
+        ComponentSampleModel sampleModel = (ComponentSampleModel) source.getSampleModel();
+        byte[] sourceData = ((DataBufferByte) source.getDataBuffer()).getData();
+        byte[] targetData = ((DataBufferByte) data).getData();
+        int sourceStride = sampleModel.getScanlineStride();
+        int sourceOffset = source.getDataBuffer().getOffset() + (source.getMinY() - source.getSampleModelTranslateY() + y) * sourceStride
+                + (source.getMinX() - source.getSampleModelTranslateX()) * this.pixelStride;
+        int targetOffset = data.getOffset() + getOffset(0, y);
+
+        if (this.xStep == this.pixelStride) {
+            for (int i = 0; i < h; i++, sourceOffset += sourceStride, targetOffset += this.yStep) {
+                System.arraycopy(sourceData, sourceOffset, targetData, targetOffset, this.width * this.pixelStride);
+            }
+        } else if (this.xStep == -this.pixelStride) {
+            for (int i = 0; i < h; i++, sourceOffset += sourceStride, targetOffset += this.yStep) {
+                JpegImageKernels.reverse(sourceData, sourceOffset, targetData, targetOffset + (this.width - 1) * this.xStep, this.width, this.pixelStride);
+            }
+        } else {
+            JpegImageKernels.transpose(sourceData, sourceOffset, sourceStride, targetData, targetOffset, this.xStep, this.yStep,
+                    this.width, h, this.pixelStride);
+        }
+    }
+
+    @Override
+    public int getOffset(int x, int y) {
+        return this.origin + x * this.xStep + y * this.yStep;
+    }
+
+    @Override
+    public int getOffset(int x, int y, int b) {
+        return getOffset(x, y) + this.bandOffsets[b];
+    }
+
+    @Override
+    public SampleModel createCompatibleSampleModel(int w, int h) {
+        return new PixelInterleavedSampleModel(this.dataType, w, h, this.pixelStride, this.pixelStride * w, this.bandOffsets);
+    }
+
+    @Override
+    public SampleModel createSubsetSampleModel(int[] bands) {
+        int[] offsets = new int[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            offsets[i] = this.bandOffsets[bands[i]];
+        }
+
+        ComponentSampleModel subset = new ComponentSampleModel(this.dataType, this.target.getWidth(), this.target.getHeight(),
+                this.target.getPixelStride(), this.target.getScanlineStride(), offsets);
+
+        return new JpegImageOrientedSampleModel(subset, this.orientation, this.width, this.height);
+    }
+
+    @Override
+    public Object getDataElements(int x, int y, Object obj, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        int offset = getOffset(x, y);
+
+        switch (getTransferType()) {
+            case DataBuffer.TYPE_BYTE:
+                byte[] bytes = obj == null ? new byte[this.numBands] : (byte[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    bytes[i] = (byte) data.getElem(offset + this.bandOffsets[i]);
+                }
+                return bytes;
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_SHORT:
+                short[] shorts = obj == null ? new short[this.numBands] : (short[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    shorts[i] = (short) data.getElem(offset + this.bandOffsets[i]);
+                }
+                return shorts;
+            case DataBuffer.TYPE_INT:
+                int[] ints = obj == null ? new int[this.numBands] : (int[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    ints[i] = data.getElem(offset + this.bandOffsets[i]);
+                }
+                return ints;
+            case DataBuffer.TYPE_FLOAT:
+                float[] floats = obj == null ? new float[this.numBands] : (float[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    floats[i] = data.getElemFloat(offset + this.bandOffsets[i]);
+                }
+                return floats;
+            case DataBuffer.TYPE_DOUBLE:
+                double[] doubles = obj == null ? new double[this.numBands] : (double[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    doubles[i] = data.getElemDouble(offset + this.bandOffsets[i]);
+                }
+                return doubles;
+            default:
+                throw new IllegalArgumentException("Unsupported transfer type: " + getTransferType());
+        }
+    }
+
+    @Override
+    public void setDataElements(int x, int y, Object obj, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        int offset = getOffset(x, y);
+
+        switch (getTransferType()) {
+            case DataBuffer.TYPE_BYTE:
+                byte[] bytes = (byte[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    data.setElem(offset + this.bandOffsets[i], bytes[i] & 0xff);
+                }
+                break;
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_SHORT:
+                short[] shorts = (short[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    data.setElem(offset + this.bandOffsets[i], getTransferType() == DataBuffer.TYPE_USHORT ? shorts[i] & 0xffff : shorts[i]);
+                }
+                break;
+            case DataBuffer.TYPE_INT:
+                int[] ints = (int[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    data.setElem(offset + this.bandOffsets[i], ints[i]);
+                }
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                float[] floats = (float[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    data.setElemFloat(offset + this.bandOffsets[i], floats[i]);
+                }
+                break;
+            case DataBuffer.TYPE_DOUBLE:
+                double[] doubles = (double[]) obj;
+                for (int i = 0; i < this.numBands; i++) {
+                    data.setElemDouble(offset + this.bandOffsets[i], doubles[i]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported transfer type: " + getTransferType());
+        }
+    }
+
+    @Override
+    public void setDataElements(int x, int y, int w, int h, Object obj, DataBuffer data) {
+        if (getTransferType() != DataBuffer.TYPE_BYTE) {
+            super.setDataElements(x, y, w, h, obj, data);
+            return;
+        }
+
+        checkBounds(x, y, w, h);
+        byte[] bytes = (byte[]) obj;
+        int index = 0;
+
+        if (data instanceof DataBufferByte && data.getNumBanks() == 1) {
+            byte[] target = ((DataBufferByte) data).getData();
+
+            for (int i = y; i < y + h; i++) {
+                int offset = data.getOffset() + getOffset(x, i);
+
+                // Gray and CMYK pixels get their own loops, as do other band counts.
+                if (this.numBands == 1) {
+                    int band = this.bandOffsets[0];
+                    for (int j = 0; j < w; j++, offset += this.xStep) {
+                        target[offset + band] = bytes[index++];
+                    }
+                } else if (this.numBands == 4) {
+                    int band0 = this.bandOffsets[0];
+                    int band1 = this.bandOffsets[1];
+                    int band2 = this.bandOffsets[2];
+                    int band3 = this.bandOffsets[3];
+                    for (int j = 0; j < w; j++, offset += this.xStep) {
+                        target[offset + band0] = bytes[index++];
+                        target[offset + band1] = bytes[index++];
+                        target[offset + band2] = bytes[index++];
+                        target[offset + band3] = bytes[index++];
+                    }
+                } else {
+                    for (int j = 0; j < w; j++, offset += this.xStep) {
+                        for (int b = 0; b < this.numBands; b++) {
+                            target[offset + this.bandOffsets[b]] = bytes[index++];
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        for (int i = y; i < y + h; i++) {
+            int offset = getOffset(x, i);
+            for (int j = 0; j < w; j++, offset += this.xStep) {
+                for (int b = 0; b < this.numBands; b++) {
+                    data.setElem(offset + this.bandOffsets[b], bytes[index++] & 0xff);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int[] getPixel(int x, int y, int[] iArray, DataBuffer data) {
+        return getPixels(x, y, 1, 1, iArray, data);
+    }
+
+    @Override
+    public void setPixel(int x, int y, int[] iArray, DataBuffer data) {
+        setPixels(x, y, 1, 1, iArray, data);
+    }
+
+    @Override
+    public int[] getPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+        checkBounds(x, y, w, h);
+        int[] pixels = iArray == null ? new int[w * h * this.numBands] : iArray;
+        int index = 0;
+
+        for (int i = y; i < y + h; i++) {
+            int offset = getOffset(x, i);
+            for (int j = 0; j < w; j++, offset += this.xStep) {
+                for (int b = 0; b < this.numBands; b++) {
+                    pixels[index++] = data.getElem(offset + this.bandOffsets[b]);
+                }
+            }
+        }
+
+        return pixels;
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+        checkBounds(x, y, w, h);
+        int index = 0;
+
+        for (int i = y; i < y + h; i++) {
+            int offset = getOffset(x, i);
+            for (int j = 0; j < w; j++, offset += this.xStep) {
+                for (int b = 0; b < this.numBands; b++) {
+                    data.setElem(offset + this.bandOffsets[b], iArray[index++]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getSample(int x, int y, int b, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        return data.getElem(getOffset(x, y, b));
+    }
+
+    @Override
+    public float getSampleFloat(int x, int y, int b, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        return data.getElemFloat(getOffset(x, y, b));
+    }
+
+    @Override
+    public double getSampleDouble(int x, int y, int b, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        return data.getElemDouble(getOffset(x, y, b));
+    }
+
+    @Override
+    public void setSample(int x, int y, int b, int s, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        data.setElem(getOffset(x, y, b), s);
+    }
+
+    @Override
+    public void setSample(int x, int y, int b, float s, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        data.setElemFloat(getOffset(x, y, b), s);
+    }
+
+    @Override
+    public void setSample(int x, int y, int b, double s, DataBuffer data) {
+        checkBounds(x, y, 1, 1);
+        data.setElemDouble(getOffset(x, y, b), s);
+    }
+
+    @Override
+    public int[] getSamples(int x, int y, int w, int h, int b, int[] iArray, DataBuffer data) {
+        checkBounds(x, y, w, h);
+        int[] samples = iArray == null ? new int[w * h] : iArray;
+        int index = 0;
+
+        for (int i = y; i < y + h; i++) {
+            int offset = getOffset(x, i, b);
+            for (int j = 0; j < w; j++, offset += this.xStep) {
+                samples[index++] = data.getElem(offset);
+            }
+        }
+
+        return samples;
+    }
+
+    @Override
+    public void setSamples(int x, int y, int w, int h, int b, int[] iArray, DataBuffer data) {
+        checkBounds(x, y, w, h);
+        int index = 0;
+
+        for (int i = y; i < y + h; i++) {
+            int offset = getOffset(x, i, b);
+            for (int j = 0; j < w; j++, offset += this.xStep) {
+                data.setElem(offset, iArray[index++]);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof JpegImageOrientedSampleModel)) {
+            return false;
+        }
+
+        JpegImageOrientedSampleModel that = (JpegImageOrientedSampleModel) o;
+
+        return super.equals(o) && this.orientation == that.orientation && this.target.equals(that.target);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + this.orientation.hashCode();
+    }
+
+    private void checkBounds(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > this.width || y + h > this.height) {
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+        }
+    }
+
+    /**
+     * A generic {@code WritableRaster}, ensuring every pixel access goes through its {@code SampleModel}.
+     */
+    private static final class OrientedRaster extends WritableRaster {
+
+        private OrientedRaster(final SampleModel sampleModel, final DataBuffer dataBuffer) {
+            super(sampleModel, dataBuffer, new Point(0, 0));
+        }
+
+    }
+
+}
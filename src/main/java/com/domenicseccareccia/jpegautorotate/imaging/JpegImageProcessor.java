@@ -21,7 +21,11 @@
 
 package com.domenicseccareccia.jpegautorotate.imaging;
 
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
 import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateRendition;
+import com.domenicseccareccia.jpegautorotate.util.ImageUtils;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
 import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
@@ -29,15 +33,43 @@ import org.apache.commons.imaging.formats.jpeg.iptc.JpegIptcRewriter;
 import org.apache.commons.imaging.formats.jpeg.xmp.JpegXmpRewriter;
 import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Dimension;
 import java.awt.color.ICC_ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class JpegImageProcessor {
 
+    /**
+     * Threads processing the thumbnail and metadata alongside the main image, shared by every image processed
+     * with concurrent stages. Threads are created as images need them, and end once idle for a minute.
+     */
+    private static final ExecutorService METADATA_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "jpeg-autorotate-metadata");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Not intended for instantiation.
      */
@@ -62,25 +94,310 @@ public final class JpegImageProcessor {
      *              metadata and/or has unprocessable information.
      */
     public static byte[] process(final byte[] bytes) throws JpegAutorotateException {
-        JpegImage jpegImage = new JpegImage(bytes);
+        return process(bytes, new JpegAutorotateOptions());
+    }
+
+    /**
+     * Processes {@code JpegImage} rotation and metadata modification. Processing
+     * depends on presence of EXIF {@code Orientation} metadata tag.
+     * <p>
+     * {@code JpegImage} may contain {@code EXIF} and/or {@code IPTC/Photoshop} metadata, {@code thumbnail} image
+     * and {@code ICCProfile}.
+     * </p>
+     * <p>
+     * With {@link JpegAutorotateOptions#isConcurrentStages()}, the thumbnail and metadata are processed
+     * on a separate thread while the main image is decoded and encoded.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If processed, a {@code byte[]} containing processed image;
+     *         otherwise, a {@code byte[]} containing the original image file.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata and/or has unprocessable information.
+     */
+    public static byte[] process(final byte[] bytes, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        return process(bytes, Collections.emptyList(), options).get(0);
+    }
 
-        // Determine if JPEG image is already properly oriented.
-        if (jpegImage.getMetadata().getOrientation() == TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL) {
-            return bytes;
+    /**
+     * Processes {@code JpegImage} rotation and metadata modification, and produces resized renditions of
+     * the upright image from the same decoded pixels. Processing depends on presence of EXIF
+     * {@code Orientation} metadata tag.
+     * <p>
+     * Renditions are scaled down in a cascade, largest first, each from the previous one.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param renditions
+     *              {@code JpegAutorotateRendition}s to produce, may be empty.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return A {@code List} holding the processed image, or the original image file if already properly
+     *         oriented, followed by a {@code byte[]} for each rendition, in order.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata and/or has unprocessable information.
+     */
+    public static List<byte[]> process(final byte[] bytes, final List<JpegAutorotateRendition> renditions, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegImageStatistics statistics = JpegImageStatistics.getInstance();
+        JpegImageBufferPool pool = getBufferPool(options);
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+        Future<byte[]> metadataSegments = null;
+        BufferedImage decodedImage = null;
+        long pixels = 0;
+
+        statistics.imageStarted();
+
+        try {
+            cancellation.throwIfCancelled();
+            JpegImageMetadata metadata = JpegImage.readMetadata(bytes);
+
+            // The thumbnail and metadata do not depend on the main image, so may be processed alongside it.
+            if (options.isConcurrentStages() && metadata.getOrientation() != TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL) {
+                metadataSegments = METADATA_EXECUTOR.submit(() -> processMetadata(metadata, options));
+            }
+
+            // Determine if JPEG image is already properly oriented.
+            boolean rotated = metadata.getOrientation() != TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL;
+
+            // YCbCr samples are only ever encoded by the band encoder, and never converted nor resized.
+            boolean ycbcr = options.isYCbCrProcessing() && options.isParallelEncoding() && rotated
+                    && renditions.isEmpty() && metadata.getIccProfile() == null;
+
+            JpegImage jpegImage = new JpegImage(bytes, metadata, ycbcr, pool, cancellation);
+
+            // The decoded image is borrowed from the pool, and goes back once encoded.
+            decodedImage = jpegImage.getImage();
+            pixels = (long) decodedImage.getWidth() * decodedImage.getHeight();
+            statistics.addInFlightPixels(pixels);
+
+            if (rotated || !renditions.isEmpty()) {
+                cancellation.throwIfCancelled();
+                processImage(jpegImage);
+            }
+
+            JpegImageFrame frame = rotated ? JpegImageFrame.create(bytes, JpegImageOrientation.fromExifValue(metadata.getOrientation()),
+                    jpegImage.getImage().getColorModel().getNumColorComponents(), options) : null;
+
+            byte[] data = bytes;
+            if (rotated && metadataSegments == null) {
+                cancellation.throwIfCancelled();
+                processThumbnail(metadata, options);
+
+                metadata.updateMetadata();
+
+                data = writeImage(jpegImage, frame, options);
+            } else if (rotated) {
+                data = JpegImageSegments.writeMetadataSegments(encodeImage(jpegImage.getImage(), frame, options), getMetadataSegments(metadataSegments));
+            }
+
+            List<byte[]> images = new ArrayList<>(1 + renditions.size());
+            images.add(data);
+            images.addAll(writeRenditions(jpegImage, data, rotated, renditions, options));
+
+            if (rotated) {
+                statistics.imageRotated(bytes.length, data.length);
+            } else {
+                statistics.imageSkipped(bytes.length);
+            }
+
+            return images;
+        } catch (JpegAutorotateException | RuntimeException e) {
+            statistics.imageFailed(e);
+            throw e;
+        } finally {
+            if (metadataSegments != null) {
+                metadataSegments.cancel(true);
+            }
+
+            statistics.imageFinished(pixels);
+            // The encoder has joined its workers before returning or throwing, so no thread still reads the raster.
+            pool.release(decodedImage);
         }
+    }
 
-        processImage(jpegImage);
-        processThumbnail(jpegImage.getMetadata());
+    /**
+     * Produces a reduced resolution, upright preview of a JPEG image. Rotation depends on the
+     * EXIF {@code Orientation} metadata tag.
+     * <p>
+     * The image is decoded at 1/2, 1/4 or 1/8 of its resolution when large enough, rotated as it
+     * is decoded, then scaled down to fit within {@code maxDimension}. The preview carries no metadata.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param maxDimension
+     *              Largest width or height of the preview, at least 1.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the preview image.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata and/or has unprocessable information.
+     */
+    public static byte[] processPreview(final byte[] bytes, final int maxDimension, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        if (maxDimension < 1) {
+            throw new IllegalArgumentException("Max dimension must be at least 1.");
+        }
+
+        JpegImageBufferPool pool = getBufferPool(options);
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+        BufferedImage decodedImage = null;
+        BufferedImage resizedImage = null;
+
+        try {
+            cancellation.throwIfCancelled();
+            JpegImageMetadata metadata = JpegImage.readMetadata(bytes);
+            JpegImageOrientation orientation = JpegImageOrientation.fromExifValue(metadata.getOrientation());
+
+            decodedImage = JpegImageReader.readPreview(bytes, orientation, maxDimension, pool, cancellation);
+            BufferedImage image = decodedImage;
+
+            ICC_Profile iccProfile = metadata.getIccProfile();
+            if (iccProfile != null) {
+                cancellation.throwIfCancelled();
+                try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ICC_CONVERSION).setPath("preview")) {
+                    image = processIccProfile(iccProfile, image);
+
+                    timer.setDimensions(image.getWidth(), image.getHeight());
+                }
+            }
+
+            Dimension size = JpegImageResizer.getTargetSize(image.getWidth(), image.getHeight(), maxDimension);
+            if (size.width != image.getWidth() || size.height != image.getHeight()) {
+                resizedImage = JpegImageResizer.resize(image, size.width, size.height, pool, cancellation);
+                image = resizedImage;
+            }
+
+            return encodeRendition(image, -1, "preview", options.isOptimizeHuffmanTables(), cancellation);
+        } finally {
+            pool.release(resizedImage);
+            pool.release(decodedImage);
+        }
+    }
+
+    /**
+     * Produces an upright preview of a JPEG image from the largest JPEG image embedded in its EXIF
+     * metadata, usually the {@code ExifThumbnail}, without decoding the main image. Rotation depends
+     * on the EXIF {@code Orientation} metadata tag.
+     * <p>
+     * An embedded image already properly oriented, with no {@code ICCProfile} to apply, is returned as is.
+     * Otherwise, it is rotated, converted and encoded like the thumbnail of a rotated image.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return If successful, a {@code byte[]} containing the preview image.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata, does not have an embedded image, and/or has unprocessable information.
+     */
+    public static byte[] processEmbeddedPreview(final byte[] bytes, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+
+        cancellation.throwIfCancelled();
+        JpegImageMetadata metadata = JpegImage.readMetadata(bytes);
+        JpegImageOrientation orientation = JpegImageOrientation.fromExifValue(metadata.getOrientation());
+        ICC_Profile iccProfile = metadata.getIccProfile();
+
+        byte[] embeddedImage = metadata.getEmbeddedImage();
+        if (embeddedImage == null) {
+            throw new JpegAutorotateException("JPEG image does not have an embedded thumbnail.");
+        }
+
+        if (orientation == JpegImageOrientation.HORIZONTAL_NORMAL && iccProfile == null) {
+            return embeddedImage;
+        }
 
-        jpegImage.getMetadata().updateMetadata();
+        cancellation.throwIfCancelled();
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.THUMBNAIL).setInputBytes(embeddedImage.length).setPath("preview")) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(embeddedImage));
+            if (image == null) {
+                throw new JpegAutorotateException("Unable to read JPEG image embedded thumbnail.");
+            }
+
+            image = JpegImageTransform.transform(image, orientation);
+            if (iccProfile != null) {
+                image = processIccProfile(iccProfile, image);
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeJpeg(image, baos, -1, null, options.isOptimizeHuffmanTables(), cancellation);
 
-        return writeImage(jpegImage);
+            timer.setDimensions(image.getWidth(), image.getHeight())
+                    .setOrientation(orientation.getExifValue())
+                    .setOutputBytes(baos.size());
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read/write JPEG image embedded thumbnail.", e);
+        }
     }
 
     /**
-     * Processes {@code JpegImage} rotation. Rotation depends on the EXIF {@code Orientation}
-     * metadata tag. Sets original {@code ICCProfile} to rotated image. Updates corresponding
-     * metadata information.
+     * Processes {@code JpegImage} rotation and metadata modification, writing the result to
+     * {@code os}. Processing depends on presence of EXIF {@code Orientation} metadata tag.
+     * <p>
+     * With {@link JpegAutorotateOptions#isBandedProcessing()}, the image is decoded, rotated and
+     * encoded in bands of rows and never held in memory as a whole.
+     * </p>
+     *
+     * @param file
+     *              {@code File} containing a JPEG image file.
+     * @param os
+     *              {@code OutputStream} receiving the processed image, or the original image file
+     *              if already properly oriented.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @throws JpegAutorotateException
+     *              In the event the {@code JpegImage} does not have necessary
+     *              metadata and/or has unprocessable information.
+     */
+    public static void process(final File file, final OutputStream os, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        if (options.isBandedProcessing()) {
+            JpegImageBandedProcessor.process(file, os, options);
+            return;
+        }
+
+        try (InputStream is = new FileInputStream(file)) {
+            os.write(process(ImageUtils.toByteArray(is), options));
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read/write JPEG file.", e);
+        }
+    }
+
+    /**
+     * Determines the {@code JpegImageBufferPool} pixel buffers are borrowed from.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return The configured {@code JpegImageBufferPool}, or one retaining nothing if none is configured.
+     */
+    protected static JpegImageBufferPool getBufferPool(final JpegAutorotateOptions options) {
+        return options.getBufferPool() == null ? new JpegImageBufferPool(0) : options.getBufferPool();
+    }
+
+    /**
+     * Determines the {@code JpegAutorotateCancellation} processing is abandoned on.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return The configured {@code JpegAutorotateCancellation}, or one never cancelled if none is configured.
+     */
+    protected static JpegAutorotateCancellation getCancellation(final JpegAutorotateOptions options) {
+        return options.getCancellation() == null ? new JpegAutorotateCancellation() : options.getCancellation();
+    }
+
+    /**
+     * Processes {@code JpegImage} color space. The image is already rotated while being read,
+     * based on the EXIF {@code Orientation} metadata tag. Sets original {@code ICCProfile} to
+     * rotated image.
      * <p>
      * JPEG image may contain {@code ICCProfile}.
      * </p>
@@ -92,12 +409,14 @@ public final class JpegImageProcessor {
      *              is unable to be updated.
      */
     private static void processImage(JpegImage jpegImage) throws JpegAutorotateException {
-        JpegImageTransform.rotateImage(jpegImage);
-
         ICC_Profile iccProfile = jpegImage.getMetadata().getIccProfile();
         if (iccProfile != null) {
-            BufferedImage processedImage = processIccProfile(iccProfile, jpegImage.getImage());
-            jpegImage.setImage(processedImage);
+            try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ICC_CONVERSION)) {
+                BufferedImage processedImage = processIccProfile(iccProfile, jpegImage.getImage());
+                jpegImage.setImage(processedImage);
+
+                timer.setDimensions(processedImage.getWidth(), processedImage.getHeight());
+            }
         }
     }
 
@@ -111,24 +430,82 @@ public final class JpegImageProcessor {
      *
      * @param metadata
      *              An instance of {@code JpegImageMetadata}.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the encoding.
      * @throws JpegAutorotateException
      *              In the event the {@code ExifThumbnail} image is unable to be rotated.
      */
-    private static void processThumbnail(JpegImageMetadata metadata) throws JpegAutorotateException {
+    protected static void processThumbnail(JpegImageMetadata metadata, final JpegAutorotateOptions options) throws JpegAutorotateException {
         if (metadata.getThumbnail() == null) {
             return;
         }
 
-        JpegImageTransform.rotateThumbnail(metadata);
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.THUMBNAIL)) {
+            JpegImageTransform.rotateThumbnail(metadata);
 
-        ICC_Profile iccProfile = metadata.getIccProfile();
-        if (iccProfile != null) {
-            BufferedImage processedImage = processIccProfile(iccProfile, metadata.getThumbnail());
-            metadata.setThumbnail(processedImage);
+            ICC_Profile iccProfile = metadata.getIccProfile();
+            if (iccProfile != null) {
+                BufferedImage processedImage = processIccProfile(iccProfile, metadata.getThumbnail());
+                metadata.setThumbnail(processedImage);
+            }
+
+            byte[] bytes = writeThumbnail(metadata, options);
+            metadata.updateThumbnail(bytes);
+
+            timer.setDimensions(metadata.getThumbnail().getWidth(), metadata.getThumbnail().getHeight())
+                    .setOrientation(metadata.getOrientation())
+                    .setOutputBytes(bytes.length);
         }
+    }
 
-        byte[] bytes = writeThumbnail(metadata);
-        metadata.updateThumbnail(bytes);
+    /**
+     * Processes the {@code ExifThumbnail} image and metadata of a {@code JpegImage}, independently of its main image.
+     *
+     * @param metadata
+     *              An instance of {@code JpegImageMetadata}.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing, with the cancellation checked between stages.
+     * @return If successful, a {@code byte[]} containing the complete metadata segments.
+     * @throws JpegAutorotateException
+     *              In the event the thumbnail and/or metadata is unable to be updated, or the processing is cancelled.
+     */
+    private static byte[] processMetadata(final JpegImageMetadata metadata, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+
+        cancellation.throwIfCancelled();
+        processThumbnail(metadata, options);
+
+        metadata.updateMetadata();
+
+        cancellation.throwIfCancelled();
+        return writeMetadataSegments(metadata);
+    }
+
+    /**
+     * Waits for the metadata segments processed on a separate thread.
+     *
+     * @param metadataSegments
+     *              {@code Future} of the complete metadata segments.
+     * @return If successful, a {@code byte[]} containing the complete metadata segments.
+     * @throws JpegAutorotateException
+     *              In the event the thumbnail and/or metadata is unable to be updated, or the processing is cancelled.
+     */
+    private static byte[] getMetadataSegments(final Future<byte[]> metadataSegments) throws JpegAutorotateException {
+        try {
+            return metadataSegments.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JpegAutorotateException) {
+                throw (JpegAutorotateException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new JpegAutorotateException("Unable to update JPEG image metadata.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JpegAutorotateException("Interrupted while updating JPEG image metadata.", e);
+        }
     }
 
     /**
@@ -140,7 +517,7 @@ public final class JpegImageProcessor {
      *              A {@code BufferedImage} containing image data.
      * @return If successful, a valid {@code BufferedImage}.
      */
-    private static BufferedImage processIccProfile(final ICC_Profile iccProfile, final BufferedImage image) {
+    protected static BufferedImage processIccProfile(final ICC_Profile iccProfile, final BufferedImage image) {
         ICC_ColorSpace ics = new ICC_ColorSpace(iccProfile);
         ColorConvertOp cco = new ColorConvertOp(ics, null);
         return cco.filter(image, null);
@@ -152,14 +529,16 @@ public final class JpegImageProcessor {
      *
      * @param metadata
      *              An instance of {@code JpegImageMetadata}.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the encoding.
      * @return If successful, a {@code byte[]} representing the {@code ExifThumbnail} image.
      * @throws JpegAutorotateException
      *              In the event, the {@code ExifThumbnail} image is unable to be written
      *              to a {@code byte[]}.
      */
-    private static byte[] writeThumbnail(JpegImageMetadata metadata) throws JpegAutorotateException {
+    private static byte[] writeThumbnail(JpegImageMetadata metadata, final JpegAutorotateOptions options) throws JpegAutorotateException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(metadata.getThumbnail(), "jpeg", baos);
+            writeJpeg(metadata.getThumbnail(), baos, -1, null, options.isOptimizeHuffmanTables(), getCancellation(options));
             baos.flush();
 
             return baos.toByteArray();
@@ -178,35 +557,281 @@ public final class JpegImageProcessor {
      *
      * @param image
      *              An instance of {@code JpegImage}.
+     * @param frame
+     *              {@code JpegImageFrame} the image is encoded with, or {@code null} for the encoder defaults.
+     * @param options
+     *              {@code JpegAutorotateOptions} selecting the encoder.
      * @return If successful, a {@code byte[]} containing the {@code JpegImage} data.
      * @throws JpegAutorotateException
      *              In the event, the {@code JpegImage} is unable to be read or written
-     *              to a {@code byte[]}.
+     *              to a {@code byte[]}, or the processing is cancelled.
      */
-    private static byte[] writeImage(JpegImage image) throws JpegAutorotateException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(image.getImage(), "jpeg", baos);
-            byte [] data = baos.toByteArray();
-            baos.reset();
+    protected static byte[] writeImage(JpegImage image, JpegImageFrame frame, JpegAutorotateOptions options) throws JpegAutorotateException {
+        return writeMetadata(encodeImage(image.getImage(), frame, options), image.getMetadata());
+    }
+
+    /**
+     * Encodes a {@code BufferedImage} to a {@code byte[]}, without metadata.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data.
+     * @param frame
+     *              {@code JpegImageFrame} the image is encoded with, or {@code null} for the encoder defaults.
+     * @param options
+     *              {@code JpegAutorotateOptions} selecting the encoder.
+     * @return If successful, a {@code byte[]} containing the encoded JPEG image.
+     * @throws JpegAutorotateException
+     *              In the event, the image is unable to be written to a {@code byte[]}, or the processing is cancelled.
+     */
+    private static byte[] encodeImage(BufferedImage image, JpegImageFrame frame, JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+        byte[] data;
+
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ENCODE);
+             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            timer.setDimensions(image.getWidth(), image.getHeight());
+
+            // CMYK images, among others, are always encoded by ImageIO.
+            if (options.isParallelEncoding() && JpegImageEncoder.isSupported(image.getColorModel())) {
+                timer.setPath("parallel");
+                data = JpegImageEncoder.encode(image, frame, options.getThreads(), options.isOptimizeHuffmanTables(), cancellation);
+            } else {
+                timer.setPath("imageio");
+                writeJpeg(image, baos, -1, frame, options.isOptimizeHuffmanTables(), cancellation);
+                data = baos.toByteArray();
+            }
+
+            timer.setOutputBytes(data.length);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read/write rotated JPEG image to byte array.", e);
+        }
+
+        cancellation.throwIfCancelled();
+        return data;
+    }
+
+    /**
+     * Writes a {@code BufferedImage} to an {@code OutputStream} with the {@code ImageIO} JPEG writer,
+     * as {@link ImageIO#write(java.awt.image.RenderedImage, String, OutputStream)} does, aborting
+     * the writer once {@code cancellation} is cancelled.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data.
+     * @param os
+     *              {@code OutputStream} receiving the JPEG image data.
+     * @param quality
+     *              Compression quality between 0 and 1, or a negative value for the writer default.
+     * @param frame
+     *              {@code JpegImageFrame} with the quantization tables and sampling factors to write,
+     *              or {@code null} for the writer defaults.
+     * @param optimizeHuffmanTables
+     *              {@code true} to have the writer compute optimal Huffman tables for the image.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every encoded scanline.
+     * @throws JpegAutorotateException
+     *              In the event no {@code ImageWriter} is able to encode the image, or the writing is cancelled.
+     * @throws IOException
+     *              In the event the {@code os} is unable to be written.
+     */
+    private static void writeJpeg(final BufferedImage image, final OutputStream os, final float quality, final JpegImageFrame frame,
+                                  final boolean optimizeHuffmanTables, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException, IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), "jpeg");
+        if (!writers.hasNext()) {
+            throw new JpegAutorotateException("Unable to find a writer for JPEG image.");
+        }
+
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            ImageWriteParam param = null;
+            if (quality >= 0 || optimizeHuffmanTables) {
+                param = writer.getDefaultWriteParam();
+            }
+            if (quality >= 0) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            if (optimizeHuffmanTables && param instanceof JPEGImageWriteParam) {
+                ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+            }
+
+            IIOMetadata metadata = null;
+            if (frame != null) {
+                metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+                frame.applyTo(metadata);
+            }
+
+            writer.setOutput(ios);
+            writer.addIIOWriteProgressListener(new JpegImageAbortListener(cancellation));
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+
+        cancellation.throwIfCancelled();
+    }
+
+    /**
+     * Scales the upright image down and encodes each rendition, largest first, each scaled from the previous one.
+     *
+     * @param jpegImage
+     *              An instance of {@code JpegImage}, holding the upright image.
+     * @param data
+     *              {@code byte[]} containing the processed image, or the original image file if already properly oriented.
+     * @param rotated
+     *              {@code true} if {@code data} is the processed image.
+     * @param renditions
+     *              {@code JpegAutorotateRendition}s to produce.
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return A {@code List} holding a {@code byte[]} for each rendition, in order.
+     * @throws JpegAutorotateException
+     *              In the event a rendition is unable to be written, or the processing is cancelled.
+     */
+    private static List<byte[]> writeRenditions(final JpegImage jpegImage, final byte[] data, final boolean rotated,
+                                                final List<JpegAutorotateRendition> renditions, final JpegAutorotateOptions options) throws JpegAutorotateException {
+        JpegImageBufferPool pool = getBufferPool(options);
+        JpegAutorotateCancellation cancellation = getCancellation(options);
+        BufferedImage image = jpegImage.getImage();
+        BufferedImage source = image;
+        byte[][] images = new byte[renditions.size()][];
+        byte[] metadataSegments = null;
+
+        Integer[] order = new Integer[renditions.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> renditions.get(i).getMaxDimension()).reversed());
+
+        try {
+            for (int index : order) {
+                JpegAutorotateRendition rendition = renditions.get(index);
+                Dimension size = JpegImageResizer.getTargetSize(image.getWidth(), image.getHeight(), rendition.getMaxDimension());
+
+                cancellation.throwIfCancelled();
+                if (size.width != source.getWidth() || size.height != source.getHeight()) {
+                    BufferedImage resized = JpegImageResizer.resize(source, size.width, size.height, pool, cancellation);
+                    if (source != image) {
+                        pool.release(source);
+                    }
+                    source = resized;
+                }
+
+                byte[] rendered = encodeRendition(source, rendition.getQuality(), "rendition", options.isOptimizeHuffmanTables(), cancellation);
+
+                if (rendition.isKeepMetadata()) {
+                    if (metadataSegments == null) {
+                        metadataSegments = rotated ? JpegImageSegments.getMetadataSegments(data) : writeMetadataSegments(jpegImage.getMetadata());
+                    }
+                    rendered = writeRenditionMetadata(rendered, metadataSegments, size);
+                }
+
+                images[index] = rendered;
+            }
+        } finally {
+            if (source != image) {
+                pool.release(source);
+            }
+        }
+
+        return Arrays.asList(images);
+    }
+
+    /**
+     * Encodes a rendition or preview with the {@code ImageIO} JPEG writer at the given quality, or the writer default if negative.
+     */
+    private static byte[] encodeRendition(final BufferedImage image, final float quality, final String path, final boolean optimizeHuffmanTables,
+                                          final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.ENCODE).setPath(path);
+             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            timer.setDimensions(image.getWidth(), image.getHeight());
+
+            writeJpeg(image, baos, quality, null, optimizeHuffmanTables, cancellation);
+
+            timer.setOutputBytes(baos.size());
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to write JPEG image rendition to byte array.", e);
+        }
+    }
+
+    /**
+     * Writes metadata segments into an encoded rendition, with the EXIF image width and height patched to its dimensions.
+     */
+    private static byte[] writeRenditionMetadata(byte[] data, final byte[] metadataSegments, final Dimension size) throws JpegAutorotateException {
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.METADATA_WRITE).setInputBytes(data.length).setPath("rendition")) {
+            data = JpegImageSegments.writeMetadataSegments(data, metadataSegments);
+
+            byte[] exifSegment = JpegImageSegments.getExifSegment(data);
+            byte[] patchedSegment = exifSegment == null ? null : JpegImageExifPatcher.patch(exifSegment, size.width, size.height, null);
+            if (patchedSegment != null) {
+                data = JpegImageSegments.writeExifSegment(data, patchedSegment);
+            }
+
+            timer.setOutputBytes(data.length);
+            return data;
+        }
+    }
 
-            // Update JPEG image metadata
-            new ExifRewriter().updateExifMetadataLossless(data, baos, image.getMetadata().getOutputSet());
-            data = baos.toByteArray();
-            baos.reset();
+    /**
+     * Writes {@code JpegImageMetadata} into a placeholder image and extracts the resulting metadata segments,
+     * so they can be joined with an image encoded separately.
+     *
+     * @param metadata
+     *              An instance of {@code JpegImageMetadata}.
+     * @return If successful, a {@code byte[]} containing the complete metadata segments.
+     * @throws JpegAutorotateException
+     *              In the event, the metadata is unable to be written.
+     */
+    protected static byte[] writeMetadataSegments(JpegImageMetadata metadata) throws JpegAutorotateException {
+        byte[] placeholder = JpegImageEncoder.encode(new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY), 1);
+
+        return JpegImageSegments.getMetadataSegments(writeMetadata(placeholder, metadata));
+    }
+
+    /**
+     * Writes {@code JpegImageMetadata} into encoded JPEG image data. Metadata consists of general basic info,
+     * {@code IPTC/Photoshop} and {@code XmpXml}.
+     * <p>
+     * {@code JpegImageMetadata} may contain {@code IPC/Photoshop} and/or {@code XmpXml} metadata.
+     * </p>
+     *
+     * @param data
+     *              {@code byte[]} containing an encoded JPEG image.
+     * @param metadata
+     *              An instance of {@code JpegImageMetadata}.
+     * @return If successful, a {@code byte[]} containing the JPEG image data and metadata.
+     * @throws JpegAutorotateException
+     *              In the event, the metadata is unable to be written to a {@code byte[]}.
+     */
+    protected static byte[] writeMetadata(byte[] data, JpegImageMetadata metadata) throws JpegAutorotateException {
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.METADATA_WRITE).setInputBytes(data.length);
+             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            // Update JPEG image metadata, patching the original EXIF segment where possible
+            byte[] exifSegment = metadata.getPatchedExifSegment();
+            if (exifSegment != null) {
+                timer.setPath("patched");
+                data = JpegImageSegments.writeExifSegment(data, exifSegment);
+            } else {
+                timer.setPath("rewritten");
+                new ExifRewriter().updateExifMetadataLossless(data, baos, metadata.getOutputSet());
+                data = baos.toByteArray();
+                baos.reset();
+            }
 
             // Update IPTC/Photoshop metadata
-            if (image.getMetadata().getPhotoshop() != null) {
-                new JpegIptcRewriter().writeIPTC(data, baos, image.getMetadata().getPhotoshop().photoshopApp13Data);
+            if (metadata.getPhotoshop() != null) {
+                new JpegIptcRewriter().writeIPTC(data, baos, metadata.getPhotoshop().photoshopApp13Data);
                 data = baos.toByteArray();
                 baos.reset();
             }
 
             // Update XMP metadata
-            if (image.getMetadata().getXmpXml() != null) {
-                new JpegXmpRewriter().updateXmpXml(data, baos, image.getMetadata().getXmpXml());
+            if (metadata.getXmpXml() != null) {
+                new JpegXmpRewriter().updateXmpXml(data, baos, metadata.getXmpXml());
                 data = baos.toByteArray();
             }
 
+            timer.setOutputBytes(data.length);
             return data;
         } catch (ImageWriteException | ImageReadException | IOException e) {
             throw new JpegAutorotateException("Unable to read/write rotated JPEG image to byte array.", e);
@@ -21,14 +21,31 @@
 
 package com.domenicseccareccia.jpegautorotate.imaging;
 
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
 import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import org.w3c.dom.NodeList;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.*;
+import java.util.Iterator;
 
 final class JpegImageReader {
 
+    private static final ImageTypeSpecifier YCBCR_TYPE = createYCbCrType();
+
     /**
      * Not intended for instantiation.
      */
@@ -37,20 +54,241 @@ final class JpegImageReader {
     }
 
     /**
-     * Attempts to read JPEG file to a BufferedImage.
+     * Attempts to read JPEG file to an upright BufferedImage.
+     * <p>
+     * Decoded scanlines are written straight to their rotated and flipped position,
+     * so only the upright {@code BufferedImage} is ever allocated. The result is
+     * identical to reading the image and transforming it afterwards.
+     * </p>
      *
      * @param bytes
      *              {@code bytes} containing a JPEG image file.
-     * @return If successful, a {@code BufferedImage} containing image data.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @return If successful, an upright {@code BufferedImage} containing image data.
      * @throws JpegAutorotateException
      *              In the event the {@code bytes} is unable to be read.
      */
-    protected static BufferedImage readImage(final byte[] bytes) throws JpegAutorotateException {
-        try (InputStream is = new ByteArrayInputStream(bytes)) {
-            return ImageIO.read(is);
+    protected static BufferedImage readImage(final byte[] bytes, final JpegImageOrientation orientation, final JpegImageBufferPool pool) throws JpegAutorotateException {
+        return readImage(bytes, orientation, pool, new JpegAutorotateCancellation());
+    }
+
+    /**
+     * Attempts to read JPEG file to an upright BufferedImage, abandoning the read once {@code cancellation}
+     * is cancelled. The image is then returned to {@code pool}.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every decoded scanline.
+     * @return If successful, an upright {@code BufferedImage} containing image data.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is unable to be read, or the read is cancelled.
+     */
+    protected static BufferedImage readImage(final byte[] bytes, final JpegImageOrientation orientation, final JpegImageBufferPool pool,
+                                             final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        return readImage(bytes, orientation, Integer.MAX_VALUE, false, pool, cancellation);
+    }
+
+    /**
+     * Attempts to read JPEG file to an upright BufferedImage holding the decoded {@code YCbCr} samples,
+     * without converting them to RGB.
+     * <p>
+     * The samples are read as a {@code Raster} and copied to their rotated and flipped position in a
+     * {@code BufferedImage} of the {@link JpegImageYCbCrColorSpace}. Images not stored as {@code YCbCr},
+     * such as grayscale, CMYK or Adobe RGB images, are read to an RGB image as by
+     * {@link #readImage(byte[], JpegImageOrientation, JpegImageBufferPool, JpegAutorotateCancellation)}.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every decoded scanline.
+     * @return If successful, an upright {@code BufferedImage} containing image data.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is unable to be read, or the read is cancelled.
+     */
+    protected static BufferedImage readYCbCr(final byte[] bytes, final JpegImageOrientation orientation, final JpegImageBufferPool pool,
+                                             final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        return readImage(bytes, orientation, Integer.MAX_VALUE, true, pool, cancellation);
+    }
+
+    /**
+     * Attempts to read JPEG file to a reduced resolution, upright BufferedImage.
+     * <p>
+     * Only every 2nd, 4th or 8th pixel of every 2nd, 4th or 8th row is decoded to the
+     * image, using the largest factor keeping its width or height at least {@code maxDimension}.
+     * The reduced image is rotated as it is decoded, like a full resolution one.
+     * </p>
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param maxDimension
+     *              Largest width or height needed from the image.
+     * @param pool
+     *              {@code JpegImageBufferPool} the image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every decoded scanline.
+     * @return If successful, an upright {@code BufferedImage} containing image data.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is unable to be read, or the read is cancelled.
+     */
+    protected static BufferedImage readPreview(final byte[] bytes, final JpegImageOrientation orientation, final int maxDimension,
+                                               final JpegImageBufferPool pool, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        return readImage(bytes, orientation, maxDimension, false, pool, cancellation);
+    }
+
+    private static BufferedImage readImage(final byte[] bytes, final JpegImageOrientation orientation, final int maxDimension, final boolean ycbcr,
+                                           final JpegImageBufferPool pool, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+             JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.DECODE)) {
+            ImageReader reader = getImageReader(iis);
+            // Returned to the pool on any failure, until handed to the caller or to JpegImageTransform.
+            BufferedImage image = null;
+            boolean handedOver = false;
+
+            try {
+                reader.setInput(iis, true, true);
+                reader.addIIOReadProgressListener(new JpegImageAbortListener(cancellation));
+
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), maxDimension);
+                int width = (reader.getWidth(0) + subsampling - 1) / subsampling;
+                int height = (reader.getHeight(0) + subsampling - 1) / subsampling;
+                ImageTypeSpecifier type = reader.getImageTypes(0).next();
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                timer.setDimensions(orientation.getTargetWidth(width, height), orientation.getTargetHeight(width, height))
+                        .setOrientation(orientation.getExifValue())
+                        .setInputBytes(bytes.length);
+
+                if (ycbcr && isYCbCr(reader)) {
+                    timer.setPath("ycbcr");
+                    Raster raster = reader.readRaster(0, param);
+                    cancellation.throwIfCancelled();
+
+                    image = pool.borrow(YCBCR_TYPE, orientation.getTargetWidth(width, height), orientation.getTargetHeight(width, height));
+                    JpegImageTransform.transformRaster(raster, image.getRaster(), orientation, cancellation);
+
+                    cancellation.throwIfCancelled();
+                    handedOver = true;
+                    return image;
+                }
+
+                if (!JpegImageOrientedSampleModel.canOrient(type.getSampleModel())) {
+                    timer.setPath("transform");
+                    image = pool.borrow(type, width, height);
+                    param.setDestination(image);
+                    reader.read(0, param);
+
+                    cancellation.throwIfCancelled();
+                    handedOver = true;
+                    return JpegImageTransform.transform(image, orientation, pool, cancellation);
+                }
+
+                timer.setPath("oriented");
+                image = pool.borrow(type, orientation.getTargetWidth(width, height), orientation.getTargetHeight(width, height));
+                param.setDestination(createOrientedView(image, orientation, width, height));
+                reader.read(0, param);
+
+                cancellation.throwIfCancelled();
+                handedOver = true;
+                return image;
+            } finally {
+                if (!handedOver) {
+                    pool.release(image);
+                }
+                reader.dispose();
+            }
         } catch (IOException e) {
             throw new JpegAutorotateException("Unable to read JPEG image.", e);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Attempts to find an {@code ImageReader} able to decode the image.
+     *
+     * @param iis
+     *              {@code ImageInputStream} containing a JPEG image file.
+     * @return If successful, an {@code ImageReader}.
+     * @throws JpegAutorotateException
+     *              In the event no {@code ImageReader} is available.
+     */
+    protected static ImageReader getImageReader(final ImageInputStream iis) throws JpegAutorotateException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+
+        if (!readers.hasNext()) {
+            throw new JpegAutorotateException("Unable to find a reader for JPEG image.");
+        }
+
+        return readers.next();
+    }
+
+    /**
+     * Determines if the image is stored as 3 {@code YCbCr} components, in which case
+     * {@link ImageReader#readRaster(int, ImageReadParam)} returns them unconverted.
+     */
+    private static boolean isYCbCr(final ImageReader reader) throws IOException {
+        IIOMetadataNode tree = (IIOMetadataNode) reader.getImageMetadata(0).getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        NodeList colorSpaceTypes = tree.getElementsByTagName("ColorSpaceType");
+        NodeList channels = tree.getElementsByTagName("NumChannels");
+
+        return colorSpaceTypes.getLength() > 0 && channels.getLength() > 0
+                && "YCbCr".equals(((IIOMetadataNode) colorSpaceTypes.item(0)).getAttribute("name"))
+                && "3".equals(((IIOMetadataNode) channels.item(0)).getAttribute("value"));
+    }
+
+    /**
+     * Determines the largest subsampling factor, out of 1, 2, 4 and 8, keeping the width or height
+     * of the image at least {@code maxDimension}.
+     */
+    private static int getSubsampling(final int width, final int height, final int maxDimension) {
+        int dimension = Math.max(width, height);
+        int subsampling = 8;
+
+        while (subsampling > 1 && (dimension + subsampling - 1) / subsampling < maxDimension) {
+            subsampling /= 2;
+        }
+
+        return subsampling;
+    }
+
+    /**
+     * Creates a {@code BufferedImage} of the stored dimensions sharing the pixel data of {@code image}.
+     * Pixels written to the view at their stored position land at their upright position in {@code image}.
+     *
+     * @param image
+     *              Upright {@code BufferedImage} receiving the pixels.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param width
+     *              Width of the stored image.
+     * @param height
+     *              Height of the stored image.
+     * @return A {@code BufferedImage} view to decode into.
+     */
+    private static BufferedImage createOrientedView(final BufferedImage image, final JpegImageOrientation orientation, final int width, final int height) {
+        WritableRaster raster = JpegImageOrientedSampleModel.createRaster(image.getRaster(), orientation, width, height);
+
+        return new BufferedImage(image.getColorModel(), raster, image.isAlphaPremultiplied(), null);
+    }
+
+    private static ImageTypeSpecifier createYCbCrType() {
+        ColorModel colorModel = new ComponentColorModel(JpegImageYCbCrColorSpace.getInstance(), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+        return new ImageTypeSpecifier(colorModel, colorModel.createCompatibleSampleModel(1, 1));
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Scales images down by area averaging.
+ * <p>
+ * Each target pixel is the average of the source pixels it covers, weighted by the covered area.
+ * Samples are averaged as stored, without any color conversion, so the result keeps the color
+ * model of the source. Weights are integers, making the result exact and independent of the
+ * raster layout.
+ * </p>
+ */
+final class JpegImageResizer {
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageResizer() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Determines the dimensions of an image scaled down to fit within a maximum dimension, keeping its aspect ratio.
+     *
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @param maxDimension
+     *              Largest width or height of the scaled image.
+     * @return The scaled {@code Dimension}, or the image dimensions if they already fit.
+     */
+    protected static Dimension getTargetSize(final int width, final int height, final int maxDimension) {
+        if (width <= maxDimension && height <= maxDimension) {
+            return new Dimension(width, height);
+        }
+
+        double scale = (double) maxDimension / Math.max(width, height);
+
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    /**
+     * Scales a {@code BufferedImage} down, abandoning it once {@code cancellation} is cancelled.
+     *
+     * @param image
+     *              A {@code BufferedImage} containing image data.
+     * @param width
+     *              Width of the scaled image, at most the width of {@code image}.
+     * @param height
+     *              Height of the scaled image, at most the height of {@code image}.
+     * @param pool
+     *              {@code JpegImageBufferPool} the scaled image is borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every source row.
+     * @return A {@code BufferedImage} containing scaled image data.
+     * @throws JpegAutorotateException
+     *              In the event the scaling is cancelled.
+     */
+    protected static BufferedImage resize(final BufferedImage image, final int width, final int height, final JpegImageBufferPool pool,
+                                          final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        if (width > image.getWidth() || height > image.getHeight()) {
+            throw new IllegalArgumentException("Images can only be scaled down.");
+        }
+
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.RESIZE)) {
+            BufferedImage target = pool.borrow(new ImageTypeSpecifier(image), width, height);
+            try {
+                resize(image.getRaster(), target.getRaster(), cancellation);
+            } catch (JpegAutorotateException | RuntimeException e) {
+                pool.release(target);
+                throw e;
+            }
+
+            timer.setDimensions(width, height);
+            return target;
+        }
+    }
+
+    /**
+     * Averages {@code source} into {@code target}, a row at a time. Source pixel {@code x} spans
+     * {@code [x * tw, (x + 1) * tw)} and target pixel {@code x} spans {@code [x * sw, (x + 1) * sw)},
+     * so every target pixel gathers a total weight of {@code sw}, and likewise vertically. Scaling
+     * down, a source pixel or row overlaps at most two target ones.
+     */
+    private static void resize(final Raster source, final WritableRaster target, final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        int sw = source.getWidth();
+        int sh = source.getHeight();
+        int tw = target.getWidth();
+        int th = target.getHeight();
+        int bands = source.getNumBands();
+        long area = (long) sw * sh;
+
+        // Target column and weight of each source column, with the remaining weight going to the next target column.
+        int[] columns = new int[sw];
+        long[] weights = new long[sw];
+        for (int x = 0; x < sw; x++) {
+            long position = (long) x * tw;
+            columns[x] = (int) (position / sw);
+            weights[x] = Math.min(tw, (long) (columns[x] + 1) * sw - position);
+        }
+
+        int[] row = new int[sw * bands];
+        long[] horizontal = new long[tw * bands];
+        long[] current = new long[tw * bands];
+        long[] next = new long[tw * bands];
+        int[] pixels = new int[tw * bands];
+        int ty = 0;
+
+        for (int sy = 0; sy < sh; sy++) {
+            cancellation.throwIfCancelled();
+            source.getPixels(source.getMinX(), source.getMinY() + sy, sw, 1, row);
+
+            Arrays.fill(horizontal, 0);
+            for (int x = 0, i = 0; x < sw; x++) {
+                int first = columns[x] * bands;
+                long weight = weights[x];
+                long remainder = tw - weight;
+
+                if (remainder == 0) {
+                    for (int b = 0; b < bands; b++, i++) {
+                        horizontal[first + b] += row[i] * weight;
+                    }
+                } else {
+                    for (int b = 0; b < bands; b++, i++) {
+                        horizontal[first + b] += row[i] * weight;
+                        horizontal[first + bands + b] += row[i] * remainder;
+                    }
+                }
+            }
+
+            long position = (long) sy * th;
+            long targetEnd = (long) (ty + 1) * sh;
+            long weight = Math.min(th, targetEnd - position);
+            long remainder = th - weight;
+
+            for (int i = 0; i < current.length; i++) {
+                current[i] += horizontal[i] * weight;
+                next[i] += horizontal[i] * remainder;
+            }
+
+            if (position + th >= targetEnd) {
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = (int) ((current[i] + area / 2) / area);
+                }
+                target.setPixels(target.getMinX(), target.getMinY() + ty, tw, 1, pixels);
+                ty++;
+
+                long[] swap = current;
+                current = next;
+                next = swap;
+                Arrays.fill(next, 0);
+            }
+        }
+    }
+
+}
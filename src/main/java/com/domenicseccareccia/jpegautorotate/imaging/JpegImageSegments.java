@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the marker segments of a JPEG image file.
+ */
+final class JpegImageSegments {
+
+    protected static final int MARKER_SOI = 0xFFD8;
+    protected static final int MARKER_EOI = 0xFFD9;
+    protected static final int MARKER_SOS = 0xFFDA;
+    protected static final int MARKER_DQT = 0xFFDB;
+    protected static final int MARKER_SOF0 = 0xFFC0;
+    protected static final int MARKER_DHT = 0xFFC4;
+    protected static final int MARKER_JPG = 0xFFC8;
+    protected static final int MARKER_DAC = 0xFFCC;
+    protected static final int MARKER_SOF15 = 0xFFCF;
+    protected static final int MARKER_APP0 = 0xFFE0;
+    protected static final int MARKER_APP1 = 0xFFE1;
+    protected static final int MARKER_APP2 = 0xFFE2;
+    protected static final int MARKER_APP15 = 0xFFEF;
+
+    private static final byte[] ICC_PROFILE_IDENTIFIER = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXIF_IDENTIFIER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageSegments() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * A marker segment, located by the offset of its marker within the JPEG image file.
+     */
+    protected static final class Segment {
+
+        private final int marker;
+        private final int offset;
+        private final int length;
+
+        private Segment(final int marker, final int offset, final int length) {
+            this.marker = marker;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        protected int getMarker() {
+            return this.marker;
+        }
+
+        /**
+         * @return Offset of the marker within the JPEG image file.
+         */
+        protected int getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * @return Offset of the segment data, following the marker and length.
+         */
+        protected int getDataOffset() {
+            return this.offset + 4;
+        }
+
+        /**
+         * @return Length of the segment, including marker and length.
+         */
+        protected int getLength() {
+            return this.length;
+        }
+
+    }
+
+    /**
+     * Attempts to read the marker segments of a JPEG image file, up to and including {@code SOS}.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @return If successful, the {@code Segment}s in file order.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static List<Segment> readSegments(final byte[] bytes) throws JpegAutorotateException {
+        if (bytes.length < 2 || readMarker(bytes, 0) != MARKER_SOI) {
+            throw new JpegAutorotateException("JPEG image does not start with a SOI marker.");
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        int offset = 2;
+
+        while (offset + 4 <= bytes.length) {
+            // Skip fill bytes preceding a marker
+            if ((bytes[offset] & 0xFF) == 0xFF && (bytes[offset + 1] & 0xFF) == 0xFF) {
+                offset++;
+                continue;
+            }
+
+            int marker = readMarker(bytes, offset);
+            if ((marker & 0xFF00) != 0xFF00 || marker == MARKER_EOI) {
+                break;
+            }
+
+            int length = 2 + readMarker(bytes, offset + 2);
+            if (offset + length > bytes.length) {
+                throw new JpegAutorotateException("JPEG image has a truncated marker segment.");
+            }
+
+            segments.add(new Segment(marker, offset, length));
+            if (marker == MARKER_SOS) {
+                break;
+            }
+
+            offset += length;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Attempts to read the header of a JPEG image file, that is every marker segment preceding
+     * the first {@code SOS}. The entropy coded image data is not read.
+     *
+     * @param is
+     *              {@code InputStream} containing a JPEG image file.
+     * @return If successful, a {@code byte[]} containing {@code SOI}, the header segments and {@code EOI}.
+     * @throws JpegAutorotateException
+     *              In the event the {@code is} is unable to be read or is not a JPEG image file.
+     */
+    protected static byte[] readHeader(final InputStream is) throws JpegAutorotateException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            DataInputStream dis = new DataInputStream(is);
+
+            if (dis.readUnsignedShort() != MARKER_SOI) {
+                throw new JpegAutorotateException("JPEG image does not start with a SOI marker.");
+            }
+            writeShort(baos, MARKER_SOI);
+
+            int marker = dis.readUnsignedShort();
+            while (marker != MARKER_SOS && marker != MARKER_EOI) {
+                if (marker == 0xFFFF) {
+                    marker = 0xFF00 | dis.readUnsignedByte();
+                    continue;
+                }
+
+                int length = dis.readUnsignedShort();
+                byte[] data = new byte[length - 2];
+                dis.readFully(data);
+
+                writeShort(baos, marker);
+                writeShort(baos, length);
+                baos.write(data);
+
+                marker = dis.readUnsignedShort();
+            }
+
+            writeShort(baos, MARKER_EOI);
+
+            return baos.toByteArray();
+        } catch (EOFException e) {
+            throw new JpegAutorotateException("JPEG image header is truncated.", e);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to read JPEG image header.", e);
+        }
+    }
+
+    /**
+     * Attempts to copy the metadata segments of a JPEG image file: every application segment
+     * except {@code APP0} and ICC profile {@code APP2} segments, which are written by the encoder.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @return If successful, a {@code byte[]} containing the complete metadata segments.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static byte[] getMetadataSegments(final byte[] bytes) throws JpegAutorotateException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        for (Segment segment : readSegments(bytes)) {
+            int marker = segment.getMarker();
+
+            if (marker > MARKER_APP0 && marker <= MARKER_APP15 && !isIccProfile(bytes, segment)) {
+                baos.write(bytes, segment.getOffset(), segment.getLength());
+            }
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Attempts to copy the first EXIF {@code APP1} segment of a JPEG image file.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @return If found, a {@code byte[]} containing the complete segment, marker and length included;
+     *         otherwise {@code null}.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static byte[] getExifSegment(final byte[] bytes) throws JpegAutorotateException {
+        for (Segment segment : readSegments(bytes)) {
+            if (isSegment(bytes, segment, MARKER_APP1, EXIF_IDENTIFIER)) {
+                return Arrays.copyOfRange(bytes, segment.getOffset(), segment.getOffset() + segment.getLength());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to write an EXIF {@code APP1} segment into a JPEG image file, replacing any existing one.
+     * The segment follows the {@code APP0} segment if the file starts with one, as JFIF requires;
+     * otherwise {@code SOI}.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file.
+     * @param exifSegment
+     *              {@code byte[]} containing the complete EXIF {@code APP1} segment.
+     * @return If successful, a {@code byte[]} containing the JPEG image file with the segment.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static byte[] writeExifSegment(final byte[] bytes, final byte[] exifSegment) throws JpegAutorotateException {
+        return insertSegments(bytes, exifSegment, true);
+    }
+
+    /**
+     * Attempts to write metadata segments, as copied by {@link #getMetadataSegments(byte[])}, into a JPEG image file.
+     * The segments follow the {@code APP0} segment if the file starts with one, as JFIF requires; otherwise {@code SOI}.
+     *
+     * @param bytes
+     *              {@code bytes} containing a JPEG image file without metadata segments.
+     * @param metadataSegments
+     *              {@code byte[]} containing the complete metadata segments.
+     * @return If successful, a {@code byte[]} containing the JPEG image file with the segments.
+     * @throws JpegAutorotateException
+     *              In the event the {@code bytes} is not a valid JPEG image file.
+     */
+    protected static byte[] writeMetadataSegments(final byte[] bytes, final byte[] metadataSegments) throws JpegAutorotateException {
+        return insertSegments(bytes, metadataSegments, false);
+    }
+
+    /**
+     * Inserts complete segments after a leading {@code APP0} segment, or {@code SOI}, optionally dropping existing EXIF segments.
+     */
+    private static byte[] insertSegments(final byte[] bytes, final byte[] inserted, final boolean replaceExif) throws JpegAutorotateException {
+        List<Segment> segments = readSegments(bytes);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length + inserted.length);
+        int offset = 2;
+
+        baos.write(bytes, 0, 2);
+        if (segments.isEmpty() || segments.get(0).getMarker() != MARKER_APP0) {
+            baos.write(inserted, 0, inserted.length);
+        }
+
+        for (Segment segment : segments) {
+            if (segment.getMarker() == MARKER_SOS) {
+                break;
+            }
+
+            if (!replaceExif || !isSegment(bytes, segment, MARKER_APP1, EXIF_IDENTIFIER)) {
+                baos.write(bytes, segment.getOffset(), segment.getLength());
+            }
+            if (segment == segments.get(0) && segment.getMarker() == MARKER_APP0) {
+                baos.write(inserted, 0, inserted.length);
+            }
+
+            offset = segment.getOffset() + segment.getLength();
+        }
+
+        baos.write(bytes, offset, bytes.length - offset);
+
+        return baos.toByteArray();
+    }
+
+    private static boolean isIccProfile(final byte[] bytes, final Segment segment) {
+        return isSegment(bytes, segment, MARKER_APP2, ICC_PROFILE_IDENTIFIER);
+    }
+
+    private static boolean isSegment(final byte[] bytes, final Segment segment, final int marker, final byte[] identifier) {
+        if (segment.getMarker() != marker || segment.getLength() < 4 + identifier.length) {
+            return false;
+        }
+
+        for (int i = 0; i < identifier.length; i++) {
+            if (bytes[segment.getDataOffset() + i] != identifier[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    protected static int readMarker(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static void writeShort(final ByteArrayOutputStream baos, final int value) {
+        baos.write((value >> 8) & 0xFF);
+        baos.write(value & 0xFF);
+    }
+
+}
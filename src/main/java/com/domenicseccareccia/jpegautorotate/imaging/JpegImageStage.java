@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+/**
+ * Enumeration of the stages an image goes through while being rotated.
+ */
+enum JpegImageStage {
+    METADATA_READ("Metadata read"),
+    DECODE("Decode"),
+    TRANSFORM("Transform"),
+    ICC_CONVERSION("ICC conversion"),
+    THUMBNAIL("Thumbnail"),
+    RESIZE("Resize"),
+    ENCODE("Encode"),
+    METADATA_WRITE("Metadata write");
+
+    private final String label;
+
+    JpegImageStage(final String label) {
+        this.label = label;
+    }
+
+    protected String getLabel() {
+        return this.label;
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of a completed {@code JpegImageStage}.
+ * <p>
+ * Only loaded by {@code JpegImageStageTimer} once JFR is known to be available.
+ * </p>
+ */
+@Name("com.domenicseccareccia.jpegautorotate.Stage")
+@Label("JPEG Autorotate Stage")
+@Description("A stage of rotating a JPEG image based on its EXIF Orientation")
+@Category("JPEG Autorotate")
+@StackTrace(false)
+class JpegImageStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Width")
+    @Description("Width of the image produced by the stage")
+    int width;
+
+    @Label("Height")
+    @Description("Height of the image produced by the stage")
+    int height;
+
+    @Label("Orientation")
+    @Description("EXIF Orientation metadata tag value of the image")
+    int orientation;
+
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Size")
+    @DataAmount
+    long outputBytes;
+
+    @Label("Path")
+    @Description("Code path taken by the stage")
+    String path;
+
+    protected static JpegImageStageEvent start() {
+        JpegImageStageEvent event = new JpegImageStageEvent();
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it, if a recording is interested in it.
+     *
+     * @param timer
+     *              The {@code JpegImageStageTimer} of the completed stage.
+     */
+    protected void complete(final JpegImageStageTimer timer) {
+        end();
+
+        if (shouldCommit()) {
+            this.stage = timer.getStage().getLabel();
+            this.width = timer.getWidth();
+            this.height = timer.getHeight();
+            this.orientation = timer.getOrientation();
+            this.inputBytes = timer.getInputBytes();
+            this.outputBytes = timer.getOutputBytes();
+            this.path = timer.getPath();
+            commit();
+        }
+    }
+
+}
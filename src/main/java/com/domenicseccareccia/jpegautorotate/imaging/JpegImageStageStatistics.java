@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram of one {@code JpegImageStage}, safe for concurrent updates.
+ */
+class JpegImageStageStatistics implements JpegImageStageStatisticsMXBean {
+
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a completion of the stage.
+     *
+     * @param nanos
+     *              Time spent in the stage, in nanoseconds.
+     */
+    protected void record(final long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && nanos > BUCKET_BOUNDS_MILLIS[bucket] * 1_000_000L) {
+            bucket++;
+        }
+
+        this.buckets.incrementAndGet(bucket);
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    protected void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+
+        this.count.reset();
+        this.totalNanos.reset();
+        this.maxNanos.set(0);
+    }
+
+    @Override
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    @Override
+    public double getTotalTimeMillis() {
+        return this.totalNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanTimeMillis() {
+        long count = this.count.sum();
+
+        return count == 0 ? 0 : this.totalNanos.sum() / NANOS_PER_MILLI / count;
+    }
+
+    @Override
+    public double getMaxTimeMillis() {
+        return this.maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMedianTimeMillis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getP95TimeMillis() {
+        return getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99TimeMillis() {
+        return getPercentileMillis(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            histogram.put(Long.toString(BUCKET_BOUNDS_MILLIS[i]), this.buckets.get(i));
+        }
+        histogram.put("+Inf", this.buckets.get(BUCKET_BOUNDS_MILLIS.length));
+
+        return histogram;
+    }
+
+    /**
+     * Determines the upper bound of the bucket holding a percentile; the maximum for the last bucket.
+     */
+    private double getPercentileMillis(final double percentile) {
+        long[] counts = new long[this.buckets.length()];
+        long total = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxTimeMillis());
+            }
+        }
+
+        return getMaxTimeMillis();
+    }
+
+}
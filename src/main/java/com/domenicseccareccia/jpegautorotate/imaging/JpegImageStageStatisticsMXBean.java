@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.util.Map;
+
+/**
+ * Management interface of the latency statistics of one {@code JpegImageStage}, registered as
+ * {@code com.domenicseccareccia.jpegautorotate:type=Stage,name=<stage>}, e.g. {@code name=MetadataRead}.
+ * <p>
+ * Latencies are counted in a histogram of fixed buckets, so percentiles are the upper bound
+ * of the bucket they fall in.
+ * </p>
+ */
+public interface JpegImageStageStatisticsMXBean {
+
+    /**
+     * @return Number of times the stage completed.
+     */
+    long getCount();
+
+    /**
+     * @return Total time spent in the stage, in milliseconds.
+     */
+    double getTotalTimeMillis();
+
+    /**
+     * @return Mean time spent in the stage, in milliseconds.
+     */
+    double getMeanTimeMillis();
+
+    /**
+     * @return Longest time spent in the stage, in milliseconds.
+     */
+    double getMaxTimeMillis();
+
+    /**
+     * @return Median time spent in the stage, in milliseconds.
+     */
+    double getMedianTimeMillis();
+
+    /**
+     * @return 95th percentile of the time spent in the stage, in milliseconds.
+     */
+    double getP95TimeMillis();
+
+    /**
+     * @return 99th percentile of the time spent in the stage, in milliseconds.
+     */
+    double getP99TimeMillis();
+
+    /**
+     * @return Number of times the stage completed within each bucket, keyed by the bucket
+     *         upper bound in milliseconds, or {@code +Inf}.
+     */
+    Map<String, Long> getHistogram();
+
+}
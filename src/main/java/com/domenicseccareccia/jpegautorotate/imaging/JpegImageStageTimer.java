@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+/**
+ * Times one {@code JpegImageStage} of rotating an image and reports it once closed.
+ * <p>
+ * Stage latencies are recorded in the {@code JpegImageStatistics}. Stages are also reported as
+ * Java Flight Recorder events when the runtime provides JFR. Events are only committed while a
+ * recording is running, so the cost is negligible otherwise.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.DECODE)) {
+ *     BufferedImage image = ...;
+ *     timer.setDimensions(image.getWidth(), image.getHeight());
+ * }
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+final class JpegImageStageTimer implements AutoCloseable {
+
+    private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+
+    private final JpegImageStage stage;
+    private final long startTime;
+    private final JpegImageStageEvent event;
+
+    private int width;
+    private int height;
+    private int orientation;
+    private long inputBytes;
+    private long outputBytes;
+    private String path;
+
+    private JpegImageStageTimer(final JpegImageStage stage) {
+        this.stage = stage;
+        this.startTime = System.nanoTime();
+        this.event = FLIGHT_RECORDER ? JpegImageStageEvent.start() : null;
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @param stage
+     *              The {@code JpegImageStage} being timed.
+     * @return A {@code JpegImageStageTimer}, to be closed once the stage completes.
+     */
+    protected static JpegImageStageTimer start(final JpegImageStage stage) {
+        return new JpegImageStageTimer(stage);
+    }
+
+    protected JpegImageStage getStage() {
+        return this.stage;
+    }
+
+    protected int getWidth() {
+        return this.width;
+    }
+
+    protected int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Sets the dimensions of the image produced by the stage.
+     *
+     * @param width
+     *              Width of the image.
+     * @param height
+     *              Height of the image.
+     * @return This {@code JpegImageStageTimer} instance.
+     */
+    protected JpegImageStageTimer setDimensions(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    protected int getOrientation() {
+        return this.orientation;
+    }
+
+    protected JpegImageStageTimer setOrientation(final int orientation) {
+        this.orientation = orientation;
+        return this;
+    }
+
+    protected long getInputBytes() {
+        return this.inputBytes;
+    }
+
+    protected JpegImageStageTimer setInputBytes(final long inputBytes) {
+        this.inputBytes = inputBytes;
+        return this;
+    }
+
+    protected long getOutputBytes() {
+        return this.outputBytes;
+    }
+
+    protected JpegImageStageTimer setOutputBytes(final long outputBytes) {
+        this.outputBytes = outputBytes;
+        return this;
+    }
+
+    protected String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Sets the code path taken by the stage, e.g. the encoder used.
+     *
+     * @param path
+     *              Name of the code path.
+     * @return This {@code JpegImageStageTimer} instance.
+     */
+    protected JpegImageStageTimer setPath(final String path) {
+        this.path = path;
+        return this;
+    }
+
+    /**
+     * Completes the stage and reports it.
+     */
+    @Override
+    public void close() {
+        JpegImageStatistics.getInstance().recordStage(this.stage, System.nanoTime() - this.startTime);
+
+        if (this.event != null) {
+            this.event.complete(this);
+        }
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+}
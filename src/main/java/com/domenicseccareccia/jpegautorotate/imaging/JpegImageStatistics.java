@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and resource statistics of the JPEG Autorotate engine.
+ * <p>
+ * A single instance is shared by every caller, and registered with the platform {@code MBeanServer}
+ * on first use, together with the latency statistics of each {@code JpegImageStage}. Registration
+ * failures, e.g. when another class loader already registered the library, leave the statistics
+ * collected but unregistered.
+ * </p>
+ */
+final class JpegImageStatistics implements JpegImageStatisticsMXBean {
+
+    private static final String DOMAIN = "com.domenicseccareccia.jpegautorotate";
+    private static final int RATE_SECONDS = 60;
+
+    private static final JpegImageStatistics INSTANCE = register(new JpegImageStatistics());
+
+    private final Map<JpegImageStage, JpegImageStageStatistics> stages = new EnumMap<>(JpegImageStage.class);
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    private final LongAdder rotated = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder inFlightImages = new LongAdder();
+    private final LongAdder inFlightPixels = new LongAdder();
+
+    private final long[] processedSeconds = new long[RATE_SECONDS];
+    private final long[] processedCounts = new long[RATE_SECONDS];
+
+    private JpegImageStatistics() {
+        for (JpegImageStage stage : JpegImageStage.values()) {
+            this.stages.put(stage, new JpegImageStageStatistics());
+        }
+    }
+
+    protected static JpegImageStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    protected void recordStage(final JpegImageStage stage, final long nanos) {
+        this.stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Records an image entering the engine.
+     */
+    protected void imageStarted() {
+        this.inFlightImages.increment();
+    }
+
+    /**
+     * Records pixels held in memory by an image being processed.
+     *
+     * @param pixels
+     *              Number of pixels.
+     */
+    protected void addInFlightPixels(final long pixels) {
+        this.inFlightPixels.add(pixels);
+    }
+
+    protected void imageRotated(final long inputBytes, final long outputBytes) {
+        this.rotated.increment();
+        this.inputBytes.add(inputBytes);
+        this.outputBytes.add(outputBytes);
+        recordProcessed();
+    }
+
+    protected void imageSkipped(final long inputBytes) {
+        this.skipped.increment();
+        this.inputBytes.add(inputBytes);
+        this.outputBytes.add(inputBytes);
+        recordProcessed();
+    }
+
+    /**
+     * Records an image which failed to be processed. The reason is the type of the underlying
+     * cause if any; otherwise the message, without any trailing value.
+     *
+     * @param e
+     *              The exception processing failed with.
+     */
+    protected void imageFailed(final Exception e) {
+        String reason;
+
+        if (e.getCause() != null) {
+            reason = e.getCause().getClass().getSimpleName();
+        } else if (e.getMessage() != null) {
+            int separator = e.getMessage().indexOf(':');
+            reason = (separator < 0 ? e.getMessage() : e.getMessage().substring(0, separator)).trim();
+        } else {
+            reason = e.getClass().getSimpleName();
+        }
+
+        this.failures.computeIfAbsent(reason, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records an image leaving the engine, processed or not.
+     *
+     * @param pixels
+     *              Number of pixels previously added by {@link #addInFlightPixels(long)}.
+     */
+    protected void imageFinished(final long pixels) {
+        this.inFlightPixels.add(-pixels);
+        this.inFlightImages.decrement();
+    }
+
+    @Override
+    public long getProcessedCount() {
+        return this.rotated.sum() + this.skipped.sum();
+    }
+
+    @Override
+    public long getRotatedCount() {
+        return this.rotated.sum();
+    }
+
+    @Override
+    public long getSkippedCount() {
+        return this.skipped.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        long count = 0;
+        for (LongAdder failure : this.failures.values()) {
+            count += failure.sum();
+        }
+
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getFailedCountByReason() {
+        Map<String, Long> failures = new TreeMap<>();
+        this.failures.forEach((reason, count) -> failures.put(reason, count.sum()));
+
+        return failures;
+    }
+
+    @Override
+    public synchronized double getProcessedPerSecond() {
+        long now = currentSecond();
+        long count = 0;
+
+        for (int i = 0; i < RATE_SECONDS; i++) {
+            if (now - this.processedSeconds[i] < RATE_SECONDS) {
+                count += this.processedCounts[i];
+            }
+        }
+
+        return (double) count / RATE_SECONDS;
+    }
+
+    @Override
+    public long getInputBytes() {
+        return this.inputBytes.sum();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return this.outputBytes.sum();
+    }
+
+    @Override
+    public long getInFlightImages() {
+        return this.inFlightImages.sum();
+    }
+
+    @Override
+    public double getInFlightMegapixels() {
+        return this.inFlightPixels.sum() / 1_000_000d;
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.stages.values().forEach(JpegImageStageStatistics::reset);
+        this.failures.clear();
+        this.rotated.reset();
+        this.skipped.reset();
+        this.inputBytes.reset();
+        this.outputBytes.reset();
+
+        for (int i = 0; i < RATE_SECONDS; i++) {
+            this.processedSeconds[i] = 0;
+            this.processedCounts[i] = 0;
+        }
+    }
+
+    /**
+     * Counts a processed image in the bucket of the current second, for the processing rate.
+     */
+    private synchronized void recordProcessed() {
+        long second = currentSecond();
+        int index = (int) (second % RATE_SECONDS);
+
+        if (this.processedSeconds[index] != second) {
+            this.processedSeconds[index] = second;
+            this.processedCounts[index] = 0;
+        }
+
+        this.processedCounts[index]++;
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static JpegImageStatistics register(final JpegImageStatistics statistics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(statistics, new ObjectName(DOMAIN + ":type=Engine"));
+
+            for (Map.Entry<JpegImageStage, JpegImageStageStatistics> stage : statistics.stages.entrySet()) {
+                String name = stage.getKey().getLabel().replace(" ", "");
+                server.registerMBean(stage.getValue(), new ObjectName(DOMAIN + ":type=Stage,name=" + name));
+            }
+        } catch (JMException | RuntimeException e) {
+            // Statistics are still collected, only not exposed
+        }
+
+        return statistics;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.util.Map;
+
+/**
+ * Management interface of the JPEG Autorotate engine statistics, registered as
+ * {@code com.domenicseccareccia.jpegautorotate:type=Engine}.
+ * <p>
+ * Counters accumulate since the engine was first used or last reset. Latencies of each
+ * stage are registered separately, see {@link JpegImageStageStatisticsMXBean}.
+ * </p>
+ */
+public interface JpegImageStatisticsMXBean {
+
+    /**
+     * @return Number of images processed successfully, rotated or skipped.
+     */
+    long getProcessedCount();
+
+    /**
+     * @return Number of images rotated.
+     */
+    long getRotatedCount();
+
+    /**
+     * @return Number of images skipped, being already properly oriented.
+     */
+    long getSkippedCount();
+
+    /**
+     * @return Number of images which failed to be processed.
+     */
+    long getFailedCount();
+
+    /**
+     * @return Number of images which failed to be processed, by reason.
+     */
+    Map<String, Long> getFailedCountByReason();
+
+    /**
+     * @return Number of images processed per second, averaged over the last minute.
+     */
+    double getProcessedPerSecond();
+
+    /**
+     * @return Number of bytes of JPEG image files read.
+     */
+    long getInputBytes();
+
+    /**
+     * @return Number of bytes of JPEG image files written.
+     */
+    long getOutputBytes();
+
+    /**
+     * @return Number of images being processed.
+     */
+    long getInFlightImages();
+
+    /**
+     * @return Number of megapixels held by images being processed.
+     */
+    double getInFlightMegapixels();
+
+    /**
+     * Resets every counter and stage latency histogram.
+     */
+    void reset();
+
+}
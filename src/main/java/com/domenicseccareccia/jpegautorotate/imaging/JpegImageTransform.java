@@ -21,32 +21,26 @@
 
 package com.domenicseccareccia.jpegautorotate.imaging;
 
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
 import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
-import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
 
+import javax.imageio.ImageTypeSpecifier;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 final class JpegImageTransform {
 
     /**
-     * Not intended for instantiation.
+     * Number of rows copied through {@code JpegImageKernels} between two cancellation checks.
      */
-    private JpegImageTransform() {
-        throw new IllegalStateException("Not intended for instantiation.");
-    }
+    private static final int KERNEL_ROWS = 32 * JpegImageKernels.BLOCK;
 
     /**
-     * Attempts to automatically rotate {@code JpegImage} {@code image}.
-     *
-     * @param jpegImage
-     *              An instance of {@code JpegImage}.
-     * @throws JpegAutorotateException
-     *              In the event the {@code JpegImage} is unable to be rotated.
+     * Not intended for instantiation.
      */
-    protected static void rotateImage(JpegImage jpegImage) throws JpegAutorotateException {
-        BufferedImage image = rotateAndFlip(jpegImage.getImage(), jpegImage.getMetadata().getOrientation());
-
-        jpegImage.setImage(image);
+    private JpegImageTransform() {
+        throw new IllegalStateException("Not intended for instantiation.");
     }
 
     /**
@@ -58,128 +52,148 @@ final class JpegImageTransform {
      *              In the event the {@code ExifThumbnail} image is unable to be rotated.
      */
     protected static void rotateThumbnail(JpegImageMetadata metadata) throws JpegAutorotateException {
-        BufferedImage bufferedImage = rotateAndFlip(metadata.getThumbnail(), metadata.getOrientation());
+        BufferedImage bufferedImage = transform(metadata.getThumbnail(), JpegImageOrientation.fromExifValue(metadata.getOrientation()));
 
         metadata.setThumbnail(bufferedImage);
     }
 
     /**
-     * Attempts to determine and process the transformation (rotate and flip) required for the {@code JpegImage}.
+     * Attempts to determine and process the transformation (rotate and flip) required for a {@code BufferedImage}.
      * Transformation is depends on the EXIF {@code Orientation} metadata tag value.
-     * <p>
-     * {@code JpegImage} may not contain the EXIF {@code Orientation} metadata tag.
-     * </p>
      *
      * @param image
      *              A {@code BufferedImage} containing image data.
      * @param orientation
-     *              A EXIF {@code Orientation} metadata tag value.
-     * @return If successful, a {@code BufferedImage} containing transformed image data.
-     * @throws JpegAutorotateException
-     *            In the event the {@code Orientation} value is unknown.
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @return A {@code BufferedImage} containing transformed image data.
      */
-    private static BufferedImage rotateAndFlip(BufferedImage image, final int orientation) throws JpegAutorotateException {
-        switch (orientation) {
-            case TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL:
-                flipHorizontally(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_ROTATE_180:
-                flipVertically(image);
-                flipHorizontally(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_MIRROR_VERTICAL:
-                flipVertically(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL_AND_ROTATE_270_CW:
-                image = rotate90CW(image);
-                flipHorizontally(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_ROTATE_90_CW:
-                image = rotate90CW(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_MIRROR_HORIZONTAL_AND_ROTATE_90_CW:
-                image = rotate90CCW(image);
-                flipHorizontally(image);
-                break;
-            case TiffTagConstants.ORIENTATION_VALUE_ROTATE_270_CW:
-                image = rotate90CCW(image);
-                break;
-            default:
-                throw new JpegAutorotateException("JPEG image has an unknown EXIF Orientation metadata tag value: " + orientation);
-        }
-
-        return image;
+    protected static BufferedImage transform(final BufferedImage image, final JpegImageOrientation orientation) {
+        return timedTransform(image, orientation, new JpegImageBufferPool(0), new JpegAutorotateCancellation());
     }
 
     /**
-     * Flips a {@code BufferedImage} vertically.
+     * Attempts to determine and process the transformation (rotate and flip) required for a {@code BufferedImage}.
+     * Transformation is depends on the EXIF {@code Orientation} metadata tag value.
+     * <p>
+     * Rotated images are borrowed from {@code pool}, and {@code image} is returned to it once rotated.
+     * If {@code cancellation} is cancelled, rows left are skipped and every image is returned to {@code pool},
+     * as they also are if the transformation fails.
+     * </p>
      *
      * @param image
      *              A {@code BufferedImage} containing image data.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param pool
+     *              {@code JpegImageBufferPool} rotated images are borrowed from.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every row.
+     * @return A {@code BufferedImage} containing transformed image data.
+     * @throws JpegAutorotateException
+     *              In the event the transformation is cancelled.
      */
-    private static void flipVertically(BufferedImage image) {
-        for (int i = 0; i < image.getHeight()/2; i++) {
-            int[] upperRow = image.getRGB(0, i, image.getWidth(), 1, null, 0, image.getWidth());
-            int[] lowerRow = image.getRGB(0, image.getHeight() - 1 - i, image.getWidth(), 1, null, 0, image.getWidth());
+    protected static BufferedImage transform(BufferedImage image, final JpegImageOrientation orientation, final JpegImageBufferPool pool,
+                                             final JpegAutorotateCancellation cancellation) throws JpegAutorotateException {
+        image = timedTransform(image, orientation, pool, cancellation);
 
-            image.setRGB(0, image.getHeight() - 1 - i, image.getWidth(), 1, upperRow, 0, image.getWidth());
-            image.setRGB(0,i, image.getWidth(), 1, lowerRow, 0, image.getWidth());
+        if (cancellation.isCancelled()) {
+            pool.release(image);
+            cancellation.throwIfCancelled();
         }
+
+        return image;
     }
 
-    /**
-     * Flips a {@code BufferedImage} horizontally.
-     *
-     * @param image
-     *              A {@code BufferedImage} containing image data.
-     */
-    private static void flipHorizontally(BufferedImage image) {
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth()/2; j++) {
-                int temp = image.getRGB(j, i);
+    private static BufferedImage timedTransform(BufferedImage image, final JpegImageOrientation orientation, final JpegImageBufferPool pool,
+                                                final JpegAutorotateCancellation cancellation) {
+        try (JpegImageStageTimer timer = JpegImageStageTimer.start(JpegImageStage.TRANSFORM)) {
+            image = transformImage(image, orientation, pool, cancellation);
+            timer.setDimensions(image.getWidth(), image.getHeight()).setOrientation(orientation.getExifValue());
 
-                image.setRGB(j, i, image.getRGB(image.getWidth()-(1+j), i));
-                image.setRGB(image.getWidth()-(1+j), i, temp);
-            }
+            return image;
         }
     }
 
     /**
-     * Rotates a {@code BufferedImage} 90 degrees clockwise.
-     *
-     * @param image
-     *              A {@code BufferedImage} containing image data.
-     * @return A {@code BufferedImage} rotated containing rotated image data.
+     * Copies {@code image} to its upright position in an image of the same type, borrowed from {@code pool}.
+     * {@code image} is returned to {@code pool} once copied.
      */
-    private static BufferedImage rotate90CW(BufferedImage image) {
-        BufferedImage tempImage = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
+    private static BufferedImage transformImage(final BufferedImage image, final JpegImageOrientation orientation, final JpegImageBufferPool pool,
+                                                final JpegAutorotateCancellation cancellation) {
+        if (orientation == JpegImageOrientation.HORIZONTAL_NORMAL) {
+            return image;
+        }
 
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                tempImage.setRGB(tempImage.getWidth()-1-i, j, image.getRGB(j, i));
-            }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage target = pool.borrow(new ImageTypeSpecifier(image), orientation.getTargetWidth(width, height), orientation.getTargetHeight(width, height));
+
+        try {
+            transformRaster(image.getRaster(), target.getRaster(), orientation, cancellation);
+        } catch (RuntimeException e) {
+            pool.release(target);
+            throw e;
+        } finally {
+            pool.release(image);
         }
 
-        return tempImage;
+        return target;
     }
 
     /**
-     * Rotates a {@code BufferedImage} 90 degrees counter clockwise.
+     * Copies the pixels of a {@code Raster} to their rotated and flipped position in {@code target}, as stored
+     * data elements, so any band count, sample size and layout is copied without color conversion.
+     * <p>
+     * Byte rasters of the same layout are copied as stored bytes by {@code JpegImageKernels}, other interleaved
+     * targets are written a row at a time through a {@code JpegImageOrientedSampleModel}, and others, such as
+     * packed or banded targets, a pixel at a time.
+     * </p>
      *
-     * @param image
-     *              A {@code BufferedImage} containing image data.
-     * @return A {@code BufferedImage} rotated containing rotated image data.
+     * @param source
+     *              {@code Raster} of the stored image.
+     * @param target
+     *              Upright {@code WritableRaster} of the same type.
+     * @param orientation
+     *              The {@code JpegImageOrientation} the image is stored in.
+     * @param cancellation
+     *              {@code JpegAutorotateCancellation} checked for every row.
      */
-    private static BufferedImage rotate90CCW(BufferedImage image) {
-        BufferedImage tempImage = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
+    protected static void transformRaster(final Raster source, final WritableRaster target, final JpegImageOrientation orientation,
+                                        final JpegAutorotateCancellation cancellation) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int minX = source.getMinX();
+        int minY = source.getMinY();
+
+        if (JpegImageOrientedSampleModel.canOrient(target.getSampleModel()) && target.getMinX() == 0 && target.getMinY() == 0
+                && target.getSampleModelTranslateX() == 0 && target.getSampleModelTranslateY() == 0) {
+            WritableRaster view = JpegImageOrientedSampleModel.createRaster(target, orientation, width, height);
+            JpegImageOrientedSampleModel sampleModel = (JpegImageOrientedSampleModel) view.getSampleModel();
+
+            if (sampleModel.canCopyRows(source, view.getDataBuffer())) {
+                for (int y = 0; y < height && !cancellation.isCancelled(); y += KERNEL_ROWS) {
+                    sampleModel.copyRows(source, y, Math.min(KERNEL_ROWS, height - y), view.getDataBuffer());
+                }
+                return;
+            }
+
+            Object row = null;
 
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                tempImage.setRGB(i, tempImage.getHeight()-1-j, image.getRGB(j, i));
+            for (int y = 0; y < height && !cancellation.isCancelled(); y++) {
+                row = source.getDataElements(minX, minY + y, width, 1, row);
+                view.setDataElements(0, y, width, 1, row);
             }
+            return;
         }
 
-        return tempImage;
+        Object pixel = null;
+        for (int y = 0; y < height && !cancellation.isCancelled(); y++) {
+            for (int x = 0; x < width; x++) {
+                pixel = source.getDataElements(minX + x, minY + y, pixel);
+                target.setDataElements(target.getMinX() + orientation.getTargetX(x, y, width, height),
+                        target.getMinY() + orientation.getTargetY(x, y, width, height), pixel);
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+/**
+ * Vector API kernels of {@link JpegImageKernels}, which are never available before Java 17.
+ * <p>
+ * The multi-release jar replaces this class on Java 17 or later with one moving pixels through
+ * {@code jdk.incubator.vector}, when that module is added to the runtime.
+ * </p>
+ */
+final class JpegImageVectorKernels {
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageVectorKernels() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Determines if the Vector API kernels can be used.
+     *
+     * @return {@code true} if the kernels are available.
+     */
+    protected static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Copies the leading pixels of a row in reverse order, as {@link JpegImageKernels#reverse(byte[], int, byte[], int, int, int)} does.
+     *
+     * @param source
+     *              Array holding the source row.
+     * @param sourceOffset
+     *              Index of the first byte of the source row.
+     * @param target
+     *              Array receiving the reversed row.
+     * @param targetOffset
+     *              Index of the first byte of the target row.
+     * @param width
+     *              Number of pixels in the row.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     * @return The number of leading source pixels copied.
+     */
+    protected static int reverse(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset, final int width,
+                                 final int pixelStride) {
+        return 0;
+    }
+
+    /**
+     * Copies a block of {@link JpegImageKernels#BLOCK} rows of {@link JpegImageKernels#BLOCK} pixels to columns of the target,
+     * with the target pixels of a source column in ascending order.
+     *
+     * @param source
+     *              Array holding the source rows.
+     * @param sourceOffset
+     *              Index of the first byte of the block.
+     * @param sourceStride
+     *              Number of bytes between the start of two source rows.
+     * @param target
+     *              Array receiving the pixels.
+     * @param targetOffset
+     *              Index of the first byte of the target pixel of the first pixel of the block.
+     * @param targetXStep
+     *              Number of bytes between the target pixels of two adjacent source pixels of a row.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     * @return {@code true} if the block was copied.
+     */
+    protected static boolean transpose(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                       final int targetOffset, final int targetXStep, final int pixelStride) {
+        return false;
+    }
+
+}
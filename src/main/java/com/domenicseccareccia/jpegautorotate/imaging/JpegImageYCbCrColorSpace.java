@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import java.awt.color.ColorSpace;
+
+/**
+ * The JFIF {@code YCbCr} color space, full range, as defined by ITU-T T.871.
+ * <p>
+ * Lets decoded {@code YCbCr} samples be held in a {@code BufferedImage} as they are, without
+ * converting them to RGB. Components are normalized to {@code [0, 1]}, with {@code Cb} and
+ * {@code Cr} centered on {@code 0.5}.
+ * </p>
+ */
+final class JpegImageYCbCrColorSpace extends ColorSpace {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JpegImageYCbCrColorSpace INSTANCE = new JpegImageYCbCrColorSpace();
+
+    private JpegImageYCbCrColorSpace() {
+        super(ColorSpace.TYPE_YCbCr, 3);
+    }
+
+    protected static JpegImageYCbCrColorSpace getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public float[] toRGB(final float[] colorvalue) {
+        float y = colorvalue[0];
+        float cb = colorvalue[1] - 0.5f;
+        float cr = colorvalue[2] - 0.5f;
+
+        return new float[] {
+                clamp(y + 1.402f * cr),
+                clamp(y - 0.344136f * cb - 0.714136f * cr),
+                clamp(y + 1.772f * cb)
+        };
+    }
+
+    @Override
+    public float[] fromRGB(final float[] rgbvalue) {
+        float red = rgbvalue[0];
+        float green = rgbvalue[1];
+        float blue = rgbvalue[2];
+
+        return new float[] {
+                clamp(0.299f * red + 0.587f * green + 0.114f * blue),
+                clamp(-0.168736f * red - 0.331264f * green + 0.5f * blue + 0.5f),
+                clamp(0.5f * red - 0.418688f * green - 0.081312f * blue + 0.5f)
+        };
+    }
+
+    @Override
+    public float[] toCIEXYZ(final float[] colorvalue) {
+        return ColorSpace.getInstance(ColorSpace.CS_sRGB).toCIEXYZ(toRGB(colorvalue));
+    }
+
+    @Override
+    public float[] fromCIEXYZ(final float[] colorvalue) {
+        return fromRGB(ColorSpace.getInstance(ColorSpace.CS_sRGB).fromCIEXYZ(colorvalue));
+    }
+
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
+    private static float clamp(final float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.service;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An embedded HTTP service rotating JPEG images, on the JDK's {@code com.sun.net.httpserver}.
+ * <p>
+ * {@code POST /rotate} with a JPEG image as request body responds with the upright image, as returned by
+ * {@link JpegAutorotate#rotate(InputStream, JpegAutorotateOptions)}, or {@code 422 Unprocessable Entity} if
+ * it is unable to be rotated, and {@code 500 Internal Server Error} on an unexpected failure. {@code GET /stats} responds with request counts, bytes and latencies as JSON.
+ * </p>
+ * <p>
+ * Images are rotated by a fixed number of workers. Other admitted requests wait for a worker, up to a
+ * number of queued requests, holding their request body. Each admitted request holds its {@code Content-Length},
+ * or the maximum request size if unknown, of an in-flight byte budget until it is rotated. Requests exceeding
+ * either limit are answered at once with {@code 429 Too Many Requests} and a {@code Retry-After} header, without
+ * reading their body, and requests larger than the maximum request size with {@code 413 Payload Too Large}.
+ * With {@link JpegAutorotateOptions#setBandedProcessing(boolean) banded processing}, request bodies are spooled
+ * to temporary files and upright images streamed back in chunks as they are encoded, so memory use is bounded
+ * by the band size instead of the image size. Streamed requests hold their admission until the upright image
+ * is written, where others release it before writing their response. A failure once the upright image started streaming ends the
+ * response early, leaving the image without its {@code EOI} marker.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * try (JpegAutorotateServer server = new JpegAutorotateServer(new InetSocketAddress(8080))
+ *         .setWorkers(4)
+ *         .setMaxInFlightBytes(512L * 1024 * 1024)) {
+ *     server.start();
+ *     ...
+ * }
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateServer implements AutoCloseable {
+
+    private static final String ROTATE_PATH = "/rotate";
+    private static final String STATS_PATH = "/stats";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Size of the largest array most virtual machines allocate, bounding bodies read into memory.
+     */
+    private static final long MAX_ARRAY_BYTES = Integer.MAX_VALUE - 8;
+
+    private final InetSocketAddress address;
+    private JpegAutorotateOptions options = new JpegAutorotateOptions();
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int maxQueuedRequests = -1;
+    private long maxInFlightBytes = 256L * 1024 * 1024;
+    private long maxRequestBytes = 64L * 1024 * 1024;
+
+    private final JpegServerStatistics statistics = new JpegServerStatistics();
+    private HttpServer server;
+    private ExecutorService executor;
+    private Semaphore workerPermits;
+
+    /**
+     * @param address
+     *              {@code InetSocketAddress} to listen on, with port 0 for any free port.
+     */
+    public JpegAutorotateServer(final InetSocketAddress address) {
+        if (address == null) {
+            throw new IllegalArgumentException("Address must not be null.");
+        }
+
+        this.address = address;
+    }
+
+    public JpegAutorotateOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Sets the options every image is rotated with. Leave their cancellation unset, as it would apply to every request.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateServer} instance.
+     */
+    public JpegAutorotateServer setOptions(final JpegAutorotateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null.");
+        }
+
+        this.options = options;
+        return this;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Sets the number of images rotated at once. Defaults to the number of available processors. Each image is
+     * rotated with the parallelism of the options, so lower {@link JpegAutorotateOptions#setThreads(int)} along.
+     *
+     * @param workers
+     *              Number of workers, at least 1.
+     * @return This {@code JpegAutorotateServer} instance.
+     */
+    public JpegAutorotateServer setWorkers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1.");
+        }
+
+        this.workers = workers;
+        return this;
+    }
+
+    public int getMaxQueuedRequests() {
+        return this.maxQueuedRequests < 0 ? 4 * this.workers : this.maxQueuedRequests;
+    }
+
+    /**
+     * Sets the number of admitted requests waiting for a worker, beyond which requests are rejected.
+     * Defaults to 4 times the number of workers.
+     *
+     * @param maxQueuedRequests
+     *              Number of requests, at least 0.
+     * @return This {@code JpegAutorotateServer} instance.
+     */
+    public JpegAutorotateServer setMaxQueuedRequests(final int maxQueuedRequests) {
+        if (maxQueuedRequests < 0) {
+            throw new IllegalArgumentException("Max queued requests must be at least 0.");
+        }
+
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public long getMaxInFlightBytes() {
+        return this.maxInFlightBytes;
+    }
+
+    /**
+     * Sets the request bytes held at once by admitted requests, beyond which requests are rejected.
+     * Defaults to 256 MiB. Decoding an image takes several times its compressed size, which this budget bounds
+     * along with the number of workers.
+     *
+     * @param maxInFlightBytes
+     *              Number of bytes, at least 1.
+     * @return This {@code JpegAutorotateServer} instance.
+     */
+    public JpegAutorotateServer setMaxInFlightBytes(final long maxInFlightBytes) {
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("Max in-flight bytes must be at least 1.");
+        }
+
+        this.maxInFlightBytes = maxInFlightBytes;
+        return this;
+    }
+
+    public long getMaxRequestBytes() {
+        return this.maxRequestBytes;
+    }
+
+    /**
+     * Sets the size of the largest request body accepted. Defaults to 64 MiB. Requests without a
+     * {@code Content-Length} hold this size of the in-flight byte budget. Without banded processing, bodies
+     * are read into an array, so those over {@code Integer.MAX_VALUE - 8} bytes are refused whatever this size.
+     *
+     * @param maxRequestBytes
+     *              Number of bytes, at least 1.
+     * @return This {@code JpegAutorotateServer} instance.
+     */
+    public JpegAutorotateServer setMaxRequestBytes(final long maxRequestBytes) {
+        if (maxRequestBytes < 1) {
+            throw new IllegalArgumentException("Max request bytes must be at least 1.");
+        }
+
+        this.maxRequestBytes = maxRequestBytes;
+        return this;
+    }
+
+    /**
+     * @return The {@code InetSocketAddress} listened on once started, with the port bound, or the address given otherwise.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.server == null ? this.address : this.server.getAddress();
+    }
+
+    /**
+     * Attempts to start listening, handling requests on daemon threads.
+     *
+     * @throws JpegAutorotateException
+     *              In the event the address is unable to be bound.
+     */
+    public synchronized void start() throws JpegAutorotateException {
+        if (this.server != null) {
+            throw new IllegalStateException("Server is already started.");
+        }
+
+        try {
+            this.server = HttpServer.create(this.address, 0);
+        } catch (IOException e) {
+            throw new JpegAutorotateException("Unable to start server.", e);
+        }
+
+        // Connections are handled on threads of their own, so rejected requests are answered without waiting for a worker
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "jpeg-autorotate-http");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.workerPermits = new Semaphore(this.workers, true);
+        this.server.setExecutor(this.executor);
+        this.server.createContext(ROTATE_PATH, this::handleRotate);
+        this.server.createContext(STATS_PATH, this::handleStats);
+        this.server.start();
+    }
+
+    /**
+     * Stops listening, answering the requests in progress for up to a second.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.server != null) {
+            this.server.stop(1);
+            this.executor.shutdown();
+        }
+    }
+
+    private void handleRotate(final HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals(ROTATE_PATH)) {
+                sendText(exchange, 404, "Not found.");
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Method not allowed.");
+                return;
+            }
+
+            this.statistics.requestReceived();
+            long maxRequestBytes = Math.min(this.maxRequestBytes, this.maxInFlightBytes);
+            if (!this.options.isBandedProcessing()) {
+                maxRequestBytes = Math.min(maxRequestBytes, MAX_ARRAY_BYTES);
+            }
+            long length = getContentLength(exchange);
+            if (length > maxRequestBytes) {
+                this.statistics.requestTooLarge();
+                sendRejection(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes.");
+                return;
+            }
+
+            long reserved = length < 0 ? maxRequestBytes : length;
+            if (!this.statistics.tryAdmit(reserved, this.workers + getMaxQueuedRequests(), this.maxInFlightBytes)) {
+                this.statistics.requestRejected();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendRejection(exchange, 429, "Too many requests in flight.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            long[] transferred = {0, -1};
+            boolean finished = true;
+            AtomicBoolean admitted = new AtomicBoolean(true);
+            Runnable release = () -> {
+                if (admitted.getAndSet(false)) {
+                    this.statistics.requestReleased(reserved);
+                }
+            };
+            try {
+                finished = rotate(exchange, length, maxRequestBytes, release, transferred);
+            } finally {
+                release.run();
+                if (finished) {
+                    this.statistics.requestFinished(transferred[0], transferred[1], System.nanoTime() - start);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Reads the request body, waits for a worker and responds with the upright image.
+     * <p>
+     * The admission is released before writing a response held in memory, so a slow client only holds its
+     * connection. Streamed images are written as they are encoded, holding the admission until written.
+     * </p>
+     *
+     * @param release
+     *              Releases the admission of the request, at most once.
+     * @param transferred
+     *              Number of bytes read from the request and written to the response, updated as they are.
+     * @return {@code false} if the body turned out larger than {@code maxRequestBytes}, the request only counting
+     *              as too large; {@code true} otherwise.
+     */
+    private boolean rotate(final HttpExchange exchange, final long length, final long maxRequestBytes, final Runnable release,
+                           final long[] transferred) throws IOException {
+        Path spooled = null;
+
+        try {
+            byte[] bytes = null;
+            if (this.options.isBandedProcessing()) {
+                spooled = Files.createTempFile("jpeg-autorotate", ".jpg");
+                try (OutputStream os = Files.newOutputStream(spooled)) {
+                    transferred[0] = copy(exchange.getRequestBody(), os, maxRequestBytes);
+                }
+            } else {
+                bytes = readBody(exchange.getRequestBody(), length, maxRequestBytes);
+                transferred[0] = bytes.length;
+            }
+
+            if (transferred[0] > maxRequestBytes) {
+                release.run();
+                this.statistics.requestTooLarge();
+                sendRejection(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes.");
+                return false;
+            }
+
+            byte[] rotated;
+            this.workerPermits.acquire();
+            try {
+                if (spooled != null) {
+                    // Flushed only once rotated, so a failure within the first buffer is still answered with an error
+                    ChunkedResponse response = new ChunkedResponse(exchange);
+                    OutputStream os = new BufferedOutputStream(response, STREAM_BUFFER_SIZE);
+                    JpegAutorotate.rotate(spooled.toFile(), os, this.options);
+                    os.flush();
+                    transferred[1] = response.written;
+                    return true;
+                }
+
+                rotated = JpegAutorotate.rotate(new ByteArrayInputStream(bytes), this.options);
+            } finally {
+                this.workerPermits.release();
+            }
+
+            release.run();
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, rotated.length);
+            exchange.getResponseBody().write(rotated);
+            transferred[1] = rotated.length;
+        } catch (JpegAutorotateCancelledException e) {
+            release.run();
+            sendError(exchange, 503, e.getMessage());
+        } catch (JpegAutorotateException e) {
+            release.run();
+            sendError(exchange, 422, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release.run();
+            sendText(exchange, 503, "Server is shutting down.");
+        } catch (RuntimeException e) {
+            release.run();
+            sendError(exchange, 500, "Unable to rotate JPEG image.");
+        } finally {
+            if (spooled != null) {
+                Files.deleteIfExists(spooled);
+            }
+        }
+
+        return true;
+    }
+
+    private void handleStats(final HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals(STATS_PATH)) {
+                sendText(exchange, 404, "Not found.");
+            } else if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, "Method not allowed.");
+            } else {
+                byte[] json = this.statistics.toJson().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, json.length);
+                exchange.getResponseBody().write(json);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return The {@code Content-Length} of the request, or -1 if unknown.
+     */
+    private static long getContentLength(final HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        try {
+            return length == null ? -1 : Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a request body of a known length into an array of that size, or of an unknown length up to one byte
+     * more than {@code maxBytes}.
+     */
+    private static byte[] readBody(final InputStream is, final long length, final long maxBytes) throws IOException {
+        if (length < 0) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            copy(is, os, maxBytes);
+            return os.toByteArray();
+        }
+
+        byte[] bytes = new byte[(int) length];
+        for (int offset = 0, read; offset < bytes.length; offset += read) {
+            read = is.read(bytes, offset, bytes.length - offset);
+            if (read < 0) {
+                throw new EOFException("Request body ended early.");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies a request body, up to one byte more than {@code maxBytes}.
+     *
+     * @return Number of bytes copied.
+     */
+    private static long copy(final InputStream is, final OutputStream os, final long maxBytes) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long copied = 0;
+
+        for (int read; copied <= maxBytes && (read = is.read(buffer, 0, (int) Math.min(buffer.length, maxBytes + 1 - copied))) >= 0; ) {
+            os.write(buffer, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+
+    /**
+     * Responds to a request left unread, closing the connection rather than reading the rest of its body.
+     */
+    private static void sendRejection(final HttpExchange exchange, final int status, final String message) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        sendText(exchange, status, message);
+    }
+
+    /**
+     * Responds with an error, unless the response was already started by a streamed image, in which case the
+     * connection is closed with the response incomplete.
+     */
+    private static void sendError(final HttpExchange exchange, final int status, final String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendText(exchange, status, message);
+        }
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String message) throws IOException {
+        byte[] bytes = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Response body sent in chunks, started by the first bytes written, so failures before are answered with an error.
+     */
+    private static final class ChunkedResponse extends OutputStream {
+
+        private final HttpExchange exchange;
+        private long written;
+
+        private ChunkedResponse(final HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (this.exchange.getResponseCode() == -1) {
+                this.exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+                this.exchange.sendResponseHeaders(200, 0);
+            }
+            this.exchange.getResponseBody().write(b, off, len);
+            this.written += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.exchange.getResponseCode() != -1) {
+                this.exchange.getResponseBody().flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.service;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request statistics of a {@code JpegAutorotateServer}, served as JSON by its statistics endpoint.
+ */
+final class JpegServerStatistics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tooLarge = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLong inFlightRequests = new AtomicLong();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    protected void requestReceived() {
+        this.requests.increment();
+    }
+
+    /**
+     * Records a request turned away with {@code 429 Too Many Requests}.
+     */
+    protected void requestRejected() {
+        this.rejected.increment();
+    }
+
+    /**
+     * Records a request turned away with {@code 413 Payload Too Large}.
+     */
+    protected void requestTooLarge() {
+        this.tooLarge.increment();
+    }
+
+    /**
+     * Attempts to admit a request, holding {@code bytes} of the in-flight budget until it is released.
+     *
+     * @param bytes
+     *              Number of bytes the request holds.
+     * @param maxRequests
+     *              Maximum number of requests in flight.
+     * @param maxBytes
+     *              Maximum number of bytes in flight.
+     * @return {@code true} if admitted.
+     */
+    protected boolean tryAdmit(final long bytes, final long maxRequests, final long maxBytes) {
+        if (this.inFlightRequests.incrementAndGet() > maxRequests) {
+            this.inFlightRequests.decrementAndGet();
+            return false;
+        }
+
+        for (long current = this.inFlightBytes.get(); ; current = this.inFlightBytes.get()) {
+            if (current + bytes > maxBytes) {
+                this.inFlightRequests.decrementAndGet();
+                return false;
+            }
+            if (this.inFlightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the share of the in-flight budget held by an admitted request.
+     *
+     * @param bytes
+     *              Number of bytes the request held.
+     */
+    protected void requestReleased(final long bytes) {
+        this.inFlightBytes.addAndGet(-bytes);
+        this.inFlightRequests.decrementAndGet();
+    }
+
+    /**
+     * Records an admitted request as finished, once answered.
+     *
+     * @param inputBytes
+     *              Number of bytes read from the request.
+     * @param outputBytes
+     *              Number of bytes written to the response, or -1 if the request failed.
+     * @param nanos
+     *              Time from admission to completion, in nanoseconds.
+     */
+    protected void requestFinished(final long inputBytes, final long outputBytes, final long nanos) {
+        this.inputBytes.add(inputBytes);
+
+        if (outputBytes < 0) {
+            this.failed.increment();
+        } else {
+            this.completed.increment();
+            this.outputBytes.add(outputBytes);
+        }
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    protected long getInFlightRequests() {
+        return this.inFlightRequests.get();
+    }
+
+    protected long getInFlightBytes() {
+        return this.inFlightBytes.get();
+    }
+
+    protected String toJson() {
+        long finished = this.completed.sum() + this.failed.sum();
+        double meanMillis = finished == 0 ? 0 : this.totalNanos.sum() / (double) finished / TimeUnit.MILLISECONDS.toNanos(1);
+
+        return "{\"requests\":" + this.requests.sum()
+                + ",\"completed\":" + this.completed.sum()
+                + ",\"failed\":" + this.failed.sum()
+                + ",\"rejected\":" + this.rejected.sum()
+                + ",\"tooLarge\":" + this.tooLarge.sum()
+                + ",\"inFlightRequests\":" + getInFlightRequests()
+                + ",\"inFlightBytes\":" + getInFlightBytes()
+                + ",\"inputBytes\":" + this.inputBytes.sum()
+                + ",\"outputBytes\":" + this.outputBytes.sum()
+                + ",\"meanLatencyMillis\":" + String.format(Locale.ROOT, "%.3f", meanMillis)
+                + ",\"maxLatencyMillis\":" + String.format(Locale.ROOT, "%.3f", this.maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1))
+                + "}";
+    }
+
+}
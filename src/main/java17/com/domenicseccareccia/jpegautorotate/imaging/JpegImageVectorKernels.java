@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernels of {@link JpegImageKernels}, moving pixels 128 or 256 bits at a time.
+ * <p>
+ * Only available when the {@code jdk.incubator.vector} module is added to the runtime, e.g. with
+ * {@code --add-modules jdk.incubator.vector}, and the hardware has vectors of at least 256 bits.
+ * Vector types are only referenced by {@link Vectors}, which is never loaded otherwise.
+ * </p>
+ */
+final class JpegImageVectorKernels {
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && Vectors.isSupported();
+
+    /**
+     * Not intended for instantiation.
+     */
+    private JpegImageVectorKernels() {
+        throw new IllegalStateException("Not intended for instantiation.");
+    }
+
+    /**
+     * Determines if the Vector API kernels can be used.
+     *
+     * @return {@code true} if the kernels are available.
+     */
+    protected static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Copies the leading pixels of a row in reverse order, as {@link JpegImageKernels#reverse(byte[], int, byte[], int, int, int)} does.
+     *
+     * @param source
+     *              Array holding the source row.
+     * @param sourceOffset
+     *              Index of the first byte of the source row.
+     * @param target
+     *              Array receiving the reversed row.
+     * @param targetOffset
+     *              Index of the first byte of the target row.
+     * @param width
+     *              Number of pixels in the row.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     * @return The number of leading source pixels copied.
+     */
+    protected static int reverse(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset, final int width,
+                                 final int pixelStride) {
+        if (!AVAILABLE) {
+            return 0;
+        }
+
+        switch (pixelStride) {
+            case 3:
+                return Vectors.reverse3(source, sourceOffset, target, targetOffset, width);
+            case 4:
+                return Vectors.reverse4(source, sourceOffset, target, targetOffset, width);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Copies a block of {@link JpegImageKernels#BLOCK} rows of {@link JpegImageKernels#BLOCK} pixels to columns of the target,
+     * with the target pixels of a source column in ascending order.
+     * <p>
+     * Blocks of 3 byte pixels read the 4 bytes following each source row of the block, and overwrite the 4 bytes
+     * following each target column of the block.
+     * </p>
+     *
+     * @param source
+     *              Array holding the source rows.
+     * @param sourceOffset
+     *              Index of the first byte of the block.
+     * @param sourceStride
+     *              Number of bytes between the start of two source rows.
+     * @param target
+     *              Array receiving the pixels.
+     * @param targetOffset
+     *              Index of the first byte of the target pixel of the first pixel of the block.
+     * @param targetXStep
+     *              Number of bytes between the target pixels of two adjacent source pixels of a row.
+     * @param pixelStride
+     *              Number of bytes in a pixel.
+     * @return {@code true} if the block was copied.
+     */
+    protected static boolean transpose(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                       final int targetOffset, final int targetXStep, final int pixelStride) {
+        if (!AVAILABLE || (pixelStride != 3 && pixelStride != 4)) {
+            return false;
+        }
+
+        Vectors.transpose(source, sourceOffset, sourceStride, target, targetOffset, targetXStep, pixelStride);
+        return true;
+    }
+
+    /**
+     * Kernels over 256 bit vectors reversing rows, and 128 bit vectors transposing blocks of 4 x 4 pixels, which keeps
+     * each transpose small enough to be compiled without boxing its vectors. 3 byte pixels are expanded to 4 bytes.
+     */
+    private static final class Vectors {
+
+        private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_256;
+        private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+        private static final VectorSpecies<Byte> BLOCK_BYTES = ByteVector.SPECIES_128;
+        private static final VectorSpecies<Integer> BLOCK_INTS = IntVector.SPECIES_128;
+
+        /**
+         * Number of 3 byte pixels fitting in a vector, leaving its 2 lowest lanes unused once reversed.
+         */
+        private static final int PIXELS3 = 10;
+
+        private static final VectorShuffle<Integer> REVERSE4 = VectorShuffle.fromOp(INTS, i -> 7 - i);
+        private static final VectorShuffle<Byte> REVERSE3 = VectorShuffle.fromOp(BYTES, Vectors::reverse3Lane);
+        private static final VectorShuffle<Byte> EXPAND3 = VectorShuffle.fromOp(BLOCK_BYTES, i -> i % 4 == 3 ? 0 : i / 4 * 3 + i % 4);
+        private static final VectorShuffle<Byte> COMPRESS3 = VectorShuffle.fromOp(BLOCK_BYTES, i -> i < 12 ? i / 3 * 4 + i % 3 : 0);
+
+        // Butterfly stages of a 4 x 4 transpose, exchanging lanes 1 and 2 apart between pairs of rows.
+        private static final VectorShuffle<Integer> UP1 = VectorShuffle.fromOp(BLOCK_INTS, i -> (i & 1) != 0 ? i - 1 : i);
+        private static final VectorShuffle<Integer> UP2 = VectorShuffle.fromOp(BLOCK_INTS, i -> (i & 2) != 0 ? i - 2 : i);
+        private static final VectorShuffle<Integer> DOWN1 = VectorShuffle.fromOp(BLOCK_INTS, i -> (i & 1) == 0 ? i + 1 : i);
+        private static final VectorShuffle<Integer> DOWN2 = VectorShuffle.fromOp(BLOCK_INTS, i -> (i & 2) == 0 ? i + 2 : i);
+        private static final VectorMask<Integer> ODD1 = VectorMask.fromLong(BLOCK_INTS, 0b1010);
+        private static final VectorMask<Integer> ODD2 = VectorMask.fromLong(BLOCK_INTS, 0b1100);
+
+        private static boolean isSupported() {
+            return ByteVector.SPECIES_PREFERRED.vectorBitSize() >= BYTES.vectorBitSize();
+        }
+
+        private static int reverse3Lane(final int lane) {
+            if (lane < 2) {
+                return 0;
+            }
+
+            int pixel = (lane - 2) / 3;
+            return (PIXELS3 - 1 - pixel) * 3 + (lane - 2) % 3;
+        }
+
+        private static int reverse4(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset, final int width) {
+            int x = 0;
+
+            for (; x + 8 <= width; x += 8) {
+                ByteVector.fromArray(BYTES, source, sourceOffset + x * 4).reinterpretAsInts()
+                        .rearrange(REVERSE4).reinterpretAsBytes()
+                        .intoArray(target, targetOffset + (width - x - 8) * 4);
+            }
+
+            return x;
+        }
+
+        /**
+         * Reverses 10 pixels per vector, storing them in its upper 30 bytes. The 2 lower bytes land on the
+         * target pixel of the next source pixel, so a pixel is always left for the caller to copy.
+         */
+        private static int reverse3(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset, final int width) {
+            int x = 0;
+
+            for (; x + PIXELS3 + 1 <= width; x += PIXELS3) {
+                ByteVector.fromArray(BYTES, source, sourceOffset + x * 3)
+                        .rearrange(REVERSE3)
+                        .intoArray(target, targetOffset + (width - x - PIXELS3) * 3 - 2);
+            }
+
+            return x;
+        }
+
+        /**
+         * Transposes the 4 quadrants of a block, the lower quadrant of a column of quadrants last, so it
+         * overwrites the bytes following the upper one.
+         */
+        private static void transpose(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                      final int targetOffset, final int targetXStep, final int pixelStride) {
+            for (int x = 0; x < JpegImageKernels.BLOCK; x += 4) {
+                for (int y = 0; y < JpegImageKernels.BLOCK; y += 4) {
+                    int s = sourceOffset + y * sourceStride + x * pixelStride;
+                    int t = targetOffset + x * targetXStep + y * pixelStride;
+
+                    if (pixelStride == 3) {
+                        transpose3(source, s, sourceStride, target, t, targetXStep);
+                    } else {
+                        transpose4(source, s, sourceStride, target, t, targetXStep);
+                    }
+                }
+            }
+        }
+
+        private static void transpose4(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                       final int targetOffset, final int targetXStep) {
+            IntVector v0 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset).reinterpretAsInts();
+            IntVector v1 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + sourceStride).reinterpretAsInts();
+            IntVector v2 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + 2 * sourceStride).reinterpretAsInts();
+            IntVector v3 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + 3 * sourceStride).reinterpretAsInts();
+
+            IntVector t0 = v0.blend(v1.rearrange(UP1), ODD1);
+            IntVector t1 = v0.rearrange(DOWN1).blend(v1, ODD1);
+            IntVector t2 = v2.blend(v3.rearrange(UP1), ODD1);
+            IntVector t3 = v2.rearrange(DOWN1).blend(v3, ODD1);
+
+            t0.blend(t2.rearrange(UP2), ODD2).reinterpretAsBytes().intoArray(target, targetOffset);
+            t1.blend(t3.rearrange(UP2), ODD2).reinterpretAsBytes().intoArray(target, targetOffset + targetXStep);
+            t0.rearrange(DOWN2).blend(t2, ODD2).reinterpretAsBytes().intoArray(target, targetOffset + 2 * targetXStep);
+            t1.rearrange(DOWN2).blend(t3, ODD2).reinterpretAsBytes().intoArray(target, targetOffset + 3 * targetXStep);
+        }
+
+        /**
+         * Transposes 4 x 4 pixels of 3 bytes, read and written 16 bytes at a time, so the 4 bytes following each
+         * row of the quadrant are read, and the 4 bytes following each target column are overwritten.
+         */
+        private static void transpose3(final byte[] source, final int sourceOffset, final int sourceStride, final byte[] target,
+                                       final int targetOffset, final int targetXStep) {
+            IntVector v0 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset).rearrange(EXPAND3).reinterpretAsInts();
+            IntVector v1 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + sourceStride).rearrange(EXPAND3).reinterpretAsInts();
+            IntVector v2 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + 2 * sourceStride).rearrange(EXPAND3).reinterpretAsInts();
+            IntVector v3 = ByteVector.fromArray(BLOCK_BYTES, source, sourceOffset + 3 * sourceStride).rearrange(EXPAND3).reinterpretAsInts();
+
+            IntVector t0 = v0.blend(v1.rearrange(UP1), ODD1);
+            IntVector t1 = v0.rearrange(DOWN1).blend(v1, ODD1);
+            IntVector t2 = v2.blend(v3.rearrange(UP1), ODD1);
+            IntVector t3 = v2.rearrange(DOWN1).blend(v3, ODD1);
+
+            t0.blend(t2.rearrange(UP2), ODD2).reinterpretAsBytes().rearrange(COMPRESS3).intoArray(target, targetOffset);
+            t1.blend(t3.rearrange(UP2), ODD2).reinterpretAsBytes().rearrange(COMPRESS3).intoArray(target, targetOffset + targetXStep);
+            t0.rearrange(DOWN2).blend(t2, ODD2).reinterpretAsBytes().rearrange(COMPRESS3).intoArray(target, targetOffset + 2 * targetXStep);
+            t1.rearrange(DOWN2).blend(t3, ODD2).reinterpretAsBytes().rearrange(COMPRESS3).intoArray(target, targetOffset + 3 * targetXStep);
+        }
+
+    }
+
+}
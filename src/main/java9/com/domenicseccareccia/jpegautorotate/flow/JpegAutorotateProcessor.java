@@ -0,0 +1,437 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.flow;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@code Flow.Processor} rotating a stream of JPEG images, published as {@link JpegAutorotateResult}s to a
+ * single subscriber, in the order of their sources or as soon as each is rotated.
+ * <p>
+ * Sources are requested from upstream one at a time, only while fewer than a maximum number of images and of
+ * source bytes are in flight, from the time each source is received until its result is delivered. Images are
+ * rotated concurrently on an {@code Executor}, and results are only delivered as the subscriber requests them,
+ * so a slow subscriber holds back upstream instead of letting results pile up. An image larger than the byte
+ * limit is still admitted when nothing else is in flight. Images unable to be rotated are delivered as failed
+ * results, and do not end the stream. Upstream completion or failure is signalled once every result in flight
+ * is delivered.
+ * </p>
+ * <p>
+ * Sources are only requested once a subscriber subscribes. The subscriber cancelling its subscription cancels
+ * the upstream subscription, and images being rotated are discarded.
+ * </p>
+ * <dl>
+ * <dt><b>Usage:</b></dt>
+ * <dd>
+ * <pre>
+ * JpegAutorotateProcessor processor = new JpegAutorotateProcessor()
+ *         .setOrdered(false)
+ *         .setMaxInFlight(8)
+ *         .setMaxInFlightBytes(128L * 1024 * 1024);
+ *
+ * publisher.subscribe(processor);
+ * processor.subscribe(subscriber);
+ * </pre>
+ * </dd>
+ * </dl>
+ */
+public final class JpegAutorotateProcessor implements Flow.Processor<JpegAutorotateSource, JpegAutorotateResult> {
+
+    private JpegAutorotateOptions options = new JpegAutorotateOptions();
+    private Executor executor = ForkJoinPool.commonPool();
+    private boolean ordered = true;
+    private int maxInFlight = Runtime.getRuntime().availableProcessors();
+    private long maxInFlightBytes = 256L * 1024 * 1024;
+
+    private final Object lock = new Object();
+    private final AtomicInteger drainers = new AtomicInteger();
+    private final Map<Long, JpegAutorotateResult> rotated = new HashMap<>();
+    private final Queue<JpegAutorotateResult> completed = new ArrayDeque<>();
+    private Flow.Subscription upstream;
+    private boolean subscribed;
+    private Flow.Subscriber<? super JpegAutorotateResult> downstream;
+    private long demand;
+    private boolean requested;
+    private boolean upstreamDone;
+    private Throwable error;
+    private Throwable requestError;
+    private boolean cancelled;
+    private boolean terminated;
+    private long received;
+    private long delivered;
+    private int inFlight;
+    private long inFlightBytes;
+
+    public JpegAutorotateOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Sets the options every image is rotated with.
+     *
+     * @param options
+     *              {@code JpegAutorotateOptions} controlling the processing.
+     * @return This {@code JpegAutorotateProcessor} instance.
+     */
+    public JpegAutorotateProcessor setOptions(final JpegAutorotateOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null.");
+        }
+
+        this.options = options;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Sets the {@code Executor} images are rotated on. Defaults to the common {@code ForkJoinPool}.
+     *
+     * @param executor
+     *              {@code Executor} rotating images.
+     * @return This {@code JpegAutorotateProcessor} instance.
+     */
+    public JpegAutorotateProcessor setExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+
+        this.executor = executor;
+        return this;
+    }
+
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * Delivers results in the order their sources were received. Otherwise, results are delivered as soon as
+     * rotated, so a large image does not hold back the smaller ones after it. Defaults to {@code true}.
+     *
+     * @param ordered
+     *              {@code true} to deliver results in order.
+     * @return This {@code JpegAutorotateProcessor} instance.
+     */
+    public JpegAutorotateProcessor setOrdered(final boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Sets the number of images received but not yet delivered, whether being rotated or waiting for demand.
+     * Defaults to the number of available processors.
+     *
+     * @param maxInFlight
+     *              Number of images, at least 1.
+     * @return This {@code JpegAutorotateProcessor} instance.
+     */
+    public JpegAutorotateProcessor setMaxInFlight(final int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be at least 1.");
+        }
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public long getMaxInFlightBytes() {
+        return this.maxInFlightBytes;
+    }
+
+    /**
+     * Sets the source bytes of the images received but not yet delivered, beyond which no more sources are
+     * requested. Defaults to 256 MiB.
+     *
+     * @param maxInFlightBytes
+     *              Number of bytes, at least 1.
+     * @return This {@code JpegAutorotateProcessor} instance.
+     */
+    public JpegAutorotateProcessor setMaxInFlightBytes(final long maxInFlightBytes) {
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("Max in-flight bytes must be at least 1.");
+        }
+
+        this.maxInFlightBytes = maxInFlightBytes;
+        return this;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super JpegAutorotateResult> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+
+        synchronized (this.lock) {
+            if (this.subscribed) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(final long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Processor already has a subscriber."));
+                return;
+            }
+            this.subscribed = true;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(final long n) {
+                synchronized (JpegAutorotateProcessor.this.lock) {
+                    if (n <= 0) {
+                        JpegAutorotateProcessor.this.requestError = new IllegalArgumentException("Requested items must be positive.");
+                    } else {
+                        long total = JpegAutorotateProcessor.this.demand + n;
+                        JpegAutorotateProcessor.this.demand = total < 0 ? Long.MAX_VALUE : total;
+                    }
+                }
+                if (n <= 0) {
+                    cancelUpstream();
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (JpegAutorotateProcessor.this.lock) {
+                    JpegAutorotateProcessor.this.cancelled = true;
+                    JpegAutorotateProcessor.this.rotated.clear();
+                    JpegAutorotateProcessor.this.completed.clear();
+                }
+                cancelUpstream();
+            }
+        });
+
+        synchronized (this.lock) {
+            this.downstream = subscriber;
+        }
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        boolean accepted;
+
+        synchronized (this.lock) {
+            accepted = this.upstream == null && !this.cancelled;
+            if (accepted) {
+                this.upstream = subscription;
+            }
+        }
+
+        if (accepted) {
+            drain();
+        } else {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onNext(final JpegAutorotateSource source) {
+        long index;
+
+        synchronized (this.lock) {
+            if (this.upstreamDone || this.cancelled) {
+                return;
+            }
+
+            index = this.received++;
+            this.requested = false;
+            this.inFlight++;
+            this.inFlightBytes += source.getSize();
+        }
+
+        try {
+            this.executor.execute(() -> complete(rotate(source, index)));
+        } catch (RejectedExecutionException e) {
+            complete(new JpegAutorotateResult(source, index, null, new JpegAutorotateException("Rotation rejected by executor.", e)));
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        synchronized (this.lock) {
+            if (this.upstreamDone) {
+                return;
+            }
+            this.upstreamDone = true;
+            this.error = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this.lock) {
+            this.upstreamDone = true;
+        }
+        drain();
+    }
+
+    /**
+     * Rotates an image, turning any failure into a failed result, as every source in flight must complete
+     * for the stream to end.
+     */
+    private JpegAutorotateResult rotate(final JpegAutorotateSource source, final long index) {
+        try (InputStream is = source.openStream()) {
+            return new JpegAutorotateResult(source, index, JpegAutorotate.rotate(is, this.options), null);
+        } catch (JpegAutorotateException e) {
+            return new JpegAutorotateResult(source, index, null, e);
+        } catch (IOException e) {
+            return new JpegAutorotateResult(source, index, null, new JpegAutorotateException("Unable to read image source.", e));
+        } catch (Throwable e) {
+            return new JpegAutorotateResult(source, index, null, new JpegAutorotateException("Unable to rotate image.", e));
+        }
+    }
+
+    private void complete(final JpegAutorotateResult result) {
+        synchronized (this.lock) {
+            if (this.cancelled) {
+                return;
+            }
+            if (this.ordered) {
+                this.rotated.put(result.getIndex(), result);
+            } else {
+                this.completed.add(result);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * @return The next result deliverable, or {@code null} if none.
+     */
+    private JpegAutorotateResult poll() {
+        if (!this.ordered) {
+            return this.completed.poll();
+        }
+
+        JpegAutorotateResult result = this.rotated.remove(this.delivered);
+        if (result != null) {
+            this.delivered++;
+        }
+        return result;
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription;
+
+        synchronized (this.lock) {
+            subscription = this.upstream;
+            this.upstreamDone = true;
+        }
+
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Delivers the results the subscriber requested, signals termination and requests the next source, on
+     * one thread at a time, so the subscriber is never signalled concurrently.
+     */
+    private void drain() {
+        if (this.drainers.getAndIncrement() != 0) {
+            return;
+        }
+
+        for (int missed = 1; missed != 0; missed = this.drainers.addAndGet(-missed)) {
+            while (true) {
+                Flow.Subscriber<? super JpegAutorotateResult> subscriber;
+                Flow.Subscription request = null;
+                JpegAutorotateResult result = null;
+                Throwable failure = null;
+                boolean terminate = false;
+
+                synchronized (this.lock) {
+                    subscriber = this.downstream;
+                    if (subscriber == null || this.terminated || this.cancelled) {
+                        break;
+                    }
+
+                    // Non-positive requests end the stream at once, as required of subscriptions
+                    if (this.requestError == null && this.demand > 0) {
+                        result = poll();
+                    }
+                    if (result != null) {
+                        this.demand--;
+                        this.inFlight--;
+                        this.inFlightBytes -= result.getSource().getSize();
+                    } else if (this.requestError != null || this.upstreamDone && this.inFlight == 0) {
+                        this.terminated = true;
+                        terminate = true;
+                        failure = this.requestError != null ? this.requestError : this.error;
+                    }
+
+                    if (!this.requested && !this.upstreamDone && this.upstream != null
+                            && this.inFlight < this.maxInFlight && (this.inFlight == 0 || this.inFlightBytes < this.maxInFlightBytes)) {
+                        this.requested = true;
+                        request = this.upstream;
+                    }
+                }
+
+                if (terminate) {
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    break;
+                }
+
+                if (result != null) {
+                    subscriber.onNext(result);
+                }
+                if (request != null) {
+                    request.request(1);
+                } else if (result == null) {
+                    break;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.flow;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateException;
+
+/**
+ * The outcome of rotating a {@link JpegAutorotateSource}: either the upright image, or the reason it was unable
+ * to be rotated.
+ */
+public final class JpegAutorotateResult {
+
+    private final JpegAutorotateSource source;
+    private final long index;
+    private final byte[] image;
+    private final JpegAutorotateException failure;
+
+    JpegAutorotateResult(final JpegAutorotateSource source, final long index, final byte[] image, final JpegAutorotateException failure) {
+        this.source = source;
+        this.index = index;
+        this.image = image;
+        this.failure = failure;
+    }
+
+    public JpegAutorotateSource getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return Position of the source in the stream of sources received by the processor, starting at 0.
+     */
+    public long getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return Bytes of the upright JPEG image, or {@code null} if unable to be rotated.
+     */
+    public byte[] getImage() {
+        return this.image;
+    }
+
+    /**
+     * @return The {@code JpegAutorotateException} the source was unable to be rotated with, or {@code null}.
+     */
+    public JpegAutorotateException getFailure() {
+        return this.failure;
+    }
+
+    public boolean isSuccessful() {
+        return this.failure == null;
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.flow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A JPEG image to be rotated by a {@link JpegAutorotateProcessor}, held in memory or read from a file.
+ */
+public final class JpegAutorotateSource {
+
+    private final byte[] bytes;
+    private final Path path;
+    private long size = -1;
+
+    private JpegAutorotateSource(final byte[] bytes, final Path path) {
+        this.bytes = bytes;
+        this.path = path;
+    }
+
+    /**
+     * @param bytes
+     *              Bytes of the JPEG image, not to be modified until rotated.
+     * @return A {@code JpegAutorotateSource} of the bytes.
+     */
+    public static JpegAutorotateSource of(final byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Bytes must not be null.");
+        }
+
+        return new JpegAutorotateSource(bytes, null);
+    }
+
+    /**
+     * @param path
+     *              {@code Path} of the JPEG image file, read once the image is rotated.
+     * @return A {@code JpegAutorotateSource} of the file.
+     */
+    public static JpegAutorotateSource of(final Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null.");
+        }
+
+        return new JpegAutorotateSource(null, path);
+    }
+
+    /**
+     * @return {@code Path} of the JPEG image file, or {@code null} if held in memory.
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return Size of the JPEG image in bytes, as first read, or 0 if the file is unable to be read.
+     */
+    public synchronized long getSize() {
+        if (this.size < 0) {
+            try {
+                this.size = this.bytes != null ? this.bytes.length : Files.size(this.path);
+            } catch (IOException e) {
+                this.size = 0;
+            }
+        }
+
+        return this.size;
+    }
+
+    InputStream openStream() throws IOException {
+        return this.bytes != null ? new ByteArrayInputStream(this.bytes) : Files.newInputStream(this.path);
+    }
+
+}
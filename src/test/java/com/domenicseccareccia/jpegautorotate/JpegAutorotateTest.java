@@ -21,6 +21,7 @@
 
 package com.domenicseccareccia.jpegautorotate;
 
+import com.domenicseccareccia.jpegautorotate.imaging.JpegImageBufferPool;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
@@ -34,9 +35,15 @@ import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 
 import javax.imageio.ImageIO;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -69,6 +76,7 @@ class JpegAutorotateTest {
     private static final String IPHONE_GPS_RESULT = "src/test/resources/exif/result_iphone_gps.jpg";
     private static final String NIKON_XMP = "src/test/resources/exif/nikon_xmp.jpg";
     private static final String NIKON_XMP_RESULT = "src/test/resources/exif/result_nikon_xmp.jpg";
+    private static final String YCCK_ORIENTATION_6 = "src/test/resources/color/ycck_orientation_6.jpg";
 
     @Test
     void testRotateExceptions() throws Exception{
@@ -146,6 +154,308 @@ class JpegAutorotateTest {
         testRotateAndFlipImage(NIKON_XMP, NIKON_XMP_RESULT);
     }
 
+    @Test
+    void testRotateParallelEncoding() throws Exception {
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setParallelEncoding(true).setThreads(4);
+
+        testSimilarImage(ORIENTATION_2, ORIENTATION_2_RESULT, options);
+        testSimilarImage(ORIENTATION_3, ORIENTATION_3_RESULT, options);
+        testSimilarImage(ORIENTATION_5, ORIENTATION_5_RESULT, options);
+        testSimilarImage(ORIENTATION_6, ORIENTATION_6_RESULT, options);
+        testSimilarImage(ORIENTATION_8, ORIENTATION_8_RESULT, options);
+        testSimilarImage(CANON_HDR, CANON_HDR_RESULT, options);
+        testSimilarImage(IPHONE_GPS, IPHONE_GPS_RESULT, options);
+    }
+
+    @Test
+    void testRotateYCbCrProcessing() throws Exception {
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setParallelEncoding(true).setYCbCrProcessing(true);
+
+        testSimilarImage(CANON_HDR, CANON_HDR_RESULT, options);
+        testSimilarImage(IPHONE_GPS, IPHONE_GPS_RESULT, options);
+
+        // Images with an ICC profile are processed as RGB
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6, new JpegAutorotateOptions().setParallelEncoding(true)), JpegAutorotate.rotate(ORIENTATION_6, options));
+    }
+
+    @Test
+    void testRotateCmyk() throws Exception {
+        Raster original = ImageIO.read(new File(YCCK_ORIENTATION_6)).getRaster();
+
+        for (JpegAutorotateOptions options : new JpegAutorotateOptions[] {new JpegAutorotateOptions(), new JpegAutorotateOptions().setParallelEncoding(true)}) {
+            Raster rotated = ImageIO.read(new ByteArrayInputStream(JpegAutorotate.rotate(YCCK_ORIENTATION_6, options))).getRaster();
+
+            assertEquals(4, rotated.getNumBands());
+            assertEquals(original.getHeight(), rotated.getWidth());
+            assertEquals(original.getWidth(), rotated.getHeight());
+
+            // Rotated 90 degrees clockwise, without converting the CMYK samples
+            long difference = 0;
+            for (int y = 0; y < original.getHeight(); y++) {
+                for (int x = 0; x < original.getWidth(); x++) {
+                    for (int b = 0; b < 4; b++) {
+                        difference += Math.abs(original.getSample(x, y, b) - rotated.getSample(original.getHeight() - 1 - y, x, b));
+                    }
+                }
+            }
+            assertTrue(difference < 2L * original.getWidth() * original.getHeight() * 4);
+        }
+    }
+
+    @Test
+    void testRotateConcurrentStages() throws Exception {
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setConcurrentStages(true);
+
+        // Joining the thumbnail and metadata processed alongside the main image produces the same file
+        for (String path : new String[] {ORIENTATION_1, ORIENTATION_5, ORIENTATION_6, CANON_HDR, IPHONE_GPS}) {
+            assertArrayEquals(JpegAutorotate.rotate(path), JpegAutorotate.rotate(path, options));
+        }
+
+        assertThrows(JpegAutorotateException.class, () -> JpegAutorotate.rotate(NO_EXIF, options));
+    }
+
+    @Test
+    void testRotateOptimizeHuffmanTables() throws Exception {
+        for (boolean parallelEncoding : new boolean[] {false, true}) {
+            byte[] standard = JpegAutorotate.rotate(CANON_HDR, new JpegAutorotateOptions().setParallelEncoding(parallelEncoding));
+            byte[] optimized = JpegAutorotate.rotate(CANON_HDR, new JpegAutorotateOptions().setParallelEncoding(parallelEncoding).setOptimizeHuffmanTables(true));
+
+            assertTrue(optimized.length < standard.length);
+
+            // Only the entropy coding differs, both decode to the same pixels
+            BufferedImage standardImage = ImageIO.read(new ByteArrayInputStream(standard));
+            BufferedImage optimizedImage = ImageIO.read(new ByteArrayInputStream(optimized));
+            int width = standardImage.getWidth();
+            int height = standardImage.getHeight();
+
+            assertEquals(width, optimizedImage.getWidth());
+            assertEquals(height, optimizedImage.getHeight());
+            assertArrayEquals(standardImage.getRGB(0, 0, width, height, null, 0, width), optimizedImage.getRGB(0, 0, width, height, null, 0, width));
+            assertNotNull(Imaging.getMetadata(optimized));
+        }
+    }
+
+    @Test
+    void testRotatePreserveCompression() throws Exception {
+        long original = new File(CANON_HDR).length();
+
+        for (boolean parallelEncoding : new boolean[] {false, true}) {
+            JpegAutorotateOptions options = new JpegAutorotateOptions().setParallelEncoding(parallelEncoding).setPreserveCompression(true);
+            byte[] preserved = JpegAutorotate.rotate(CANON_HDR, options);
+
+            // Encoded with the quantization tables of the original, the size stays close to the original
+            assertTrue(Math.abs(preserved.length - original) < original / 20);
+            assertTrue(preserved.length > JpegAutorotate.rotate(CANON_HDR, new JpegAutorotateOptions().setParallelEncoding(parallelEncoding)).length);
+            testSimilarImage(CANON_HDR, CANON_HDR_RESULT, preserved);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new JpegAutorotateOptions().setChromaSubsampling(4, 4));
+        assertThrows(IllegalArgumentException.class, () -> new JpegAutorotateOptions().setQuantizationTables());
+    }
+
+    @Test
+    void testRotateRenditions() throws Exception {
+        List<JpegAutorotateRendition> renditions = Arrays.asList(
+                new JpegAutorotateRendition(64).setKeepMetadata(false),
+                new JpegAutorotateRendition(200).setQuality(0.9f));
+
+        List<byte[]> images = JpegAutorotate.rotate(new File(ORIENTATION_6), renditions, new JpegAutorotateOptions());
+        assertEquals(3, images.size());
+
+        // The original comes first, as rotated without renditions
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6), images.get(0));
+
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(images.get(0)));
+        for (int i = 0; i < renditions.size(); i++) {
+            BufferedImage rendition = ImageIO.read(new ByteArrayInputStream(images.get(i + 1)));
+            int maxDimension = renditions.get(i).getMaxDimension();
+
+            assertEquals(maxDimension, Math.max(rendition.getWidth(), rendition.getHeight()));
+            assertEquals(original.getWidth() > original.getHeight(), rendition.getWidth() > rendition.getHeight());
+        }
+
+        // Renditions not keeping metadata have no EXIF
+        assertNull(Imaging.getMetadata(images.get(1)));
+        assertNotNull(((JpegImageMetadata) Imaging.getMetadata(images.get(2))).getExif());
+
+        assertThrows(IllegalArgumentException.class, () -> new JpegAutorotateRendition(0));
+    }
+
+    @Test
+    void testRotatePreview() throws Exception {
+        for (String path : new String[] {ORIENTATION_1, ORIENTATION_6, CANON_HDR}) {
+            BufferedImage rotated = ImageIO.read(new ByteArrayInputStream(JpegAutorotate.rotate(path)));
+            BufferedImage preview = ImageIO.read(new ByteArrayInputStream(JpegAutorotate.rotatePreview(new File(path), 256, new JpegAutorotateOptions())));
+
+            // Upright and scaled down to fit, keeping the aspect ratio
+            assertEquals(256, Math.max(preview.getWidth(), preview.getHeight()));
+            assertEquals(Math.round(256.0 * Math.min(rotated.getWidth(), rotated.getHeight()) / Math.max(rotated.getWidth(), rotated.getHeight())),
+                    Math.min(preview.getWidth(), preview.getHeight()));
+            assertEquals(rotated.getWidth() > rotated.getHeight(), preview.getWidth() > preview.getHeight());
+        }
+
+        assertThrows(JpegAutorotateException.class, () -> JpegAutorotate.rotatePreview(new File(NO_EXIF), 256, new JpegAutorotateOptions()));
+        assertThrows(IllegalArgumentException.class, () -> JpegAutorotate.rotatePreview(new File(ORIENTATION_6), 0, new JpegAutorotateOptions()));
+    }
+
+    @Test
+    void testRotateThumbnail() throws Exception {
+        // Rotated by 90 degrees, the 160x120 thumbnail becomes 120x160
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(JpegAutorotate.rotateThumbnail(new File(CANON_HDR), new JpegAutorotateOptions())));
+        assertEquals(120, thumbnail.getWidth());
+        assertEquals(160, thumbnail.getHeight());
+
+        thumbnail = ImageIO.read(new ByteArrayInputStream(JpegAutorotate.rotateThumbnail(new File(IPHONE_GPS), new JpegAutorotateOptions())));
+        assertEquals(160, thumbnail.getWidth());
+        assertEquals(120, thumbnail.getHeight());
+
+        assertThrows(JpegAutorotateException.class, () -> JpegAutorotate.rotateThumbnail(new File(ORIENTATION_6), new JpegAutorotateOptions()));
+        assertThrows(JpegAutorotateException.class, () -> JpegAutorotate.rotateThumbnail(new File(NO_EXIF), new JpegAutorotateOptions()));
+    }
+
+    @Test
+    void testRotateBandedProcessing() throws Exception {
+        // Small bands, spilling and encoding each image in several strips and bands
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setBandedProcessing(true).setMaxBandBytes(100_000);
+
+        testSimilarImage(ORIENTATION_2, ORIENTATION_2_RESULT, rotateToStream(ORIENTATION_2, options));
+        testSimilarImage(ORIENTATION_3, ORIENTATION_3_RESULT, rotateToStream(ORIENTATION_3, options));
+        testSimilarImage(ORIENTATION_4, ORIENTATION_4_RESULT, rotateToStream(ORIENTATION_4, options));
+        testSimilarImage(ORIENTATION_5, ORIENTATION_5_RESULT, rotateToStream(ORIENTATION_5, options));
+        testSimilarImage(ORIENTATION_6, ORIENTATION_6_RESULT, rotateToStream(ORIENTATION_6, options));
+        testSimilarImage(ORIENTATION_7, ORIENTATION_7_RESULT, rotateToStream(ORIENTATION_7, options));
+        testSimilarImage(ORIENTATION_8, ORIENTATION_8_RESULT, rotateToStream(ORIENTATION_8, options));
+        testSimilarImage(CANON_HDR, CANON_HDR_RESULT, rotateToStream(CANON_HDR, options));
+
+        // Already properly oriented images are copied as is
+        byte[] originalImageBytes;
+        try (InputStream is = new FileInputStream(ORIENTATION_1)) {
+            originalImageBytes = IOUtils.toByteArray(is);
+        }
+        assertArrayEquals(originalImageBytes, rotateToStream(ORIENTATION_1, options));
+
+        assertThrows(FileNotFoundException.class, () -> rotateToStream(IMAGE_DOES_NOT_EXIST, options));
+        assertThrows(JpegAutorotateException.class, () -> rotateToStream(PNG_IMAGE, options));
+        assertThrows(JpegAutorotateException.class, () -> rotateToStream(NO_EXIF, options));
+    }
+
+    @Test
+    void testRotateBufferPool() throws Exception {
+        JpegImageBufferPool pool = new JpegImageBufferPool(64L * 1024 * 1024);
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setBufferPool(pool);
+
+        // Pooled buffers produce the same image as newly allocated ones
+        for (String path : new String[] {ORIENTATION_6, ORIENTATION_8, ORIENTATION_6, ORIENTATION_3}) {
+            assertArrayEquals(JpegAutorotate.rotate(path), JpegAutorotate.rotate(path, options));
+        }
+
+        assertEquals(4, pool.getBorrowCount());
+        assertTrue(pool.getReuseCount() >= 2);
+        assertTrue(pool.getRetainedBytes() > 0);
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+
+        // Nothing is retained beyond the cap
+        JpegImageBufferPool emptyPool = new JpegImageBufferPool(0);
+        JpegAutorotate.rotate(ORIENTATION_6, new JpegAutorotateOptions().setBufferPool(emptyPool));
+        JpegAutorotate.rotate(ORIENTATION_6, new JpegAutorotateOptions().setBufferPool(emptyPool));
+        assertEquals(0, emptyPool.getReuseCount());
+        assertEquals(0, emptyPool.getRetainedBytes());
+
+        // Off-heap buffers produce the same image as heap ones
+        JpegImageBufferPool offHeapPool = new JpegImageBufferPool(64L * 1024 * 1024, true);
+        for (String path : new String[] {ORIENTATION_6, ORIENTATION_6, CANON_HDR}) {
+            assertArrayEquals(JpegAutorotate.rotate(path), JpegAutorotate.rotate(path, new JpegAutorotateOptions().setBufferPool(offHeapPool)));
+        }
+        assertEquals(1, offHeapPool.getReuseCount());
+        offHeapPool.clear();
+    }
+
+    @Test
+    void testRotateCancellation() throws Exception {
+        JpegAutorotateCancellation cancellation = new JpegAutorotateCancellation();
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setCancellation(cancellation);
+
+        // A token not cancelled before its deadline does not affect processing
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6), JpegAutorotate.rotate(ORIENTATION_6, options));
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6),
+                JpegAutorotate.rotate(ORIENTATION_6, new JpegAutorotateOptions().setCancellation(JpegAutorotateCancellation.withTimeout(1, TimeUnit.HOURS))));
+
+        cancellation.cancel();
+        assertThrows(JpegAutorotateCancelledException.class, () -> JpegAutorotate.rotate(ORIENTATION_6, options));
+        assertThrows(JpegAutorotateCancelledException.class, () -> rotateToStream(ORIENTATION_6, options.setBandedProcessing(true)));
+
+        JpegAutorotateOptions expiredOptions = new JpegAutorotateOptions().setCancellation(JpegAutorotateCancellation.withTimeout(0, TimeUnit.SECONDS));
+        assertThrows(JpegAutorotateCancelledException.class, () -> JpegAutorotate.rotate(CANON_HDR, expiredOptions));
+        assertThrows(JpegAutorotateCancelledException.class, () -> rotateToStream(CANON_HDR, expiredOptions.setBandedProcessing(true)));
+    }
+
+    @Test
+    void testStatistics() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName engine = new ObjectName("com.domenicseccareccia.jpegautorotate:type=Engine");
+        ObjectName decode = new ObjectName("com.domenicseccareccia.jpegautorotate:type=Stage,name=Decode");
+
+        JpegAutorotate.rotate(ORIENTATION_1);
+        server.invoke(engine, "reset", null, null);
+
+        JpegAutorotate.rotate(ORIENTATION_6);
+        JpegAutorotate.rotate(ORIENTATION_1);
+        assertThrows(JpegAutorotateException.class, () -> JpegAutorotate.rotate(NO_EXIF));
+
+        assertEquals(2L, server.getAttribute(engine, "ProcessedCount"));
+        assertEquals(1L, server.getAttribute(engine, "RotatedCount"));
+        assertEquals(1L, server.getAttribute(engine, "SkippedCount"));
+        assertEquals(1L, server.getAttribute(engine, "FailedCount"));
+        assertEquals(0L, server.getAttribute(engine, "InFlightImages"));
+        assertEquals(0.0, server.getAttribute(engine, "InFlightMegapixels"));
+        assertTrue((Long) server.getAttribute(engine, "OutputBytes") > 0);
+        assertTrue((Long) server.getAttribute(decode, "Count") >= 2);
+    }
+
+    private byte[] rotateToStream(String originalImagePath, JpegAutorotateOptions options) throws Exception {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            JpegAutorotate.rotate(new File(originalImagePath), baos, options);
+
+            return baos.toByteArray();
+        }
+    }
+
+    private void testSimilarImage(String originalImagePath, String resultImagePath, JpegAutorotateOptions options) throws Exception {
+        testSimilarImage(originalImagePath, resultImagePath, JpegAutorotate.rotate(originalImagePath, options));
+    }
+
+    private void testSimilarImage(String originalImagePath, String resultImagePath, byte[] rotatedImageBytes) throws Exception {
+
+        BufferedImage resultImage = ImageIO.read(new File(resultImagePath));
+        BufferedImage rotatedImage;
+        try (InputStream is = new ByteArrayInputStream(rotatedImageBytes)) {
+            rotatedImage = ImageIO.read(is);
+        }
+
+        assertEquals(resultImage.getWidth(), rotatedImage.getWidth());
+        assertEquals(resultImage.getHeight(), rotatedImage.getHeight());
+
+        JpegImageMetadata rotatedImageMetadata = (org.apache.commons.imaging.formats.jpeg.JpegImageMetadata) Imaging.getMetadata(rotatedImageBytes);
+        assertEquals(TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL, rotatedImageMetadata.findEXIFValueWithExactMatch(TiffTagConstants.TIFF_TAG_ORIENTATION).getIntValue());
+
+        // Re-encoding is lossy, compare the average difference per channel instead of exact pixels
+        long difference = 0;
+        for (int y = 0; y < resultImage.getHeight(); y++) {
+            for (int x = 0; x < resultImage.getWidth(); x++) {
+                int expected = resultImage.getRGB(x, y);
+                int actual = rotatedImage.getRGB(x, y);
+
+                for (int shift = 0; shift < 24; shift += 8) {
+                    difference += Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+                }
+            }
+        }
+
+        assertTrue(difference / (3.0 * resultImage.getWidth() * resultImage.getHeight()) < 3.0);
+    }
+
     private void testRotateAndFlipImage(String originalImagePath, String resultImagePath) throws Exception {
         byte[] rotatedImageBytes;
 
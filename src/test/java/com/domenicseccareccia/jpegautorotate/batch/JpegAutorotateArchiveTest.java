@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateArchiveTest {
+
+    private static final Path ORIENTATION_1 = Paths.get("src/test/resources/orientation/orientation_1.jpg");
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path NO_EXIF = Paths.get("src/test/resources/exif/no_exif.jpg");
+    private static final Path GNU_TAR = Paths.get("src/test/resources/archive/gnu.tar");
+    private static final Path GNU_TAR_ROTATED = Paths.get("src/test/resources/archive/gnu_rotated.tar");
+    private static final Path PAX_TAR = Paths.get("src/test/resources/archive/pax.tar");
+    private static final Path PAX_TAR_ROTATED = Paths.get("src/test/resources/archive/pax_rotated.tar");
+    private static final byte[] TEXT = "Not an image.".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testProcessZip() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(archive)) {
+            ZipEntry stored = new ZipEntry("images/rotated.jpg");
+            byte[] bytes = Files.readAllBytes(ORIENTATION_6);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            stored.setCrc(crc.getValue());
+            putEntry(zos, stored, bytes);
+            putEntry(zos, new ZipEntry("images/upright.jpeg"), Files.readAllBytes(ORIENTATION_1));
+            putEntry(zos, new ZipEntry("images/no_exif.jpg"), Files.readAllBytes(NO_EXIF));
+            putEntry(zos, new ZipEntry("readme.txt"), TEXT);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processZip(new ByteArrayInputStream(archive.toByteArray()), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getUpright());
+        assertEquals(1, result.getFailed());
+        assertEquals(1, result.getSkipped());
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            ZipEntry entry = zis.getNextEntry();
+            assertEquals("images/rotated.jpg", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6.toFile()), IOUtils.toByteArray(zis));
+            assertArrayEquals(Files.readAllBytes(ORIENTATION_1), readEntry(zis, "images/upright.jpeg"));
+            assertArrayEquals(Files.readAllBytes(NO_EXIF), readEntry(zis, "images/no_exif.jpg"));
+            assertArrayEquals(TEXT, readEntry(zis, "readme.txt"));
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testProcessTar() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "rotated.jpg", Files.readAllBytes(ORIENTATION_6));
+        writeTarEntry(archive, "readme.txt", TEXT);
+        archive.write(new byte[10 * 512]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(new ByteArrayInputStream(archive.toByteArray()), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getSkipped());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writeTarEntry(expected, "rotated.jpg", JpegAutorotate.rotate(ORIENTATION_6.toFile()));
+        writeTarEntry(expected, "readme.txt", TEXT);
+        expected.write(new byte[10 * 512]);
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+    }
+
+    /**
+     * GNU tar archive of a JPEG image with a GNU long name, a symbolic link with a GNU long link name, and a sparse file
+     * with extended sparse headers.
+     */
+    @Test
+    void testProcessTarGnu() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(Files.newInputStream(GNU_TAR), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getFailed());
+        assertEquals(1, result.getSkipped());
+        assertArrayEquals(Files.readAllBytes(GNU_TAR_ROTATED), output.toByteArray());
+    }
+
+    /**
+     * PAX archive of the same files but the sparse one, the long names held by extended headers.
+     */
+    @Test
+    void testProcessTarPax() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(Files.newInputStream(PAX_TAR), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getFailed());
+        assertEquals(1, result.getSkipped());
+        assertArrayEquals(Files.readAllBytes(PAX_TAR_ROTATED), output.toByteArray());
+    }
+
+    @Test
+    void testProcessTarPaxSize() throws Exception {
+        // The extended header size overrides the one of the entry header, left at 0 as for entries of 8 GiB or more
+        byte[] records = "12 size=700\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] text = new byte[700];
+        Arrays.fill(text, (byte) 'a');
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, "PaxHeaders/large.txt", 'x', records);
+        writeTarEntry(archive, newTarHeader("large.txt", '0', 0), false, text);
+        writeTarEntry(archive, "rotated.jpg", Files.readAllBytes(ORIENTATION_6));
+        archive.write(new byte[2 * 512]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(new ByteArrayInputStream(archive.toByteArray()), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getSkipped());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writeTarEntry(expected, "PaxHeaders/large.txt", 'x', records);
+        writeTarEntry(expected, newTarHeader("large.txt", '0', 0), false, text);
+        writeTarEntry(expected, "rotated.jpg", JpegAutorotate.rotate(ORIENTATION_6.toFile()));
+        expected.write(new byte[2 * 512]);
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+    }
+
+    @Test
+    void testProcessTarBase256Size() throws Exception {
+        byte[] bytes = Files.readAllBytes(ORIENTATION_6);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, setBase256Size(newTarHeader("readme.txt", '0', 0), TEXT.length), false, TEXT);
+        writeTarEntry(archive, setBase256Size(newTarHeader("rotated.jpg", '0', 0), bytes.length), false, bytes);
+        archive.write(new byte[2 * 512]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(new ByteArrayInputStream(archive.toByteArray()), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getSkipped());
+
+        // Headers are kept as they are, but for the size of rotated images, written in octal
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writeTarEntry(expected, setBase256Size(newTarHeader("readme.txt", '0', 0), TEXT.length), false, TEXT);
+        writeTarEntry(expected, "rotated.jpg", JpegAutorotate.rotate(ORIENTATION_6.toFile()));
+        expected.write(new byte[2 * 512]);
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+    }
+
+    @Test
+    void testProcessTarSignedChecksum() throws Exception {
+        // Names with bytes over 0x7F, summed as signed bytes by some historic tar implementations
+        byte[] bytes = Files.readAllBytes(ORIENTATION_6);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeTarEntry(archive, newTarHeader("l\u00e9ame.txt", '0', TEXT.length), true, TEXT);
+        writeTarEntry(archive, newTarHeader("tourn\u00e9e.jpg", '0', bytes.length), true, bytes);
+        archive.write(new byte[2 * 512]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegAutorotateBatchResult result = new JpegAutorotateArchive().processTar(new ByteArrayInputStream(archive.toByteArray()), output);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getSkipped());
+
+        // The header of a rotated image gets the unsigned checksum along with its new size
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writeTarEntry(expected, newTarHeader("l\u00e9ame.txt", '0', TEXT.length), true, TEXT);
+        writeTarEntry(expected, "tourn\u00e9e.jpg", JpegAutorotate.rotate(ORIENTATION_6.toFile()));
+        expected.write(new byte[2 * 512]);
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+    }
+
+    private static void putEntry(final ZipOutputStream zos, final ZipEntry entry, final byte[] bytes) throws Exception {
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static byte[] readEntry(final ZipInputStream zis, final String name) throws Exception {
+        assertEquals(name, zis.getNextEntry().getName());
+        return IOUtils.toByteArray(zis);
+    }
+
+    /**
+     * Writes a ustar regular file entry, padded to the next block.
+     */
+    private static void writeTarEntry(final ByteArrayOutputStream os, final String name, final byte[] bytes) throws Exception {
+        writeTarEntry(os, name, '0', bytes);
+    }
+
+    private static void writeTarEntry(final ByteArrayOutputStream os, final String name, final char type, final byte[] bytes) throws Exception {
+        writeTarEntry(os, newTarHeader(name, type, bytes.length), false, bytes);
+    }
+
+    /**
+     * Writes a header, with its checksum summing either signed or unsigned bytes, followed by the entry data.
+     */
+    private static void writeTarEntry(final ByteArrayOutputStream os, final byte[] header, final boolean signed, final byte[] bytes)
+            throws Exception {
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += signed ? b : b & 0xFF;
+        }
+        setField(header, 148, String.format("%06o", checksum));
+
+        os.write(header);
+        os.write(bytes);
+        os.write(new byte[(512 - bytes.length % 512) % 512]);
+    }
+
+    private static byte[] newTarHeader(final String name, final char type, final long size) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        setField(header, 100, "0000644");
+        setField(header, 124, String.format("%011o", size));
+        setField(header, 136, "00000000000");
+        header[156] = (byte) type;
+        setField(header, 257, "ustar");
+        setField(header, 263, "00");
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        return header;
+    }
+
+    /**
+     * Writes the size as a big-endian binary number flagged by the high bit of its first byte, as GNU tar does past 8 GiB.
+     */
+    private static byte[] setBase256Size(final byte[] header, final long size) {
+        header[124] = (byte) 0x80;
+        for (int i = 0; i < 11; i++) {
+            header[135 - i] = (byte) (size >>> 8 * i);
+        }
+        return header;
+    }
+
+    private static void setField(final byte[] header, final int offset, final String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+        header[offset + bytes.length] = 0;
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateBatchTest {
+
+    private static final Path ORIENTATION_1 = Paths.get("src/test/resources/orientation/orientation_1.jpg");
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path ORIENTATION_8 = Paths.get("src/test/resources/orientation/orientation_8.jpg");
+    private static final Path NO_EXIF = Paths.get("src/test/resources/exif/no_exif.jpg");
+
+    @TempDir
+    Path temporaryDirectory;
+
+    @Test
+    void testProcess() throws Exception {
+        Path directory = Files.createDirectories(this.temporaryDirectory.resolve("images/nested"));
+        Path manifest = this.temporaryDirectory.resolve("manifest");
+        Files.copy(ORIENTATION_1, directory.resolve("upright.jpg"));
+        Files.copy(ORIENTATION_6, directory.resolve("rotated.JPG"));
+        Files.copy(NO_EXIF, directory.resolve("no_exif.jpeg"));
+
+        JpegAutorotateBatch batch = new JpegAutorotateBatch(manifest);
+        JpegAutorotateBatchResult result = batch.process(directory.getParent());
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getUpright());
+        assertEquals(1, result.getFailed());
+        assertEquals(0, result.getSkipped());
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6.toString()), Files.readAllBytes(directory.resolve("rotated.JPG")));
+        assertFalse(Files.exists(this.temporaryDirectory.resolve("manifest.journal")));
+
+        // Unchanged files, including the failed one, are skipped
+        result = batch.process(directory.getParent());
+        assertEquals(3, result.getSkipped());
+
+        // Touched files are skipped as long as their content is unchanged
+        Files.setLastModifiedTime(directory.resolve("no_exif.jpeg"), FileTime.fromMillis(0));
+        Files.copy(ORIENTATION_8, directory.resolve("upright.jpg"), StandardCopyOption.REPLACE_EXISTING);
+        result = batch.process(directory.getParent());
+        assertEquals(1, result.getRotated());
+        assertEquals(2, result.getSkipped());
+
+        // Failed files are retried on request
+        assertEquals(1, batch.setRetryFailed(true).process(directory.getParent()).getFailed());
+    }
+
+    @Test
+    void testProcessBanded() throws Exception {
+        Path directory = Files.createDirectories(this.temporaryDirectory.resolve("images"));
+        Files.copy(ORIENTATION_1, directory.resolve("upright.jpg"));
+        Files.copy(ORIENTATION_6, directory.resolve("rotated.jpg"));
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setBandedProcessing(true).setMaxBandBytes(100_000);
+
+        JpegAutorotateBatch batch = new JpegAutorotateBatch(this.temporaryDirectory.resolve("manifest")).setOptions(options);
+        JpegAutorotateBatchResult result = batch.process(directory);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getUpright());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JpegAutorotate.rotate(ORIENTATION_6.toFile(), expected, options);
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(directory.resolve("rotated.jpg")));
+        assertArrayEquals(Files.readAllBytes(ORIENTATION_1), Files.readAllBytes(directory.resolve("upright.jpg")));
+
+        // Files rotated in place are recorded with the hash of their result
+        Files.setLastModifiedTime(directory.resolve("rotated.jpg"), FileTime.fromMillis(0));
+        assertEquals(2, batch.process(directory).getSkipped());
+    }
+
+    @Test
+    void testResume() throws Exception {
+        Path directory = Files.createDirectories(this.temporaryDirectory.resolve("images"));
+        Path manifest = this.temporaryDirectory.resolve("manifest");
+        Path journal = this.temporaryDirectory.resolve("manifest.journal");
+        Files.copy(ORIENTATION_6, directory.resolve("a.jpg"));
+        Files.copy(ORIENTATION_8, directory.resolve("b.jpg"));
+
+        JpegAutorotateBatch batch = new JpegAutorotateBatch(manifest);
+        assertEquals(2, batch.process(directory).getRotated());
+
+        // A run interrupted after its first file leaves a journal, ending with a torn line
+        String entry = new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).split("\n")[1];
+        Files.delete(manifest);
+        Files.write(journal, (entry + "\nb.jpg\t12").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+        Files.copy(ORIENTATION_8, directory.resolve("b.jpg"), StandardCopyOption.REPLACE_EXISTING);
+
+        JpegAutorotateBatchResult result = batch.process(directory);
+        assertEquals(1, result.getSkipped());
+        assertEquals(1, result.getRotated());
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    void testOutputDirectory() throws Exception {
+        Path directory = Files.createDirectories(this.temporaryDirectory.resolve("images"));
+        Path output = directory.resolve("upright");
+        Files.copy(ORIENTATION_1, directory.resolve("upright.jpg"));
+        Files.copy(ORIENTATION_6, directory.resolve("rotated.jpg"));
+
+        JpegAutorotateBatch batch = new JpegAutorotateBatch(this.temporaryDirectory.resolve("manifest")).setOutputDirectory(output);
+        JpegAutorotateBatchResult result = batch.process(directory);
+
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getUpright());
+        assertArrayEquals(Files.readAllBytes(ORIENTATION_6), Files.readAllBytes(directory.resolve("rotated.jpg")));
+        assertArrayEquals(Files.readAllBytes(ORIENTATION_1), Files.readAllBytes(output.resolve("upright.jpg")));
+
+        // Outputs deleted since are written again
+        Files.delete(output.resolve("rotated.jpg"));
+        result = batch.process(directory);
+        assertEquals(1, result.getRotated());
+        assertEquals(1, result.getSkipped());
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateDistributedBatchTest {
+
+    private static final Path ORIENTATION_1 = Paths.get("src/test/resources/orientation/orientation_1.jpg");
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path NO_EXIF = Paths.get("src/test/resources/exif/no_exif.jpg");
+    private static final int SHARDS = 4;
+
+    @TempDir
+    Path temporaryDirectory;
+
+    /**
+     * Runs a worker, printing the rotated, upright and failed counts of its result.
+     */
+    public static void main(final String[] args) throws Exception {
+        JpegAutorotateBatchResult result = new JpegAutorotateDistributedBatch(Paths.get(args[1]))
+                .setShards(SHARDS)
+                .setLeaseDuration(2, TimeUnit.SECONDS)
+                .setWorkerId(args[2])
+                .process(Paths.get(args[0]));
+
+        System.out.println(result.getRotated() + " " + result.getUpright() + " " + result.getFailed());
+    }
+
+    @Test
+    void testProcess() throws Exception {
+        Path directory = Files.createDirectories(this.temporaryDirectory.resolve("images"));
+        Path workDirectory = directory.resolve(".work");
+        for (int i = 0; i < 8; i++) {
+            Files.copy(ORIENTATION_6, directory.resolve("rotated_" + i + ".jpg"));
+        }
+        Files.copy(ORIENTATION_1, directory.resolve("upright.jpg"));
+        Files.copy(NO_EXIF, directory.resolve("no_exif.jpg"));
+
+        // A worker crashed holding the lease of a shard
+        Path lease = Files.createDirectories(workDirectory.resolve("leases")).resolve("shard-"
+                + JpegAutorotateDistributedBatch.getShard("rotated_0.jpg", SHARDS) + ".lease");
+        Files.write(lease, "crashed".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            workers.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), JpegAutorotateDistributedBatchTest.class.getName(),
+                    directory.toString(), workDirectory.toString(), "worker-" + i)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+
+        int rotated = 0;
+        int upright = 0;
+        int failed = 0;
+        for (Process worker : workers) {
+            assertTrue(worker.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, worker.exitValue());
+
+            String[] counts = IOUtils.toString(worker.getInputStream(), StandardCharsets.UTF_8).trim().split(" ");
+            rotated += Integer.parseInt(counts[0]);
+            upright += Integer.parseInt(counts[1]);
+            failed += Integer.parseInt(counts[2]);
+        }
+
+        // Every file is processed once, by one worker or the other
+        assertEquals(8, rotated);
+        assertEquals(1, upright);
+        assertEquals(1, failed);
+        byte[] expected = JpegAutorotate.rotate(ORIENTATION_6.toFile());
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(expected, Files.readAllBytes(directory.resolve("rotated_" + i + ".jpg")));
+        }
+        for (int i = 0; i < SHARDS; i++) {
+            assertTrue(Files.exists(workDirectory.resolve("done/shard-" + i)));
+        }
+        try (Stream<Path> leases = Files.list(workDirectory.resolve("leases"))) {
+            assertEquals(0, leases.count());
+        }
+
+        // Once done, later workers have nothing left to process
+        JpegAutorotateBatchResult result = new JpegAutorotateDistributedBatch(workDirectory).process(directory);
+        assertEquals(0, result.getRotated() + result.getSkipped());
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.batch;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateWatcherTest {
+
+    private static final Path ORIENTATION_1 = Paths.get("src/test/resources/orientation/orientation_1.jpg");
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path NO_EXIF = Paths.get("src/test/resources/exif/no_exif.jpg");
+
+    @TempDir
+    Path temporaryDirectory;
+
+    @Test
+    void testWatch() throws Exception {
+        Path spool = Files.createDirectories(this.temporaryDirectory.resolve("spool"));
+        Path output = this.temporaryDirectory.resolve("output");
+        Path failed = this.temporaryDirectory.resolve("failed");
+        Map<Path, JpegAutorotateBatchOutcome> outcomes = new ConcurrentHashMap<>();
+        CountDownLatch processed = new CountDownLatch(3);
+
+        // Files present before starting are picked up too
+        Files.copy(ORIENTATION_1, spool.resolve("upright.jpg"));
+
+        try (JpegAutorotateWatcher watcher = new JpegAutorotateWatcher(spool, output)
+                .setFailedDirectory(failed)
+                .setWorkers(2)
+                .setQuietPeriod(50, TimeUnit.MILLISECONDS)
+                .setListener((file, outcome) -> {
+                    outcomes.put(spool.relativize(file), outcome);
+                    processed.countDown();
+                })) {
+            watcher.start();
+
+            Files.copy(ORIENTATION_6, Files.createDirectories(spool.resolve("camera")).resolve("rotated.jpg"));
+            Files.copy(NO_EXIF, spool.resolve("no_exif.jpg"));
+
+            assertTrue(processed.await(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(JpegAutorotateBatchOutcome.UPRIGHT, outcomes.get(Paths.get("upright.jpg")));
+        assertEquals(JpegAutorotateBatchOutcome.ROTATED, outcomes.get(Paths.get("camera", "rotated.jpg")));
+        assertEquals(JpegAutorotateBatchOutcome.FAILED, outcomes.get(Paths.get("no_exif.jpg")));
+
+        assertArrayEquals(Files.readAllBytes(ORIENTATION_1), Files.readAllBytes(output.resolve("upright.jpg")));
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6.toString()), Files.readAllBytes(output.resolve("camera/rotated.jpg")));
+        assertTrue(Files.exists(failed.resolve("no_exif.jpg")));
+        assertFalse(Files.exists(spool.resolve("upright.jpg")));
+        assertFalse(Files.exists(spool.resolve("camera/rotated.jpg")));
+    }
+
+}
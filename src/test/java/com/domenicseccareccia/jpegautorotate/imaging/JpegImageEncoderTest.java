@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancellation;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateCancelledException;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegImageEncoderTest {
+
+    @Test
+    void testEncodeCancelled() throws Exception {
+        BufferedImage image = new BufferedImage(4096, 4096, BufferedImage.TYPE_3BYTE_BGR);
+        new Random(0).nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        JpegAutorotateCancellation cancellation = new JpegAutorotateCancellation();
+
+        // Cancels once intervals are being encoded
+        Thread canceller = new Thread(() -> {
+            while (!isEncoding()) {
+                Thread.yield();
+            }
+            cancellation.cancel();
+        });
+        canceller.setDaemon(true);
+        canceller.start();
+
+        assertThrows(JpegAutorotateCancelledException.class, () -> JpegImageEncoder.encode(image, 4, cancellation));
+        assertFalse(isEncoding(), "Encoder threads still read the image once encoding returned.");
+        canceller.join();
+    }
+
+    private static boolean isEncoding() {
+        for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+            if (thread.getKey().getName().equals("jpeg-autorotate-encoder")
+                    && Arrays.stream(thread.getValue()).anyMatch(frame -> frame.getMethodName().equals("encodeBand"))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.apache.commons.imaging.common.bytesource.ByteSourceArray;
+import org.apache.commons.imaging.formats.jpeg.JpegImageParser;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.JpegImageData;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryType;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.taginfos.TagInfoShort;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegImageExifPatcherTest {
+
+    private static final TagInfoShort RELATED_IMAGE_WIDTH = new TagInfoShort("RelatedImageWidth", 0x1001, TiffDirectoryType.EXIF_DIRECTORY_INTEROP_IFD);
+    private static final TagInfoShort RELATED_IMAGE_LENGTH = new TagInfoShort("RelatedImageLength", 0x1002, TiffDirectoryType.EXIF_DIRECTORY_INTEROP_IFD);
+
+    @Test
+    void testPatch() throws Exception {
+        byte[] thumbnail = createJpeg(16, 8, true);
+        byte[] uprightThumbnail = createJpeg(8, 16, false);
+        assertTrue(uprightThumbnail.length < thumbnail.length);
+
+        for (ByteOrder byteOrder : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] bytes = createImage(byteOrder, thumbnail, 0);
+            byte[] segment = JpegImageSegments.getExifSegment(bytes);
+            assertEquals(byteOrder == ByteOrder.BIG_ENDIAN ? 'M' : 'I', segment[10]);
+
+            byte[] patched = JpegImageExifPatcher.patch(segment, 80, 160, uprightThumbnail);
+            assertNotNull(patched);
+            assertEquals(segment.length, patched.length);
+
+            // Every patched value is read back, and the untouched ones kept
+            TiffImageMetadata exif = readExif(JpegImageSegments.writeExifSegment(bytes, patched));
+            TiffDirectory root = exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_ROOT);
+            assertEquals(TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL, root.findField(TiffTagConstants.TIFF_TAG_ORIENTATION).getIntValue());
+            assertEquals("Camera", root.findField(TiffTagConstants.TIFF_TAG_MAKE).getStringValue());
+            assertEquals(80, exif.findField(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_WIDTH).getIntValue());
+            assertEquals(160, exif.findField(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_LENGTH).getIntValue());
+
+            TiffDirectory interop = exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_INTEROPERABILITY);
+            assertEquals(80, interop.findField(RELATED_IMAGE_WIDTH).getIntValue());
+            assertEquals(160, interop.findField(RELATED_IMAGE_LENGTH).getIntValue());
+
+            TiffDirectory ifd1 = exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_SUB);
+            assertEquals(TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL, ifd1.findField(TiffTagConstants.TIFF_TAG_ORIENTATION).getIntValue());
+            assertArrayEquals(uprightThumbnail, ifd1.getJpegImageData().getData());
+        }
+    }
+
+    @Test
+    void testPatchGrownThumbnail() throws Exception {
+        byte[] thumbnail = createJpeg(8, 16, false);
+        byte[] uprightThumbnail = createJpeg(16, 8, true);
+        assertTrue(uprightThumbnail.length > thumbnail.length);
+
+        // Ending the segment, but for word alignment padding, the thumbnail grows along with it
+        byte[] bytes = createImage(ByteOrder.BIG_ENDIAN, thumbnail, 0);
+        byte[] segment = JpegImageSegments.getExifSegment(bytes);
+        byte[] patched = JpegImageExifPatcher.patch(segment, 80, 160, uprightThumbnail);
+
+        assertNotNull(patched);
+        int start = segment.length - thumbnail.length - thumbnail.length % 2;
+        assertEquals(start + uprightThumbnail.length, patched.length);
+        assertEquals(patched.length - 2, (patched[2] & 0xFF) << 8 | (patched[3] & 0xFF));
+
+        TiffImageMetadata exif = readExif(JpegImageSegments.writeExifSegment(bytes, patched));
+        assertArrayEquals(uprightThumbnail, exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_SUB).getJpegImageData().getData());
+        assertEquals(80, exif.findField(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_WIDTH).getIntValue());
+    }
+
+    @Test
+    void testPatchFallback() throws Exception {
+        byte[] thumbnail = createJpeg(8, 16, false);
+        byte[] uprightThumbnail = createJpeg(16, 8, true);
+
+        // Followed by other data, the thumbnail cannot grow without moving it
+        byte[] bytes = createImage(ByteOrder.LITTLE_ENDIAN, thumbnail, 16);
+        assertNull(JpegImageExifPatcher.patch(JpegImageSegments.getExifSegment(bytes), 80, 160, uprightThumbnail));
+
+        // Left to the TiffOutputSet based rewrite instead
+        JpegImageMetadata metadata = new JpegImageMetadata(bytes);
+        metadata.updateMetadata();
+        metadata.updateThumbnail(uprightThumbnail);
+        assertNull(metadata.getPatchedExifSegment());
+
+        TiffImageMetadata exif = readExif(JpegImageProcessor.writeMetadata(bytes, metadata));
+        assertEquals(TiffTagConstants.ORIENTATION_VALUE_HORIZONTAL_NORMAL, exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_ROOT)
+                .findField(TiffTagConstants.TIFF_TAG_ORIENTATION).getIntValue());
+        assertEquals(8, exif.findField(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_WIDTH).getIntValue());
+        assertEquals(16, exif.findField(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_LENGTH).getIntValue());
+        assertArrayEquals(uprightThumbnail, exif.findDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_SUB).getJpegImageData().getData());
+    }
+
+    /**
+     * Creates a 16x8 JPEG image rotated 90 degrees clockwise, with an EXIF segment written by commons-imaging, which
+     * places the thumbnail last, optionally followed by {@code padding} bytes.
+     */
+    private static byte[] createImage(final ByteOrder byteOrder, final byte[] thumbnail, final int padding) throws Exception {
+        TiffOutputSet outputSet = new TiffOutputSet(byteOrder);
+        TiffOutputDirectory root = outputSet.getOrCreateRootDirectory();
+        root.add(TiffTagConstants.TIFF_TAG_ORIENTATION, (short) TiffTagConstants.ORIENTATION_VALUE_ROTATE_90_CW);
+        root.add(TiffTagConstants.TIFF_TAG_MAKE, "Camera");
+
+        TiffOutputDirectory exif = outputSet.getOrCreateExifDirectory();
+        exif.add(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_WIDTH, (short) 16);
+        exif.add(ExifTagConstants.EXIF_TAG_EXIF_IMAGE_LENGTH, (short) 8);
+
+        TiffOutputDirectory interop = outputSet.addInteroperabilityDirectory();
+        interop.add(RELATED_IMAGE_WIDTH, (short) 16);
+        interop.add(RELATED_IMAGE_LENGTH, (short) 8);
+
+        TiffOutputDirectory ifd1 = new TiffOutputDirectory(TiffDirectoryConstants.DIRECTORY_TYPE_SUB, byteOrder);
+        ifd1.add(TiffTagConstants.TIFF_TAG_ORIENTATION, (short) TiffTagConstants.ORIENTATION_VALUE_ROTATE_90_CW);
+        ifd1.setJpegImageData(new JpegImageData(0, thumbnail.length, thumbnail));
+        outputSet.addDirectory(ifd1);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ExifRewriter().updateExifMetadataLossy(createJpeg(16, 8, false), baos, outputSet);
+        byte[] bytes = baos.toByteArray();
+        if (padding == 0) {
+            return bytes;
+        }
+
+        byte[] segment = JpegImageSegments.getExifSegment(bytes);
+        byte[] padded = Arrays.copyOf(segment, segment.length + padding);
+        padded[2] = (byte) ((padded.length - 2) >> 8);
+        padded[3] = (byte) (padded.length - 2);
+
+        return JpegImageSegments.writeExifSegment(bytes, padded);
+    }
+
+    private static byte[] createJpeg(final int width, final int height, final boolean noise) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (noise) {
+            Random random = new Random(0);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", baos);
+        return baos.toByteArray();
+    }
+
+    private static TiffImageMetadata readExif(final byte[] bytes) throws Exception {
+        return new JpegImageParser().getExifMetadata(new ByteSourceArray(bytes), null);
+    }
+
+}
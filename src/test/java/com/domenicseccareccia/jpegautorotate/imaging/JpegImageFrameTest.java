@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegImageFrameTest {
+
+    @Test
+    void testPreserveCompressionTransposed() throws Exception {
+        // Orientation 6, its tables replaced by one with steps growing 4 times faster horizontally than vertically
+        byte[] bytes = Files.readAllBytes(Paths.get("src/test/resources/orientation/orientation_6.jpg"));
+        int[] table = new int[64];
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                table[v * 8 + u] = 2 + 4 * u + v;
+            }
+        }
+        setQuantizationTables(bytes, table);
+
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setPreserveCompression(true);
+        byte[] rotated = JpegAutorotate.rotate(new ByteArrayInputStream(bytes), options);
+        int[][] tables = JpegImageFrame.read(rotated).getQuantizationTables();
+
+        assertEquals(2, tables.length);
+        for (int[] written : tables) {
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    assertEquals(table[u * 8 + v], written[v * 8 + u], "u " + u + ", v " + v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Overwrites every 8 bit table of the {@code DQT} segments with {@code table}, given in natural order.
+     */
+    private static void setQuantizationTables(final byte[] bytes, final int[] table) throws Exception {
+        for (JpegImageSegments.Segment segment : JpegImageSegments.readSegments(bytes)) {
+            if (segment.getMarker() != JpegImageSegments.MARKER_DQT) {
+                continue;
+            }
+
+            for (int offset = segment.getDataOffset(); offset < segment.getOffset() + segment.getLength(); offset += 65) {
+                assertEquals(0, (bytes[offset] & 0xFF) >> 4);
+                for (int k = 0; k < 64; k++) {
+                    bytes[offset + 1 + k] = (byte) table[JpegImageEncoder.ZIGZAG[k]];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JpegImageKernelsTest {
+
+    // Odd sizes, so rows and columns end part way through a block and a vector.
+    private static final int[] SIZES = {1, 3, 7, 9, 11, 17, 19, 33, 37};
+
+    private static final int[] PIXEL_STRIDES = {1, 2, 3, 4};
+
+    // Bytes around the pixels, so writes before or past them are caught.
+    private static final int PADDING = 5;
+
+    @Test
+    void testVectorized() {
+        // Set by the surefire execution running these tests against the Java 17 layer with jdk.incubator.vector added.
+        assumeTrue(Boolean.getBoolean("jpegautorotate.vectorKernels"), "Not running against the Java 17 layer.");
+        String location = JpegImageVectorKernels.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        assertTrue(location.endsWith("/META-INF/versions/17/"), "Vector API kernels loaded from " + location);
+        assumeTrue(JpegImageKernels.isVectorized(), "Vector API kernels not supported by the hardware.");
+    }
+
+    @Test
+    void testReverse() {
+        Random random = new Random(0);
+
+        for (int pixelStride : PIXEL_STRIDES) {
+            for (int width : SIZES) {
+                byte[] source = new byte[width * pixelStride + 2 * PADDING];
+                random.nextBytes(source);
+                byte[] target = new byte[source.length];
+                random.nextBytes(target);
+                byte[] expected = target.clone();
+
+                for (int x = 0; x < width; x++) {
+                    System.arraycopy(source, PADDING + x * pixelStride, expected, PADDING + (width - 1 - x) * pixelStride, pixelStride);
+                }
+
+                JpegImageKernels.reverse(source, PADDING, target, PADDING, width, pixelStride);
+                assertArrayEquals(expected, target, "width " + width + ", pixel stride " + pixelStride);
+            }
+        }
+    }
+
+    @Test
+    void testTranspose() {
+        Random random = new Random(0);
+
+        for (int pixelStride : PIXEL_STRIDES) {
+            for (int width : SIZES) {
+                for (int height : SIZES) {
+                    int sourceStride = width * pixelStride + PADDING;
+                    byte[] source = new byte[height * sourceStride + 2 * PADDING];
+                    random.nextBytes(source);
+                    int targetXStep = height * pixelStride;
+
+                    // Clockwise rotation lands source rows on target columns right to left, transposition left to right.
+                    for (int targetYStep : new int[]{pixelStride, -pixelStride}) {
+                        int targetOffset = PADDING + (targetYStep < 0 ? (height - 1) * pixelStride : 0);
+                        byte[] target = new byte[width * targetXStep + 2 * PADDING];
+                        random.nextBytes(target);
+                        byte[] expected = target.clone();
+
+                        for (int y = 0; y < height; y++) {
+                            for (int x = 0; x < width; x++) {
+                                System.arraycopy(source, PADDING + y * sourceStride + x * pixelStride, expected,
+                                        targetOffset + x * targetXStep + y * targetYStep, pixelStride);
+                            }
+                        }
+
+                        JpegImageKernels.transpose(source, PADDING, sourceStride, target, targetOffset, targetXStep, targetYStep, width,
+                                height, pixelStride);
+                        assertArrayEquals(expected, target,
+                                width + "x" + height + ", pixel stride " + pixelStride + ", target y step " + targetYStep);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.imaging;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JpegImageStageEventTest {
+
+    private static final String EVENT_NAME = "com.domenicseccareccia.jpegautorotate.Stage";
+    private static final String ORIENTATION_6 = "src/test/resources/orientation/orientation_6.jpg";
+
+    @Test
+    void testBandedProcessingEvents() throws Exception {
+        assumeTrue(isFlightRecorderAvailable(), "Java Flight Recorder is not available.");
+
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setBandedProcessing(true).setMaxBandBytes(100_000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Path dump = Files.createTempFile("jpeg-autorotate", ".jfr");
+
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(EVENT_NAME);
+                recording.start();
+                JpegAutorotate.rotate(new File(ORIENTATION_6), baos, options);
+                recording.stop();
+                recording.dump(dump);
+            }
+
+            String thread = Thread.currentThread().getName();
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+                    .filter(event -> event.getEventType().getName().equals(EVENT_NAME))
+                    .filter(event -> event.getThread() != null && thread.equals(event.getThread().getJavaName()))
+                    .collect(Collectors.toList());
+            BufferedImage rotated = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+
+            // Metadata is read from the header once
+            List<RecordedEvent> metadataReads = getEvents(events, JpegImageStage.METADATA_READ);
+            assertEquals(1, metadataReads.size());
+            assertTrue(metadataReads.get(0).getLong("inputBytes") > 0);
+
+            // Every band is encoded as full width rows, together covering the image
+            List<RecordedEvent> encodes = getEvents(events, JpegImageStage.ENCODE);
+            assertTrue(encodes.size() > 1);
+            int rows = 0;
+            for (RecordedEvent encode : encodes) {
+                assertEquals("banded", encode.getString("path"));
+                assertEquals(rotated.getWidth(), encode.getInt("width"));
+                rows += encode.getInt("height");
+            }
+            assertEquals(rotated.getHeight(), rows);
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    private static List<RecordedEvent> getEvents(final List<RecordedEvent> events, final JpegImageStage stage) {
+        return events.stream().filter(event -> stage.getLabel().equals(event.getString("stage"))).collect(Collectors.toList());
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.domenicseccareccia.jpegautorotate.service;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import com.domenicseccareccia.jpegautorotate.JpegAutorotateOptions;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateServerTest {
+
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path NO_EXIF = Paths.get("src/test/resources/exif/no_exif.jpg");
+
+    @Test
+    void testRotate() throws Exception {
+        try (JpegAutorotateServer server = new JpegAutorotateServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .setWorkers(1)
+                .setMaxQueuedRequests(0)) {
+            server.start();
+
+            HttpURLConnection connection = post(server, "/rotate", Files.readAllBytes(ORIENTATION_6));
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("image/jpeg", connection.getContentType());
+            assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_6.toFile()), IOUtils.toByteArray(connection.getInputStream()));
+
+            assertEquals(422, post(server, "/rotate", Files.readAllBytes(NO_EXIF)).getResponseCode());
+            assertEquals(404, post(server, "/other", new byte[1]).getResponseCode());
+
+            // Answered requests released their admission before their response was written
+            assertTrue(getStats(server).contains("\"inFlightRequests\":0,"));
+
+            // A request still sending its body holds the only admission slot
+            try (Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort())) {
+                OutputStream os = socket.getOutputStream();
+                os.write(("POST /rotate HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                os.flush();
+                awaitInFlightRequests(server, 1);
+
+                HttpURLConnection rejected = post(server, "/rotate", Files.readAllBytes(ORIENTATION_6));
+                assertEquals(429, rejected.getResponseCode());
+                assertEquals("1", rejected.getHeaderField("Retry-After"));
+            }
+
+            String json = getStats(server);
+            assertTrue(json.contains("\"completed\":1,") && json.contains("\"rejected\":1,"), json);
+        }
+    }
+
+    @Test
+    void testRotateBanded() throws Exception {
+        JpegAutorotateOptions options = new JpegAutorotateOptions().setBandedProcessing(true).setMaxBandBytes(64 * 1024);
+
+        try (JpegAutorotateServer server = new JpegAutorotateServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .setOptions(options)
+                .setMaxRequestBytes(Files.size(ORIENTATION_6))) {
+            server.start();
+
+            HttpURLConnection connection = post(server, "/rotate", Files.readAllBytes(ORIENTATION_6));
+            assertEquals(200, connection.getResponseCode());
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            JpegAutorotate.rotate(ORIENTATION_6.toFile(), expected, options);
+            try (InputStream is = connection.getInputStream()) {
+                assertArrayEquals(expected.toByteArray(), IOUtils.toByteArray(is));
+            }
+
+            assertEquals(413, post(server, "/rotate", new byte[(int) Files.size(ORIENTATION_6) + 1]).getResponseCode());
+        }
+    }
+
+    @Test
+    void testRotateTooLarge() throws Exception {
+        try (JpegAutorotateServer server = new JpegAutorotateServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .setMaxInFlightBytes(4L * 1024 * 1024 * 1024)
+                .setMaxRequestBytes(4L * 1024 * 1024 * 1024)) {
+            server.start();
+
+            // Bodies read into memory are bounded by the largest array, whatever the limits set
+            try (Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort())) {
+                OutputStream os = socket.getOutputStream();
+                os.write(("POST /rotate HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3000000000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                os.flush();
+
+                String status = IOUtils.lineIterator(socket.getInputStream(), StandardCharsets.US_ASCII).next();
+                assertTrue(status.startsWith("HTTP/1.1 413 "), status);
+            }
+        }
+
+        try (JpegAutorotateServer server = new JpegAutorotateServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .setMaxRequestBytes(1024)) {
+            server.start();
+
+            assertEquals(413, post(server, "/rotate", new byte[1025]).getResponseCode());
+
+            // Found too large once read, a body of unknown length counts the same
+            HttpURLConnection connection = (HttpURLConnection) new URL("http", "localhost", server.getAddress().getPort(), "/rotate").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(512);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(new byte[1025]);
+            }
+            assertEquals(413, connection.getResponseCode());
+
+            String json = getStats(server);
+            assertTrue(json.contains("\"tooLarge\":2,") && json.contains("\"failed\":0,") && json.contains("\"inFlightRequests\":0,"), json);
+        }
+    }
+
+    private static String getStats(final JpegAutorotateServer server) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "localhost", server.getAddress().getPort(), "/stats").openConnection();
+
+        try (InputStream is = connection.getInputStream()) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void awaitInFlightRequests(final JpegAutorotateServer server, final int requests) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String json;
+
+        while (!(json = getStats(server)).contains("\"inFlightRequests\":" + requests + ",")) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for " + requests + " requests in flight: " + json);
+            Thread.sleep(10);
+        }
+    }
+
+    private static HttpURLConnection post(final JpegAutorotateServer server, final String path, final byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "localhost", server.getAddress().getPort(), path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        return connection;
+    }
+
+}
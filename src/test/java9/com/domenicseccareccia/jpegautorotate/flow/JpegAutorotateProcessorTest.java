@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2019-2021 Domenic Seccareccia and contributors
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.domenicseccareccia.jpegautorotate.flow;
+
+import com.domenicseccareccia.jpegautorotate.JpegAutorotate;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegAutorotateProcessorTest {
+
+    private static final Path ORIENTATION_6 = Paths.get("src/test/resources/orientation/orientation_6.jpg");
+    private static final Path ORIENTATION_8 = Paths.get("src/test/resources/orientation/orientation_8.jpg");
+
+    @Test
+    void testOrdered() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6), source(ORIENTATION_8), source(ORIENTATION_6));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setMaxInFlight(3));
+
+        subscriber.subscription.request(10);
+        assertEquals(3, executor.tasks.size());
+
+        // Results wait for the ones before them
+        executor.run(2);
+        executor.run(1);
+        assertTrue(subscriber.results.isEmpty());
+        executor.run(0);
+        assertEquals(3, subscriber.results.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, subscriber.results.get(i).getIndex());
+            assertTrue(subscriber.results.get(i).isSuccessful());
+        }
+        assertArrayEquals(JpegAutorotate.rotate(ORIENTATION_8.toFile()), subscriber.results.get(1).getImage());
+
+        publisher.subscriber.onComplete();
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void testUnordered() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6), source(ORIENTATION_8), source(ORIENTATION_6));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setOrdered(false).setMaxInFlight(3));
+
+        subscriber.subscription.request(10);
+        executor.run(2);
+        executor.run(0);
+        executor.run(1);
+
+        assertEquals(2, subscriber.results.get(0).getIndex());
+        assertEquals(0, subscriber.results.get(1).getIndex());
+        assertEquals(1, subscriber.results.get(2).getIndex());
+    }
+
+    @Test
+    void testMaxInFlight() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6), source(ORIENTATION_8), source(ORIENTATION_6), source(ORIENTATION_8));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setMaxInFlight(2));
+
+        // Sources are requested up to the limit even without demand, but results wait for it
+        assertEquals(2, publisher.requested);
+        executor.run(0);
+        executor.run(1);
+        assertEquals(2, publisher.requested);
+        assertTrue(subscriber.results.isEmpty());
+
+        // Each delivered result makes room for the next source
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.results.size());
+        assertEquals(3, publisher.requested);
+        assertEquals(3, executor.tasks.size());
+    }
+
+    @Test
+    void testMaxInFlightBytes() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6), source(ORIENTATION_8));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setMaxInFlightBytes(1));
+
+        // An image larger than the limit is still admitted alone
+        subscriber.subscription.request(2);
+        assertEquals(1, publisher.requested);
+        assertEquals(1, executor.tasks.size());
+
+        executor.run(0);
+        assertEquals(1, subscriber.results.size());
+        assertEquals(2, publisher.requested);
+        executor.run(1);
+        assertEquals(2, subscriber.results.size());
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6), source(ORIENTATION_8));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setMaxInFlight(2));
+
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        assertTrue(publisher.cancelled);
+
+        // Images being rotated are discarded
+        executor.run(0);
+        executor.run(1);
+        publisher.subscriber.onComplete();
+        assertTrue(subscriber.results.isEmpty());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    void testUpstreamError() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(source(ORIENTATION_6));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor));
+        subscriber.subscription.request(2);
+
+        // Signalled once the result in flight is delivered
+        IOException error = new IOException("Upstream failed.");
+        publisher.subscriber.onError(error);
+        assertNull(subscriber.error);
+        executor.run(0);
+        assertEquals(1, subscriber.results.size());
+        assertSame(error, subscriber.error);
+    }
+
+    @Test
+    void testFailedSources() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        TestPublisher publisher = new TestPublisher(JpegAutorotateSource.of(Paths.get("src/test/resources/does_not_exist.jpg")),
+                JpegAutorotateSource.of(new byte[] {1, 2, 3}), source(ORIENTATION_6));
+        TestSubscriber subscriber = subscribe(publisher, new JpegAutorotateProcessor().setExecutor(executor).setMaxInFlight(3));
+        subscriber.subscription.request(3);
+        executor.run(0);
+        executor.run(1);
+        executor.run(2);
+
+        // Failures are delivered as results, without ending the stream
+        assertEquals(3, subscriber.results.size());
+        assertFalse(subscriber.results.get(0).isSuccessful());
+        assertTrue(subscriber.results.get(0).getFailure().getCause() instanceof IOException);
+        assertFalse(subscriber.results.get(1).isSuccessful());
+        assertTrue(subscriber.results.get(2).isSuccessful());
+
+        publisher.subscriber.onComplete();
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    private static JpegAutorotateSource source(final Path path) throws IOException {
+        return JpegAutorotateSource.of(Files.readAllBytes(path));
+    }
+
+    private static TestSubscriber subscribe(final TestPublisher publisher, final JpegAutorotateProcessor processor) {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        return subscriber;
+    }
+
+    /**
+     * Runs rotations on request, in any order, by the order they were submitted in.
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable task) {
+            this.tasks.add(task);
+        }
+
+        private void run(final int index) {
+            this.tasks.set(index, null).run();
+        }
+
+    }
+
+    /**
+     * Publishes its sources as they are requested, leaving termination to the test.
+     */
+    private static final class TestPublisher implements Flow.Publisher<JpegAutorotateSource> {
+
+        private final Queue<JpegAutorotateSource> sources = new ArrayDeque<>();
+        private Flow.Subscriber<? super JpegAutorotateSource> subscriber;
+        private long requested;
+        private boolean cancelled;
+
+        private TestPublisher(final JpegAutorotateSource... sources) {
+            this.sources.addAll(List.of(sources));
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super JpegAutorotateSource> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    for (long i = 0; i < n && !TestPublisher.this.sources.isEmpty(); i++) {
+                        TestPublisher.this.requested++;
+                        subscriber.onNext(TestPublisher.this.sources.poll());
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    TestPublisher.this.cancelled = true;
+                }
+            });
+        }
+
+    }
+
+    private static final class TestSubscriber implements Flow.Subscriber<JpegAutorotateResult> {
+
+        private final List<JpegAutorotateResult> results = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final JpegAutorotateResult result) {
+            this.results.add(result);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+
+    }
+
+}